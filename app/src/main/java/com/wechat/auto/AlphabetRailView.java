@@ -0,0 +1,120 @@
+package com.wechat.auto;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * 字母导航条
+ * 竖排显示A~Z和#,按住上下滑动时回调当前字母,用于在好友列表中快速跳转到对应分组
+ * 列表中没有的字母显示为浅灰色
+ */
+public class AlphabetRailView extends View {
+
+    public static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ#";
+
+    private static final int COLOR_PRESENT = Color.parseColor("#333333");
+    private static final int COLOR_ABSENT = Color.parseColor("#CCCCCC");
+    private static final int COLOR_PRESSED = Color.parseColor("#22000000");
+
+    /**
+     * 字母选择回调
+     */
+    public interface OnLetterSelectedListener {
+        void onLetterSelected(char letter);
+    }
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final boolean[] present = new boolean[LETTERS.length()];
+    private OnLetterSelectedListener listener;
+    private int selected = -1;
+
+    public AlphabetRailView(Context context) {
+        this(context, null);
+    }
+
+    public AlphabetRailView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 11,
+            getResources().getDisplayMetrics()));
+    }
+
+    public void setOnLetterSelectedListener(OnLetterSelectedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置列表中出现的分组字母
+     */
+    public void setPresentLetters(boolean[] letters) {
+        System.arraycopy(letters, 0, present, 0, present.length);
+        invalidate();
+    }
+
+    /**
+     * 分组字母在LETTERS中的位置
+     */
+    public static int indexOf(char section) {
+        int index = LETTERS.indexOf(section);
+        return index >= 0 ? index : LETTERS.length() - 1;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (selected >= 0) {
+            canvas.drawColor(COLOR_PRESSED);
+        }
+
+        float cellHeight = (float) (getHeight() - getPaddingTop() - getPaddingBottom()) / LETTERS.length();
+        float x = getWidth() / 2f;
+        Paint.FontMetrics metrics = textPaint.getFontMetrics();
+        float baselineOffset = (cellHeight - metrics.ascent - metrics.descent) / 2f;
+        for (int i = 0; i < LETTERS.length(); i++) {
+            textPaint.setColor(present[i] ? COLOR_PRESENT : COLOR_ABSENT);
+            textPaint.setFakeBoldText(i == selected);
+            float y = getPaddingTop() + cellHeight * i + baselineOffset;
+            canvas.drawText(LETTERS, i, i + 1, x, y, textPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                getParent().requestDisallowInterceptTouchEvent(true);
+                select(letterAt(event.getY()));
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                selected = -1;
+                invalidate();
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    private int letterAt(float y) {
+        float cellHeight = (float) (getHeight() - getPaddingTop() - getPaddingBottom()) / LETTERS.length();
+        int index = (int) ((y - getPaddingTop()) / cellHeight);
+        return Math.max(0, Math.min(LETTERS.length() - 1, index));
+    }
+
+    private void select(int index) {
+        if (index == selected) {
+            return;
+        }
+        selected = index;
+        invalidate();
+        if (listener != null) {
+            listener.onLetterSelected(LETTERS.charAt(index));
+        }
+    }
+}
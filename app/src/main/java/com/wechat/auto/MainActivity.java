@@ -7,20 +7,34 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.provider.DocumentsContract;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import com.wechat.auto.data.DataExporter;
+import com.wechat.auto.data.MomentMediaDownloader;
+import com.wechat.auto.data.TaskJournal;
+import com.wechat.auto.model.TaskProgress;
+import com.wechat.auto.service.TaskProgressChannel;
 import com.wechat.auto.service.WeChatAccessibilityService;
 import com.wechat.auto.utils.PermissionHelper;
+import com.wechat.auto.utils.StepTracer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -31,6 +45,10 @@ import java.util.Set;
  * 2. 检查和申请悬浮窗权限
  * 3. 启动/停止自动化服务
  * 4. 显示服务状态
+ * 5. 提示恢复上次未完成的任务
+ * 6. 实时显示任务进度、吞吐量、各步骤耗时和预计剩余时间
+ * 7. 增量采集好友的朋友圈
+ * 8. 导出通讯录、发送记录和朋友圈 (CSV/Markdown)
  */
 public class MainActivity extends AppCompatActivity {
 
@@ -39,6 +57,10 @@ public class MainActivity extends AppCompatActivity {
     public static final String EXTRA_FRIENDS = "friends";
     private static final String PREFS_NAME = "WeChatAutoPrefs";
     private static final String KEY_FRIENDS = "friends_list";
+    private static final int REQUEST_EXPORT = 2001;
+    private static final String STATE_EXPORT_KIND = "pending_export_kind";
+    private static final String STATE_EXPORT_GZIP = "pending_export_gzip";
+    private static final String STATE_EXPORT_CAMPAIGN = "pending_export_campaign";
 
     private TextView tvServiceStatus;
     private Button btnEnableAccessibility;
@@ -46,29 +68,78 @@ public class MainActivity extends AppCompatActivity {
     private Button btnStartService;
     private Button btnStopService;
     private Button btnSyncContacts;
+    private Button btnCollectMoments;
+    private Button btnExport;
     private TextView tvFriendCount;
+    private TextView tvDashboardProgress;
+    private ProgressBar pbDashboard;
+    private TextView tvDashboardRate;
+    private TextView tvDashboardSteps;
+    private TaskProgressChannel.TerminalEvent lastTerminal; // 最近一次任务结束事件
+
+    // 订阅服务的任务进度 (服务按固定频率合并推送,不需要轮询)
+    private final TaskProgressChannel.Listener progressListener = new TaskProgressChannel.Listener() {
+        @Override
+        public void onProgress(TaskProgress progress) {
+            updateDashboard(progress);
+        }
+
+        @Override
+        public void onTerminal(TaskProgressChannel.TerminalEvent event) {
+            lastTerminal = event;
+        }
+    };
 
     private BroadcastReceiver friendsReceiver;
+    private AlertDialog resumeDialog;
+
+    // 导出相关 (选择保存位置后开始导出)
+    private DataExporter.Kind pendingExportKind;
+    private boolean pendingExportGzip;
+    private String pendingExportCampaign;
+    private AlertDialog exportDialog;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // 选择保存位置期间界面被重建(旋转屏幕、被系统回收)时恢复导出设置
+        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_EXPORT_KIND)) {
+            pendingExportKind = DataExporter.Kind.valueOf(savedInstanceState.getString(STATE_EXPORT_KIND));
+            pendingExportGzip = savedInstanceState.getBoolean(STATE_EXPORT_GZIP);
+            pendingExportCampaign = savedInstanceState.getString(STATE_EXPORT_CAMPAIGN);
+        }
+
         initViews();
         setupListeners();
         setupBroadcastReceiver();
         loadFriendsFromPrefs();
         updateServiceStatus();
 
-        // 请求存储权限
-        requestStoragePermissions();
+        // 请求存储权限,之后再请求通知权限(同一时间只能弹出一个权限请求)
+        if (!requestStoragePermissions()) {
+            requestNotificationPermission();
+        }
+    }
+
+    /**
+     * 请求通知权限 (Android 13+)
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                    != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                new String[]{Manifest.permission.POST_NOTIFICATIONS}, 101);
+        }
     }
 
     /**
      * 请求存储权限
+     * @return 是否弹出了权限请求
      */
-    private void requestStoragePermissions() {
+    private boolean requestStoragePermissions() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             // Android 13+ 使用新的媒体权限
             if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_MEDIA_IMAGES)
@@ -81,6 +152,7 @@ public class MainActivity extends AppCompatActivity {
                         Manifest.permission.READ_MEDIA_IMAGES,
                         Manifest.permission.READ_MEDIA_VIDEO
                     }, 100);
+                return true;
             }
         } else {
             // Android 12及以下使用旧的存储权限
@@ -89,8 +161,10 @@ public class MainActivity extends AppCompatActivity {
 
                 ActivityCompat.requestPermissions(this,
                     new String[]{Manifest.permission.READ_EXTERNAL_STORAGE}, 100);
+                return true;
             }
         }
+        return false;
     }
 
     @Override
@@ -111,6 +185,8 @@ public class MainActivity extends AppCompatActivity {
             } else {
                 Toast.makeText(this, "存储权限被拒绝,无法选择图片和视频", Toast.LENGTH_LONG).show();
             }
+
+            requestNotificationPermission();
         }
     }
 
@@ -120,6 +196,15 @@ public class MainActivity extends AppCompatActivity {
         updateServiceStatus();
         // 每次回到前台时重新加载好友列表
         loadFriendsFromPrefs();
+        checkResumableTask();
+        // 在前台时订阅任务进度
+        TaskProgressChannel.getInstance().subscribe(progressListener);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        TaskProgressChannel.getInstance().unsubscribe(progressListener);
     }
 
     @Override
@@ -140,7 +225,13 @@ public class MainActivity extends AppCompatActivity {
         btnStartService = findViewById(R.id.btn_start_service);
         btnStopService = findViewById(R.id.btn_stop_service);
         btnSyncContacts = findViewById(R.id.btn_sync_contacts);
+        btnCollectMoments = findViewById(R.id.btn_collect_moments);
+        btnExport = findViewById(R.id.btn_export);
         tvFriendCount = findViewById(R.id.tv_friend_count);
+        tvDashboardProgress = findViewById(R.id.tv_dashboard_progress);
+        pbDashboard = findViewById(R.id.pb_dashboard);
+        tvDashboardRate = findViewById(R.id.tv_dashboard_rate);
+        tvDashboardSteps = findViewById(R.id.tv_dashboard_steps);
     }
 
     /**
@@ -192,12 +283,182 @@ public class MainActivity extends AppCompatActivity {
         btnSyncContacts.setOnClickListener(v -> {
             WeChatAccessibilityService service = WeChatAccessibilityService.getInstance();
             if (service != null) {
-                service.syncContacts();
-                Toast.makeText(this, "开始同步通讯录...", Toast.LENGTH_SHORT).show();
+                boolean queued = service.syncContacts();
+                Toast.makeText(this, queued ? "有任务在执行,同步通讯录已加入队列" : "开始同步通讯录...",
+                    Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(this, "无障碍服务未运行,请先开启无障碍服务", Toast.LENGTH_LONG).show();
             }
         });
+
+        // 采集朋友圈
+        btnCollectMoments.setOnClickListener(v -> showCollectMomentsDialog());
+
+        // 导出数据
+        btnExport.setOnClickListener(v -> showExportDialog());
+    }
+
+    /**
+     * 选择导出的内容和格式,然后选择保存位置
+     */
+    private void showExportDialog() {
+        DataExporter.Kind[] kinds = DataExporter.Kind.values();
+        String[] labels = new String[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            labels[i] = kinds[i].label;
+        }
+        int[] checked = {0};
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (20 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, 0, padding, 0);
+
+        EditText etCampaign = new EditText(this);
+        etCampaign.setHint("活动ID (只导出该活动的发送记录,留空导出全部)");
+        etCampaign.setSingleLine(true);
+        layout.addView(etCampaign);
+
+        CheckBox cbGzip = new CheckBox(this);
+        cbGzip.setText("gzip压缩 (.gz)");
+        layout.addView(cbGzip);
+
+        new AlertDialog.Builder(this)
+            .setTitle("📤 导出数据")
+            .setSingleChoiceItems(labels, 0, (dialog, which) -> checked[0] = which)
+            .setView(layout)
+            .setPositiveButton("选择保存位置", (dialog, which) -> {
+                pendingExportKind = kinds[checked[0]];
+                pendingExportGzip = cbGzip.isChecked();
+                pendingExportCampaign = etCampaign.getText().toString().trim();
+
+                Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType(DataExporter.mimeType(pendingExportKind, pendingExportGzip));
+                intent.putExtra(Intent.EXTRA_TITLE,
+                    DataExporter.suggestedFileName(pendingExportKind, pendingExportGzip));
+                startActivityForResult(intent, REQUEST_EXPORT);
+            })
+            .setNegativeButton("取消", null)
+            .show();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (pendingExportKind != null) {
+            outState.putString(STATE_EXPORT_KIND, pendingExportKind.name());
+            outState.putBoolean(STATE_EXPORT_GZIP, pendingExportGzip);
+            outState.putString(STATE_EXPORT_CAMPAIGN, pendingExportCampaign);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_EXPORT || resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (pendingExportKind == null) {
+            // 导出设置已丢失,删除文件选择器刚创建的空文件
+            try {
+                DocumentsContract.deleteDocument(getContentResolver(), data.getData());
+            } catch (Exception e) {
+                Log.w(TAG, "删除空的导出文件失败: " + e.getMessage());
+            }
+            Toast.makeText(this, "导出设置已丢失,请重新导出", Toast.LENGTH_LONG).show();
+            return;
+        }
+        startExport(data.getData());
+    }
+
+    /**
+     * 导出到选择的文件,对话框中显示进度
+     */
+    private void startExport(Uri uri) {
+        DataExporter.Kind kind = pendingExportKind;
+        pendingExportKind = null;
+
+        exportDialog = new AlertDialog.Builder(this)
+            .setTitle("正在导出" + kind.label)
+            .setMessage("准备中...")
+            .setCancelable(false)
+            .show();
+
+        new DataExporter(this).export(kind, uri, pendingExportGzip, pendingExportCampaign,
+            new DataExporter.Callback() {
+                @Override
+                public void onProgress(long rows, long total) {
+                    if (exportDialog != null) {
+                        exportDialog.setMessage(total >= 0
+                            ? String.format("已导出 %d / %d 行", rows, total)
+                            : String.format("已导出 %d 行", rows));
+                    }
+                }
+
+                @Override
+                public void onFinished(long rows, String error) {
+                    if (exportDialog != null) {
+                        exportDialog.dismiss();
+                        exportDialog = null;
+                    }
+                    if (error != null) {
+                        Toast.makeText(MainActivity.this, "导出失败: " + error, Toast.LENGTH_LONG).show();
+                    } else {
+                        Toast.makeText(MainActivity.this, kind.label + "导出完成: " + rows + " 行",
+                            Toast.LENGTH_LONG).show();
+                    }
+                }
+            });
+    }
+
+    /**
+     * 输入要采集朋友圈的好友,每位好友只采集上次之后的新内容
+     */
+    private void showCollectMomentsDialog() {
+        WeChatAccessibilityService service = WeChatAccessibilityService.getInstance();
+        if (service == null) {
+            Toast.makeText(this, "无障碍服务未运行,请先开启无障碍服务", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (20 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, 0, padding, 0);
+
+        EditText etFriends = new EditText(this);
+        etFriends.setHint("好友昵称,多位好友用逗号或换行分隔");
+        layout.addView(etFriends);
+
+        // 下载会访问好友链接中的第三方服务器并消耗流量,需要用户主动开启
+        MomentMediaDownloader downloader = MomentMediaDownloader.getInstance(this);
+        CheckBox cbDownload = new CheckBox(this);
+        cbDownload.setText("下载朋友圈文字中的图片/视频链接 (会访问第三方网站并消耗流量)");
+        cbDownload.setChecked(downloader.isEnabled());
+        layout.addView(cbDownload);
+
+        new AlertDialog.Builder(this)
+            .setTitle("📷 采集朋友圈")
+            .setView(layout)
+            .setPositiveButton("开始采集", (dialog, which) -> {
+                List<String> friendNames = new ArrayList<>();
+                for (String name : etFriends.getText().toString().split("[,，\\n]")) {
+                    if (!name.trim().isEmpty()) {
+                        friendNames.add(name.trim());
+                    }
+                }
+                if (friendNames.isEmpty()) {
+                    Toast.makeText(this, "请输入好友昵称", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                downloader.setEnabled(cbDownload.isChecked());
+                boolean queued = service.collectMoments(friendNames);
+                Toast.makeText(this, queued ? "有任务在执行,采集朋友圈已加入队列" : "开始采集朋友圈...",
+                    Toast.LENGTH_SHORT).show();
+            })
+            .setNegativeButton("取消", null)
+            .show();
     }
 
     /**
@@ -212,11 +473,20 @@ public class MainActivity extends AppCompatActivity {
                     if (friends != null) {
                         updateFriendsList(friends);
                     }
+                } else if (WeChatAccessibilityService.ACTION_TASK_RESUMABLE.equals(intent.getAction())) {
+                    checkResumableTask();
+                } else if (WeChatAccessibilityService.ACTION_MOMENTS_COLLECTED.equals(intent.getAction())) {
+                    int newPosts = intent.getIntExtra(WeChatAccessibilityService.EXTRA_COMPLETED, 0);
+                    int friends = intent.getIntExtra(WeChatAccessibilityService.EXTRA_TOTAL, 0);
+                    Toast.makeText(MainActivity.this, "朋友圈采集完成: " + friends + "位好友, 新增"
+                        + newPosts + "条", Toast.LENGTH_LONG).show();
                 }
             }
         };
 
         IntentFilter filter = new IntentFilter(ACTION_FRIENDS_SYNCED);
+        filter.addAction(WeChatAccessibilityService.ACTION_TASK_RESUMABLE);
+        filter.addAction(WeChatAccessibilityService.ACTION_MOMENTS_COLLECTED);
         // Android 13+ 需要指定 RECEIVER_NOT_EXPORTED (应用内广播)
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
             registerReceiver(friendsReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
@@ -225,6 +495,43 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * 如果有上次未完成的任务,提示用户恢复或放弃
+     */
+    private void checkResumableTask() {
+        WeChatAccessibilityService service = WeChatAccessibilityService.getInstance();
+        if (service == null || (resumeDialog != null && resumeDialog.isShowing())) {
+            return;
+        }
+
+        List<TaskJournal.ResumableTask> resumable = service.getPendingResume();
+        if (resumable.isEmpty()) {
+            return;
+        }
+
+        StringBuilder message = new StringBuilder();
+        message.append(resumable.size() == 1 ? "上次的发送任务没有完成" : "上次有" + resumable.size() + "个发送任务没有完成")
+            .append(":\n");
+        for (TaskJournal.ResumableTask task : resumable) {
+            int total = task.task.getFriendNames().size() * task.task.getMessages().size();
+            message.append(String.format("• %d位好友, %d条消息, 已完成%d/%d项\n",
+                task.task.getFriendNames().size(), task.task.getMessages().size(),
+                task.completedOps.size(), total));
+        }
+        message.append("是否从中断处继续?");
+
+        resumeDialog = new AlertDialog.Builder(this)
+            .setTitle("恢复任务")
+            .setMessage(message)
+            .setCancelable(false)
+            .setPositiveButton("继续发送", (dialog, which) -> {
+                service.resumePendingTask();
+                Toast.makeText(this, "任务已恢复", Toast.LENGTH_SHORT).show();
+            })
+            .setNegativeButton("放弃", (dialog, which) -> service.discardPendingTask())
+            .show();
+    }
+
     /**
      * 更新好友列表显示
      */
@@ -326,6 +633,81 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * 更新任务进度仪表盘
+     */
+    private void updateDashboard(TaskProgress progress) {
+        if (!progress.running) {
+            String text = progress.queuedJobs > 0 ? "排队中的任务: " + progress.queuedJobs : "暂无执行中的任务";
+            if (lastTerminal != null) {
+                text += "\n上次任务" + terminalStatusText(lastTerminal) + ": 已完成 "
+                    + lastTerminal.finalProgress.completedRecipients + " / "
+                    + lastTerminal.finalProgress.totalRecipients + " 位好友";
+            }
+            tvDashboardProgress.setText(text);
+            pbDashboard.setProgress(0);
+            tvDashboardRate.setText("");
+        } else {
+            StringBuilder text = new StringBuilder();
+            text.append(progress.jobLabel).append("\n");
+            text.append("好友: 已完成 ").append(progress.completedRecipients)
+                .append(" / 剩余 ").append(progress.getRemainingRecipients());
+            if (progress.totalShareBatches > 0) {
+                text.append("\n批量分享: ").append(progress.completedShareBatches)
+                    .append(" / ").append(progress.totalShareBatches).append(" 包");
+            }
+            if (progress.queuedJobs > 0) {
+                text.append("\n排队中的任务: ").append(progress.queuedJobs);
+            }
+            tvDashboardProgress.setText(text.toString());
+            pbDashboard.setProgress(progress.getPercent());
+
+            tvDashboardRate.setText(String.format("吞吐量: %.1f 位/分钟 | 已用时: %s | 预计剩余: %s",
+                progress.friendsPerMinute, formatDuration(progress.elapsedMillis),
+                progress.etaMillis == TaskProgress.UNKNOWN ? "计算中" : formatDuration(progress.etaMillis)));
+        }
+
+        // 各步骤耗时和失败次数 (只显示执行过的步骤)
+        StepTracer tracer = StepTracer.getInstance();
+        StringBuilder steps = new StringBuilder();
+        for (StepTracer.Step step : StepTracer.Step.values()) {
+            long count = tracer.getCount(step);
+            long failures = tracer.getFailures(step);
+            if (count == 0 && failures == 0) {
+                continue;
+            }
+            if (steps.length() > 0) {
+                steps.append("\n");
+            }
+            steps.append(String.format("%s  p50 %5dms  p95 %5dms  失败 %d",
+                step.label, tracer.percentile(step, 0.5), tracer.percentile(step, 0.95), failures));
+        }
+        tvDashboardSteps.setText(steps.length() > 0 ? steps.toString() : "暂无步骤耗时数据");
+    }
+
+    private static String terminalStatusText(TaskProgressChannel.TerminalEvent event) {
+        switch (event.status) {
+            case COMPLETED:
+                return "已完成";
+            case CANCELLED:
+                return "已停止";
+            default:
+                return "失败" + (event.reason != null ? "(" + event.reason + ")" : "");
+        }
+    }
+
+    /**
+     * 格式化时长: 1:02:03 或 02:03
+     */
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        long hours = seconds / 3600;
+        if (hours > 0) {
+            return String.format("%d:%02d:%02d", hours, (seconds % 3600) / 60, seconds % 60);
+        }
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+
     /**
      * 更新服务状态显示
      */
@@ -4,12 +4,12 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
@@ -26,13 +26,26 @@ import android.widget.ListView;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import com.wechat.auto.model.SendTask;
 import com.wechat.auto.service.WeChatAccessibilityService;
+import com.wechat.auto.utils.AiMessageGenerator;
+import com.wechat.auto.utils.AudienceSegmentStore;
+import com.wechat.auto.utils.FriendSearchIndex;
+import com.wechat.auto.utils.FriendSelection;
+import com.wechat.auto.utils.MediaCache;
+import com.wechat.auto.utils.TaskImporter;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.BitSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 任务配置页面
@@ -50,10 +63,18 @@ public class TaskConfigActivity extends AppCompatActivity {
     // 请求码
     private static final int REQUEST_IMAGE_PICK = 1001;
     private static final int REQUEST_VIDEO_PICK = 1002;
+    private static final int REQUEST_IMPORT = 1003;
+
+    // 搜索框停止输入多久后再搜索
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    // 只刷新好友行的选中状态,不重新绑定昵称和头像
+    private static final Object PAYLOAD_SELECTION = new Object();
 
     // 步骤1: 选择好友
     private Button btnBack;
     private Button btnSelectFriends;
+    private Button btnImport;
     private TextView tvSelectedCount;
 
     // 步骤2: 配置消息(支持多选)
@@ -62,15 +83,28 @@ public class TaskConfigActivity extends AppCompatActivity {
     private Button btnAddVideo;
     private TextView tvMessageCount;
     private ListView lvMessages;
+    private RadioGroup rgShareMode;
+    private RadioGroup rgPriority;
+    private EditText etCampaign;
+    private CheckBox cbCompressImages;
+    private CheckBox cbAiRewrite;
 
     private Button btnStartTask;
 
     private List<FriendItem> friendsList = new ArrayList<>();
-    private Set<String> selectedFriends = new HashSet<>();
+    private List<String> nicknames = new ArrayList<>();
+    private FriendSelection selection = new FriendSelection(0); // 按friendsList下标记录选中的好友
+    private String friendsFingerprint;                        // 好友列表指纹,分组据此判断是否还能使用
     private List<MessageItem> messagesList = new ArrayList<>();
     private MessagesAdapter messagesAdapter;
     private Dialog friendsDialog;
 
+    // 好友搜索: 索引在后台线程构建,搜索也在同一线程执行(排在构建之后)
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile FriendSearchIndex friendIndex;
+    private int searchGeneration = 0; // 每次输入递增,丢弃过期的搜索结果
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -81,6 +115,13 @@ public class TaskConfigActivity extends AppCompatActivity {
         setupListeners();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacksAndMessages(null);
+        searchExecutor.shutdownNow();
+    }
+
     /**
      * 初始化视图
      */
@@ -88,6 +129,7 @@ public class TaskConfigActivity extends AppCompatActivity {
         // 步骤1: 选择好友
         btnBack = findViewById(R.id.btn_back);
         btnSelectFriends = findViewById(R.id.btn_select_friends);
+        btnImport = findViewById(R.id.btn_import);
         tvSelectedCount = findViewById(R.id.tv_selected_count);
 
         // 步骤2: 配置消息(支持多选)
@@ -96,6 +138,11 @@ public class TaskConfigActivity extends AppCompatActivity {
         btnAddVideo = findViewById(R.id.btn_add_video);
         tvMessageCount = findViewById(R.id.tv_message_count);
         lvMessages = findViewById(R.id.lv_messages);
+        rgShareMode = findViewById(R.id.rg_share_mode);
+        rgPriority = findViewById(R.id.rg_priority);
+        etCampaign = findViewById(R.id.et_campaign);
+        cbCompressImages = findViewById(R.id.cb_compress_images);
+        cbAiRewrite = findViewById(R.id.cb_ai_rewrite);
 
         btnStartTask = findViewById(R.id.btn_start_task);
 
@@ -126,7 +173,7 @@ public class TaskConfigActivity extends AppCompatActivity {
                                                .replace("\\\\", "\\")
                                                .replace("\\\"", "\"");
                             if (!friend.isEmpty()) {
-                                friendsList.add(new FriendItem(friend, false));
+                                friendsList.add(new FriendItem(friendsList.size(), friend));
                             }
                         }
                     }
@@ -136,7 +183,7 @@ public class TaskConfigActivity extends AppCompatActivity {
                 Set<String> friendsSet = prefs.getStringSet("friends_list", null);
                 if (friendsSet != null) {
                     for (String nickname : friendsSet) {
-                        friendsList.add(new FriendItem(nickname, false));
+                        friendsList.add(new FriendItem(friendsList.size(), nickname));
                     }
                 }
             }
@@ -145,6 +192,25 @@ public class TaskConfigActivity extends AppCompatActivity {
         }
 
         Log.d(TAG, "加载了 " + friendsList.size() + " 位好友");
+        nicknames = new ArrayList<>(friendsList.size());
+        for (FriendItem friend : friendsList) {
+            nicknames.add(friend.getNickname());
+        }
+        selection = new FriendSelection(friendsList.size());
+        friendsFingerprint = FriendSelection.fingerprint(nicknames);
+        buildFriendIndex();
+    }
+
+    /**
+     * 在后台线程为好友昵称构建搜索索引
+     */
+    private void buildFriendIndex() {
+        List<String> names = nicknames;
+        searchExecutor.execute(() -> {
+            long start = System.currentTimeMillis();
+            friendIndex = FriendSearchIndex.build(names);
+            Log.d(TAG, "好友搜索索引构建完成, 耗时" + (System.currentTimeMillis() - start) + "ms");
+        });
     }
 
     /**
@@ -157,11 +223,26 @@ public class TaskConfigActivity extends AppCompatActivity {
         // 选择好友按钮
         btnSelectFriends.setOnClickListener(v -> showFriendsDialog());
 
+        // 从文件导入好友和消息
+        btnImport.setOnClickListener(v -> pickImportFile());
+
         // 添加消息按钮
         btnAddText.setOnClickListener(v -> showAddTextDialog());
         btnAddImage.setOnClickListener(v -> addImageMessage());
         btnAddVideo.setOnClickListener(v -> addVideoMessage());
 
+        // AI改写: 第一次开启时先配置AI服务,长按可修改配置
+        cbAiRewrite.setOnClickListener(v -> {
+            if (cbAiRewrite.isChecked() && !AiMessageGenerator.Config.load(this).isConfigured()) {
+                cbAiRewrite.setChecked(false);
+                showAiConfigDialog();
+            }
+        });
+        cbAiRewrite.setOnLongClickListener(v -> {
+            showAiConfigDialog();
+            return true;
+        });
+
         // 开始任务
         btnStartTask.setOnClickListener(v -> startTask());
     }
@@ -185,91 +266,241 @@ public class TaskConfigActivity extends AppCompatActivity {
         EditText etSearch = friendsDialog.findViewById(R.id.et_search);
         CheckBox cbSelectAll = friendsDialog.findViewById(R.id.cb_select_all);
         TextView tvCount = friendsDialog.findViewById(R.id.tv_selected_count);
-        ListView lvFriends = friendsDialog.findViewById(R.id.lv_friends);
+        RecyclerView rvFriends = friendsDialog.findViewById(R.id.rv_friends);
+        AlphabetRailView alphabetRail = friendsDialog.findViewById(R.id.alphabet_rail);
+        Button btnInvert = friendsDialog.findViewById(R.id.btn_invert);
+        Button btnSaveSegment = friendsDialog.findViewById(R.id.btn_save_segment);
+        Button btnLoadSegment = friendsDialog.findViewById(R.id.btn_load_segment);
         Button btnClose = friendsDialog.findViewById(R.id.btn_close);
         Button btnConfirm = friendsDialog.findViewById(R.id.btn_confirm);
 
-        // 创建过滤列表(初始显示全部)
-        List<FriendItem> filteredList = new ArrayList<>(friendsList);
-
-        // 设置适配器
-        FriendsAdapter adapter = new FriendsAdapter(this, filteredList, tvCount);
-        lvFriends.setAdapter(adapter);
+        // 设置适配器(初始显示全部)
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        FriendsAdapter adapter = new FriendsAdapter(this, new ArrayList<>(friendsList), tvCount);
+        rvFriends.setLayoutManager(layoutManager);
+        rvFriends.setHasFixedSize(true);
+        rvFriends.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        rvFriends.setAdapter(adapter);
+        updateDialogCount(tvCount);
+
+        // 字母导航条: 跳到当前列表中该字母(没有时为其后第一个有的字母)的第一位好友
+        alphabetRail.setOnLetterSelectedListener(letter -> {
+            int position = adapter.getSectionPosition(letter);
+            if (position != RecyclerView.NO_POSITION) {
+                rvFriends.stopScroll();
+                layoutManager.scrollToPositionWithOffset(position, 0);
+            }
+        });
 
-        // 搜索功能
+        // 搜索功能: 停止输入后在后台线程查索引,结果回到主线程再更新列表
         etSearch.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                String keyword = s.toString().trim().toLowerCase();
-                filteredList.clear();
-
-                if (keyword.isEmpty()) {
-                    // 搜索框为空,显示全部
-                    filteredList.addAll(friendsList);
-                } else {
-                    // 根据关键词过滤
-                    for (FriendItem friend : friendsList) {
-                        if (friend.getNickname().toLowerCase().contains(keyword)) {
-                            filteredList.add(friend);
-                        }
-                    }
-                }
-
-                adapter.notifyDataSetChanged();
+                int generation = ++searchGeneration;
+                String keyword = s.toString();
+                mainHandler.removeCallbacksAndMessages(null);
+                mainHandler.postDelayed(() -> searchFriends(keyword, generation, adapter, alphabetRail),
+                    SEARCH_DEBOUNCE_MS);
             }
 
             @Override
             public void afterTextChanged(Editable s) {}
         });
 
+        // 索引构建完成后填充字母导航条 (列表内容不变)
+        searchFriends("", ++searchGeneration, adapter, alphabetRail);
+
         // 全选/取消全选(只对当前显示的列表操作)
         cbSelectAll.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            for (FriendItem friend : filteredList) {
-                friend.setSelected(isChecked);
-            }
-            adapter.notifyDataSetChanged();
+            selection.setAll(adapter.getMask(), isChecked);
+            adapter.notifySelectionChanged();
+            updateDialogCount(tvCount);
+        });
+
+        // 反选(只对当前显示的列表操作)
+        btnInvert.setOnClickListener(v -> {
+            selection.invert(adapter.getMask());
+            adapter.notifySelectionChanged();
             updateDialogCount(tvCount);
         });
 
+        // 好友分组
+        btnSaveSegment.setOnClickListener(v -> showSaveSegmentDialog());
+        btnLoadSegment.setOnClickListener(v -> showLoadSegmentDialog(() -> {
+            adapter.notifySelectionChanged();
+            updateDialogCount(tvCount);
+        }));
+
         // 关闭按钮
         btnClose.setOnClickListener(v -> friendsDialog.dismiss());
 
         // 确认按钮
-        btnConfirm.setOnClickListener(v -> {
-            updateSelectedCount();
-            friendsDialog.dismiss();
-        });
+        btnConfirm.setOnClickListener(v -> friendsDialog.dismiss());
+
+        // 选择是直接修改的,不论怎样关闭对话框(关闭、确认、返回键、点击外部)都刷新已选数量
+        friendsDialog.setOnDismissListener(dialog -> updateSelectedCount());
 
         friendsDialog.show();
     }
 
+    /**
+     * 搜索好友 (索引还在构建时,搜索排在构建之后执行)
+     */
+    private void searchFriends(String keyword, int generation, FriendsAdapter adapter, AlphabetRailView alphabetRail) {
+        searchExecutor.execute(() -> {
+            FriendSearchIndex index = friendIndex;
+            int[] matches = index.search(keyword);
+            mainHandler.post(() -> {
+                if (generation != searchGeneration) {
+                    return; // 之后又有新的输入
+                }
+                List<FriendItem> result = new ArrayList<>(matches.length);
+                for (int id : matches) {
+                    result.add(friendsList.get(id));
+                }
+                adapter.submitList(result, index);
+                alphabetRail.setPresentLetters(adapter.getPresentLetters());
+            });
+        });
+    }
+
+    /**
+     * 把当前选择保存为好友分组
+     */
+    private void showSaveSegmentDialog() {
+        if (selection.isEmpty()) {
+            Toast.makeText(this, "请先选择好友", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        EditText etName = new EditText(this);
+        etName.setHint("分组名称");
+        etName.setSingleLine(true);
+        new AlertDialog.Builder(this)
+            .setTitle("保存为分组 (" + selection.count() + " 位好友)")
+            .setView(etName)
+            .setPositiveButton("保存", (dialog, which) -> {
+                String name = etName.getText().toString().trim();
+                if (name.isEmpty()) {
+                    Toast.makeText(this, "分组名称不能为空", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                new AudienceSegmentStore(this).save(name, selection.encode(nicknames, friendsFingerprint));
+                Toast.makeText(this, "已保存分组: " + name, Toast.LENGTH_SHORT).show();
+            })
+            .setNegativeButton("取消", null)
+            .show();
+    }
+
+    /**
+     * 载入好友分组: 替换当前选择、合并或取交集
+     */
+    private void showLoadSegmentDialog(Runnable onChanged) {
+        AudienceSegmentStore store = new AudienceSegmentStore(this);
+        List<String> names = store.getNames();
+        if (names.isEmpty()) {
+            Toast.makeText(this, "还没有保存的分组", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+            .setTitle("载入分组")
+            .setItems(names.toArray(new String[0]), (dialog, which) -> {
+                String name = names.get(which);
+                FriendSelection segment = FriendSelection.decode(store.get(name), nicknames, friendsFingerprint);
+                if (segment == null) {
+                    // 旧版本保存的分组没有昵称,好友列表重新同步后无法还原
+                    new AlertDialog.Builder(this)
+                        .setMessage("好友列表已更新,分组「" + name + "」已失效,是否删除?")
+                        .setPositiveButton("删除", (d, w) -> store.delete(name))
+                        .setNegativeButton("取消", null)
+                        .show();
+                    return;
+                }
+
+                if (segment.getMissing() > 0) {
+                    Toast.makeText(this, "好友列表已更新,分组中" + segment.getMissing() + "位好友已不在列表中",
+                        Toast.LENGTH_LONG).show();
+                }
+                new AlertDialog.Builder(this)
+                    .setTitle(name + " (" + segment.count() + " 位好友)")
+                    .setPositiveButton("替换当前选择", (d, w) -> {
+                        selection.replaceWith(segment);
+                        onChanged.run();
+                    })
+                    .setNeutralButton("与当前选择取交集", (d, w) -> {
+                        selection.intersect(segment);
+                        onChanged.run();
+                    })
+                    .setNegativeButton("合并", (d, w) -> {
+                        selection.union(segment);
+                        onChanged.run();
+                    })
+                    .show();
+            })
+            .setNegativeButton("取消", null)
+            .show();
+    }
+
     /**
      * 更新弹窗中的已选数量
      */
     private void updateDialogCount(TextView tvCount) {
-        int count = 0;
-        for (FriendItem friend : friendsList) {
-            if (friend.isSelected()) {
-                count++;
-            }
-        }
-        tvCount.setText("已选择 " + count + " 位好友");
+        tvCount.setText("已选择 " + selection.count() + " 位好友");
     }
 
     /**
      * 更新已选好友数量(主页面)
      */
     private void updateSelectedCount() {
-        selectedFriends.clear();
-        for (FriendItem friend : friendsList) {
-            if (friend.isSelected()) {
-                selectedFriends.add(friend.getNickname());
-            }
-        }
-        tvSelectedCount.setText("✅ 已选择 " + selectedFriends.size() + " 位好友");
+        tvSelectedCount.setText("✅ 已选择 " + selection.count() + " 位好友");
+    }
+
+    /**
+     * AI服务配置对话框 (OpenAI兼容接口)
+     */
+    private void showAiConfigDialog() {
+        AiMessageGenerator.Config config = AiMessageGenerator.Config.load(this);
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (20 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding / 2, padding, 0);
+
+        EditText etBaseUrl = new EditText(this);
+        etBaseUrl.setHint("接口地址,如 https://api.openai.com/v1");
+        etBaseUrl.setSingleLine(true);
+        etBaseUrl.setText(config.baseUrl);
+        layout.addView(etBaseUrl);
+
+        EditText etApiKey = new EditText(this);
+        etApiKey.setHint("API Key (本地测试服务可不填)");
+        etApiKey.setSingleLine(true);
+        etApiKey.setText(config.apiKey);
+        layout.addView(etApiKey);
+
+        EditText etModel = new EditText(this);
+        etModel.setHint("模型");
+        etModel.setSingleLine(true);
+        etModel.setText(config.model);
+        layout.addView(etModel);
+
+        new AlertDialog.Builder(this)
+            .setTitle("配置AI服务")
+            .setView(layout)
+            .setPositiveButton("保存", (dialog, which) -> {
+                config.baseUrl = etBaseUrl.getText().toString().trim();
+                config.apiKey = etApiKey.getText().toString().trim();
+                String model = etModel.getText().toString().trim();
+                config.model = model.isEmpty() ? AiMessageGenerator.DEFAULT_MODEL : model;
+                config.save(this);
+                cbAiRewrite.setChecked(config.isConfigured());
+            })
+            .setNegativeButton("取消", null)
+            .show();
     }
 
     /**
@@ -341,12 +572,101 @@ public class TaskConfigActivity extends AppCompatActivity {
             return;
         }
 
-        String filePath = getFilePathFromUri(uri);
-        if (filePath == null) {
-            Toast.makeText(this, "无法获取文件路径", Toast.LENGTH_SHORT).show();
+        if (requestCode == REQUEST_IMPORT) {
+            Toast.makeText(this, "正在导入...", Toast.LENGTH_SHORT).show();
+            new TaskImporter(this).importUri(uri, nicknames, result -> {
+                if (!isFinishing() && !isDestroyed()) {
+                    applyImport(result);
+                }
+            });
+            return;
+        }
+
+        // 在后台复制到应用私有缓存,完成后再添加消息
+        MediaCache.getInstance(this).importUri(uri, (filePath, error) -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            if (filePath == null) {
+                Toast.makeText(this, "无法读取文件: " + error, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            addMediaMessage(requestCode, filePath);
+        });
+    }
+
+    /**
+     * 选择要导入的CSV/JSON文件
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+            "text/csv", "text/comma-separated-values", "text/plain", "application/json"});
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    /**
+     * 把导入的好友加入选择、消息加入消息列表,并显示导入报告
+     */
+    private void applyImport(TaskImporter.Result result) {
+        if (result.task == null) {
+            Toast.makeText(this, "导入失败: " + result.error, Toast.LENGTH_LONG).show();
             return;
         }
 
+        for (int index : result.contactIndices) {
+            selection.setSelected(index, true);
+        }
+        updateSelectedCount();
+
+        for (SendTask.Message message : result.task.getMessages()) {
+            messagesList.add(new MessageItem(message.getType(), message.getContent()));
+        }
+        messagesAdapter.notifyDataSetChanged();
+        updateMessageCount();
+
+        if (result.task.getCampaignId() != null && etCampaign.getText().toString().trim().isEmpty()) {
+            etCampaign.setText(result.task.getCampaignId());
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("已导入 ").append(result.contactIndices.length).append(" 位好友, ")
+              .append(result.task.getMessages().size()).append(" 条消息");
+        if (result.unknown > 0) {
+            report.append("\n找不到的好友: ").append(result.unknown);
+        }
+        if (result.ambiguous > 0) {
+            report.append("\n有重名的好友: ").append(result.ambiguous);
+        }
+        if (result.duplicates > 0) {
+            report.append("\n重复的好友: ").append(result.duplicates);
+        }
+        if (result.invalid > 0) {
+            report.append("\n无效的行: ").append(result.invalid);
+        }
+        if (!result.issues.isEmpty()) {
+            report.append("\n");
+            for (String issue : result.issues) {
+                report.append("\n").append(issue);
+            }
+            if (result.issues.size() < result.getIssueCount() - result.duplicates) {
+                report.append("\n...");
+            }
+        }
+
+        new AlertDialog.Builder(this)
+            .setTitle("导入完成")
+            .setMessage(report.toString())
+            .setPositiveButton("确定", null)
+            .show();
+    }
+
+    /**
+     * 添加已缓存的图片/视频消息
+     */
+    private void addMediaMessage(int requestCode, String filePath) {
         if (requestCode == REQUEST_IMAGE_PICK) {
             // 添加图片消息
             messagesList.add(new MessageItem("image", filePath));
@@ -363,35 +683,6 @@ public class TaskConfigActivity extends AppCompatActivity {
         }
     }
 
-    /**
-     * 从URI获取文件路径
-     */
-    private String getFilePathFromUri(Uri uri) {
-        String filePath = null;
-
-        // 尝试从MediaStore获取路径
-        String[] projection = {MediaStore.MediaColumns.DATA};
-        Cursor cursor = null;
-
-        try {
-            cursor = getContentResolver().query(uri, projection, null, null, null);
-            if (cursor != null && cursor.moveToFirst()) {
-                int columnIndex = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA);
-                filePath = cursor.getString(columnIndex);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "获取文件路径失败: " + e.getMessage());
-            // 如果失败,直接使用URI的路径
-            filePath = uri.getPath();
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-
-        return filePath;
-    }
-
     /**
      * 删除消息
      */
@@ -403,10 +694,18 @@ public class TaskConfigActivity extends AppCompatActivity {
     }
 
     /**
-     * 更新消息数量显示
+     * 更新消息数量显示,并登记消息中的图片/视频,编辑期间不被缓存淘汰
      */
     private void updateMessageCount() {
         tvMessageCount.setText("已添加 " + messagesList.size() + " 条消息");
+
+        List<String> mediaPaths = new ArrayList<>();
+        for (MessageItem item : messagesList) {
+            if ("image".equals(item.type) || "video".equals(item.type)) {
+                mediaPaths.add(item.content);
+            }
+        }
+        MediaCache.getInstance(this).pin("config", mediaPaths);
     }
 
     /**
@@ -414,7 +713,7 @@ public class TaskConfigActivity extends AppCompatActivity {
      */
     private void startTask() {
         // 验证是否选择了好友
-        if (selectedFriends.isEmpty()) {
+        if (selection.isEmpty()) {
             Toast.makeText(this, "请先选择要发送的好友", Toast.LENGTH_SHORT).show();
             return;
         }
@@ -435,12 +734,8 @@ public class TaskConfigActivity extends AppCompatActivity {
         // 构建任务数据
         SendTask task = new SendTask();
 
-        // 添加好友列表
-        List<String> friendNames = new ArrayList<>();
-        for (String friendName : selectedFriends) {
-            friendNames.add(friendName);
-        }
-        task.setFriendNames(friendNames);
+        // 添加好友列表 (按好友列表顺序)
+        task.setFriendNames(selection.selectedNames(nicknames));
 
         // 添加消息列表
         List<SendTask.Message> messages = new ArrayList<>();
@@ -449,12 +744,43 @@ public class TaskConfigActivity extends AppCompatActivity {
         }
         task.setMessages(messages);
 
-        // 启动任务
-        service.startSendTask(task);
+        // 图片/视频分享方式
+        int checkedMode = rgShareMode.getCheckedRadioButtonId();
+        if (checkedMode == R.id.rb_share_multi) {
+            task.setShareMode(SendTask.ShareMode.MULTI_RECIPIENT);
+        } else if (checkedMode == R.id.rb_share_forward) {
+            task.setShareMode(SendTask.ShareMode.FORWARD_FROM_STAGING);
+        } else {
+            task.setShareMode(SendTask.ShareMode.PER_FRIEND);
+        }
+
+        // 任务优先级
+        int checkedPriority = rgPriority.getCheckedRadioButtonId();
+        if (checkedPriority == R.id.rb_priority_urgent) {
+            task.setPriority(SendTask.Priority.URGENT);
+        } else if (checkedPriority == R.id.rb_priority_bulk) {
+            task.setPriority(SendTask.Priority.BULK);
+        } else {
+            task.setPriority(SendTask.Priority.NORMAL);
+        }
+
+        // 活动名称: 同一活动已发送过的好友会被跳过
+        String campaign = etCampaign.getText().toString().trim();
+        task.setCampaignId(campaign.isEmpty() ? null : campaign);
+
+        // 图片压缩: 每个任务只压缩一次,所有好友共用压缩后的文件
+        task.setCompressImages(cbCompressImages.isChecked());
+
+        // AI改写: 发送时提前为后面几位好友生成
+        task.setAiRewrite(cbAiRewrite.isChecked());
+
+        // 启动任务 (有任务在执行时加入队列)
+        boolean queued = service.startSendTask(task);
 
         // 提示用户
-        String info = String.format("开始执行任务:\n向 %d 位好友发送 %d 条消息",
-                                   selectedFriends.size(), messagesList.size());
+        String info = String.format(queued ? "任务已加入队列:\n向 %d 位好友发送 %d 条消息"
+                                           : "开始执行任务:\n向 %d 位好友发送 %d 条消息",
+                                   selection.count(), messagesList.size());
         Toast.makeText(this, info, Toast.LENGTH_LONG).show();
 
         // 返回主界面
@@ -463,84 +789,167 @@ public class TaskConfigActivity extends AppCompatActivity {
 
     /**
      * 好友列表适配器
+     * 行id固定为好友在完整列表中的下标,过滤时只插入/移除变化的行,保留的行不重新绑定
      */
-    private class FriendsAdapter extends BaseAdapter {
-        private Context context;
+    private class FriendsAdapter extends RecyclerView.Adapter<FriendsAdapter.ViewHolder> {
+        private final LayoutInflater inflater;
+        private final TextView tvCount; // 用于更新弹窗中的计数
         private List<FriendItem> friends;
-        private TextView tvCount; // 用于更新弹窗中的计数
-
-        public FriendsAdapter(Context context, List<FriendItem> friends) {
-            this(context, friends, null);
-        }
+        // 每个分组字母在当前列表中第一次出现的位置,没有时为NO_POSITION
+        private final int[] sectionPositions = new int[AlphabetRailView.LETTERS.length()];
 
         public FriendsAdapter(Context context, List<FriendItem> friends, TextView tvCount) {
-            this.context = context;
+            this.inflater = LayoutInflater.from(context);
             this.friends = friends;
             this.tvCount = tvCount;
+            Arrays.fill(sectionPositions, RecyclerView.NO_POSITION);
+            setHasStableIds(true);
+        }
+
+        /**
+         * 更新列表
+         * 两个列表都是完整好友列表按原顺序的子序列,按id顺序合并一遍即可得到
+         * 需要移除和插入的区间,不需要通用的差异算法
+         */
+        public void submitList(List<FriendItem> newFriends, FriendSearchIndex index) {
+            List<FriendItem> oldFriends = friends;
+            friends = newFriends;
+
+            int position = 0;
+            int i = 0;
+            int j = 0;
+            while (i < oldFriends.size() || j < newFriends.size()) {
+                if (j == newFriends.size()
+                        || (i < oldFriends.size() && oldFriends.get(i).getId() < newFriends.get(j).getId())) {
+                    int start = i;
+                    while (i < oldFriends.size() && (j == newFriends.size()
+                            || oldFriends.get(i).getId() < newFriends.get(j).getId())) {
+                        i++;
+                    }
+                    notifyItemRangeRemoved(position, i - start);
+                } else if (i == oldFriends.size() || newFriends.get(j).getId() < oldFriends.get(i).getId()) {
+                    int start = j;
+                    while (j < newFriends.size() && (i == oldFriends.size()
+                            || newFriends.get(j).getId() < oldFriends.get(i).getId())) {
+                        j++;
+                    }
+                    notifyItemRangeInserted(position, j - start);
+                    position += j - start;
+                } else {
+                    i++;
+                    j++;
+                    position++;
+                }
+            }
+
+            Arrays.fill(sectionPositions, RecyclerView.NO_POSITION);
+            for (int p = newFriends.size() - 1; p >= 0; p--) {
+                int section = AlphabetRailView.indexOf(index.getSection((int) newFriends.get(p).getId()));
+                sectionPositions[section] = p;
+            }
+        }
+
+        /**
+         * 当前列表中的好友,显示全部好友时返回null
+         */
+        public BitSet getMask() {
+            if (friends.size() == friendsList.size()) {
+                return null;
+            }
+            BitSet mask = new BitSet(friendsList.size());
+            for (FriendItem friend : friends) {
+                mask.set((int) friend.getId());
+            }
+            return mask;
+        }
+
+        /**
+         * 刷新当前列表所有行的选中状态
+         */
+        public void notifySelectionChanged() {
+            notifyItemRangeChanged(0, friends.size(), PAYLOAD_SELECTION);
+        }
+
+        public boolean[] getPresentLetters() {
+            boolean[] present = new boolean[sectionPositions.length];
+            for (int i = 0; i < present.length; i++) {
+                present[i] = sectionPositions[i] != RecyclerView.NO_POSITION;
+            }
+            return present;
+        }
+
+        /**
+         * 分组字母的第一位好友的位置,当前列表中没有该字母时取其后第一个有的字母
+         */
+        public int getSectionPosition(char letter) {
+            for (int i = AlphabetRailView.indexOf(letter); i < sectionPositions.length; i++) {
+                if (sectionPositions[i] != RecyclerView.NO_POSITION) {
+                    return sectionPositions[i];
+                }
+            }
+            return RecyclerView.NO_POSITION;
         }
 
         @Override
-        public int getCount() {
+        public int getItemCount() {
             return friends.size();
         }
 
         @Override
-        public Object getItem(int position) {
-            return friends.get(position);
+        public long getItemId(int position) {
+            return friends.get(position).getId();
         }
 
         @Override
-        public long getItemId(int position) {
-            return position;
+        public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            ViewHolder holder = new ViewHolder(inflater.inflate(R.layout.item_friend_checkbox, parent, false));
+
+            // 监听器每行只创建一次,点击时按当前位置找到好友
+            holder.cbFriend.setOnClickListener(v -> setSelected(holder, holder.cbFriend.isChecked()));
+            holder.itemView.setOnClickListener(v -> setSelected(holder, !holder.cbFriend.isChecked()));
+            return holder;
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            ViewHolder holder;
-            if (convertView == null) {
-                convertView = LayoutInflater.from(context).inflate(R.layout.item_friend_checkbox, parent, false);
-                holder = new ViewHolder();
-                holder.cbFriend = convertView.findViewById(R.id.cb_friend);
-                holder.tvAvatar = convertView.findViewById(R.id.tv_avatar);
-                holder.tvNickname = convertView.findViewById(R.id.tv_nickname);
-                convertView.setTag(holder);
+        public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+            if (payloads.isEmpty()) {
+                onBindViewHolder(holder, position);
             } else {
-                holder = (ViewHolder) convertView.getTag();
+                holder.cbFriend.setChecked(selection.isSelected((int) friends.get(position).getId()));
             }
+        }
 
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
             FriendItem friend = friends.get(position);
             holder.tvNickname.setText(friend.getNickname());
-            holder.cbFriend.setChecked(friend.isSelected());
-
-            // 显示头像(取昵称首字母)
-            String nickname = friend.getNickname();
-            String avatar = nickname.length() > 0 ? nickname.substring(0, 1) : "?";
-            holder.tvAvatar.setText(avatar);
-
-            // 复选框点击事件
-            holder.cbFriend.setOnCheckedChangeListener((buttonView, isChecked) -> {
-                friend.setSelected(isChecked);
-                if (tvCount != null) {
-                    updateDialogCount(tvCount);
-                }
-            });
-
-            // 整行点击事件
-            convertView.setOnClickListener(v -> {
-                friend.setSelected(!friend.isSelected());
-                holder.cbFriend.setChecked(friend.isSelected());
-                if (tvCount != null) {
-                    updateDialogCount(tvCount);
-                }
-            });
+            holder.tvAvatar.setText(friend.getAvatar());
+            holder.cbFriend.setChecked(selection.isSelected((int) friend.getId()));
+        }
 
-            return convertView;
+        private void setSelected(ViewHolder holder, boolean selected) {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            selection.setSelected((int) friends.get(position).getId(), selected);
+            holder.cbFriend.setChecked(selected);
+            if (tvCount != null) {
+                updateDialogCount(tvCount);
+            }
         }
 
-        class ViewHolder {
-            CheckBox cbFriend;
-            TextView tvAvatar;
-            TextView tvNickname;
+        class ViewHolder extends RecyclerView.ViewHolder {
+            final CheckBox cbFriend;
+            final TextView tvAvatar;
+            final TextView tvNickname;
+
+            ViewHolder(View itemView) {
+                super(itemView);
+                cbFriend = itemView.findViewById(R.id.cb_friend);
+                tvAvatar = itemView.findViewById(R.id.tv_avatar);
+                tvNickname = itemView.findViewById(R.id.tv_nickname);
+            }
         }
     }
 
@@ -548,24 +957,27 @@ public class TaskConfigActivity extends AppCompatActivity {
      * 好友数据类
      */
     private static class FriendItem {
-        private String nickname;
-        private boolean selected;
+        private final long id;        // 在完整好友列表中的下标,也是搜索索引中的id
+        private final String nickname;
+        private final String avatar;  // 头像文字(昵称第一个字)
 
-        public FriendItem(String nickname, boolean selected) {
+        public FriendItem(long id, String nickname) {
+            this.id = id;
             this.nickname = nickname;
-            this.selected = selected;
+            this.avatar = nickname.length() > 0
+                ? nickname.substring(0, nickname.offsetByCodePoints(0, 1)) : "?";
         }
 
-        public String getNickname() {
-            return nickname;
+        public long getId() {
+            return id;
         }
 
-        public boolean isSelected() {
-            return selected;
+        public String getNickname() {
+            return nickname;
         }
 
-        public void setSelected(boolean selected) {
-            this.selected = selected;
+        public String getAvatar() {
+            return avatar;
         }
     }
 
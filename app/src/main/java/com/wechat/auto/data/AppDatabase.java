@@ -0,0 +1,209 @@
+package com.wechat.auto.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 应用数据库
+ */
+@Database(entities = {TaskRecord.class, TaskOpRecord.class, SendLedgerEntry.class,
+                      MomentPost.class, MomentWatermark.class, MomentMedia.class},
+          version = 6, exportSchema = false)
+public abstract class AppDatabase extends RoomDatabase {
+
+    private static final String DB_NAME = "wechat_auto.db";
+
+    private static volatile AppDatabase instance;
+
+    /**
+     * 版本1 -> 2: 新增发送台账
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `send_ledger` ("
+                + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                + "`campaign_id` TEXT NOT NULL, "
+                + "`friend_name` TEXT NOT NULL, "
+                + "`message_hash` INTEGER NOT NULL, "
+                + "`sent_at` INTEGER NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS "
+                + "`index_send_ledger_campaign_id_friend_name_message_hash` "
+                + "ON `send_ledger` (`campaign_id`, `friend_name`, `message_hash`)");
+        }
+    };
+
+    /**
+     * 版本2 -> 3: 新增朋友圈采集
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `moment_post` ("
+                + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                + "`friend_name` TEXT NOT NULL, "
+                + "`fingerprint` INTEGER NOT NULL, "
+                + "`date_label` TEXT NOT NULL, "
+                + "`content` TEXT NOT NULL, "
+                + "`image_count` INTEGER NOT NULL, "
+                + "`captured_at` INTEGER NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS "
+                + "`index_moment_post_friend_name_fingerprint` "
+                + "ON `moment_post` (`friend_name`, `fingerprint`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `moment_watermark` ("
+                + "`friend_name` TEXT NOT NULL, "
+                + "`fingerprint` INTEGER NOT NULL, "
+                + "`date_label` TEXT NOT NULL, "
+                + "`updated_at` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`friend_name`))");
+        }
+    };
+
+    /**
+     * 版本3 -> 4: 新增朋友圈媒体下载
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `moment_media` ("
+                + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                + "`url` TEXT NOT NULL, "
+                + "`friend_name` TEXT NOT NULL, "
+                + "`post_fingerprint` INTEGER NOT NULL, "
+                + "`status` INTEGER NOT NULL, "
+                + "`file_name` TEXT NOT NULL, "
+                + "`bytes` INTEGER NOT NULL, "
+                + "`attempts` INTEGER NOT NULL, "
+                + "`updated_at` INTEGER NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_moment_media_url` "
+                + "ON `moment_media` (`url`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_moment_media_friend_name_post_fingerprint` "
+                + "ON `moment_media` (`friend_name`, `post_fingerprint`)");
+        }
+    };
+
+    /**
+     * 版本4 -> 5: 朋友圈指纹加入日期和同一天中的序号,唯一索引加入日期
+     * 已保存的朋友圈按新的算法重新计算指纹,媒体和采集位置中引用的指纹一起更新;
+     * 旧版本中互相冲突的朋友圈只保存了一条,序号都是0
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            // 先全部读出再更新,不在游标遍历中修改同一张表
+            List<Object[]> rows = new ArrayList<>();
+            try (Cursor cursor = db.query("SELECT id, friend_name, fingerprint, date_label, content, "
+                    + "image_count FROM moment_post ORDER BY id")) {
+                while (cursor.moveToNext()) {
+                    rows.add(new Object[]{cursor.getLong(0), cursor.getString(1), cursor.getLong(2),
+                        MomentStore.fingerprint(cursor.getString(3), cursor.getString(4), cursor.getInt(5), 0)});
+                }
+            }
+            db.execSQL("DROP INDEX IF EXISTS `index_moment_post_friend_name_fingerprint`");
+            for (Object[] row : rows) {
+                db.execSQL("UPDATE moment_post SET fingerprint = ? WHERE id = ?", new Object[]{row[3], row[0]});
+                db.execSQL("UPDATE moment_media SET post_fingerprint = ? WHERE friend_name = ? "
+                    + "AND post_fingerprint = ?", new Object[]{row[3], row[1], row[2]});
+                db.execSQL("UPDATE moment_watermark SET fingerprint = ? WHERE friend_name = ? "
+                    + "AND fingerprint = ?", new Object[]{row[3], row[1], row[2]});
+            }
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS "
+                + "`index_moment_post_friend_name_date_label_fingerprint` "
+                + "ON `moment_post` (`friend_name`, `date_label`, `fingerprint`)");
+        }
+    };
+
+    /**
+     * 版本5 -> 6: 朋友圈日期加入年份,同一天中相同朋友圈的序号改为从最旧的一条开始
+     * 旧的日期没有年份,按采集时间推算(月日晚于采集时间的是前一年);
+     * 同一天中相同的朋友圈按保存顺序(从新到旧)倒数编号
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            Pattern datePattern = Pattern.compile("^(\\d{1,2})月(\\d{1,2})日$");
+            List<Object[]> rows = new ArrayList<>();  // id, friend_name, 旧指纹, 新日期, 内容, 图片数量
+            Map<String, Integer> groupSizes = new HashMap<>();
+            try (Cursor cursor = db.query("SELECT id, friend_name, fingerprint, date_label, content, "
+                    + "image_count, captured_at FROM moment_post ORDER BY id")) {
+                Calendar calendar = Calendar.getInstance();
+                while (cursor.moveToNext()) {
+                    String label = cursor.getString(3);
+                    Matcher matcher = datePattern.matcher(label);
+                    if (matcher.matches()) {
+                        calendar.setTimeInMillis(cursor.getLong(6));
+                        int month = Integer.parseInt(matcher.group(1));
+                        int day = Integer.parseInt(matcher.group(2));
+                        int capturedMonth = calendar.get(Calendar.MONTH) + 1;
+                        boolean lastYear = month > capturedMonth
+                            || (month == capturedMonth && day > calendar.get(Calendar.DAY_OF_MONTH));
+                        label = (calendar.get(Calendar.YEAR) - (lastYear ? 1 : 0)) + "年" + label;
+                    }
+                    Object[] row = {cursor.getLong(0), cursor.getString(1), cursor.getLong(2), label,
+                                    cursor.getString(4), cursor.getInt(5)};
+                    rows.add(row);
+                    String group = row[1] + "\n" + label + "\n" + row[5] + "\n" + row[4];
+                    Integer size = groupSizes.get(group);
+                    groupSizes.put(group, size != null ? size + 1 : 1);
+                }
+            }
+
+            db.execSQL("DROP INDEX IF EXISTS `index_moment_post_friend_name_date_label_fingerprint`");
+            Map<String, Integer> numbered = new HashMap<>();
+            for (Object[] row : rows) {
+                String label = (String) row[3];
+                String group = row[1] + "\n" + label + "\n" + row[5] + "\n" + row[4];
+                Integer seen = numbered.get(group);
+                int index = seen != null ? seen : 0;
+                numbered.put(group, index + 1);
+                long fingerprint = MomentStore.fingerprint(label, (String) row[4], (Integer) row[5],
+                    groupSizes.get(group) - 1 - index);
+
+                db.execSQL("UPDATE moment_post SET fingerprint = ?, date_label = ? WHERE id = ?",
+                    new Object[]{fingerprint, label, row[0]});
+                db.execSQL("UPDATE moment_media SET post_fingerprint = ? WHERE friend_name = ? "
+                    + "AND post_fingerprint = ?", new Object[]{fingerprint, row[1], row[2]});
+                db.execSQL("UPDATE moment_watermark SET fingerprint = ?, date_label = ? WHERE friend_name = ? "
+                    + "AND fingerprint = ?", new Object[]{fingerprint, label, row[1], row[2]});
+            }
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS "
+                + "`index_moment_post_friend_name_date_label_fingerprint` "
+                + "ON `moment_post` (`friend_name`, `date_label`, `fingerprint`)");
+        }
+    };
+
+    public abstract TaskJournalDao taskJournalDao();
+
+    public abstract SendLedgerDao sendLedgerDao();
+
+    public abstract MomentDao momentDao();
+
+    /**
+     * 获取数据库单例
+     */
+    public static AppDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AppDatabase.class) {
+                if (instance == null) {
+                    instance = Room.databaseBuilder(context.getApplicationContext(),
+                            AppDatabase.class, DB_NAME)
+                        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)
+                        .build();
+                }
+            }
+        }
+        return instance;
+    }
+}
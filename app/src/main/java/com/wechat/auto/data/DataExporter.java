@@ -0,0 +1,351 @@
+package com.wechat.auto.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.gson.stream.JsonReader;
+import com.wechat.auto.utils.ExportWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 数据导出
+ * 支持导出通讯录(CSV)、发送台账(CSV)、采集的朋友圈(Markdown/CSV),可选gzip压缩
+ *
+ * 数据库按页读取,每页写完即丢弃,经ExportWriter逐行写入文件通道:
+ * 导出多少行内存占用都不变
+ * 导出在后台线程执行,进度和结果在主线程回调
+ */
+public class DataExporter {
+
+    private static final String TAG = "DataExporter";
+    private static final String PREFS_NAME = "WeChatAutoPrefs";
+    private static final String KEY_FRIENDS = "friends_list";
+    private static final int PAGE_SIZE = 500;
+    private static final long PROGRESS_INTERVAL_MS = 200; // 进度回调的最小间隔
+    private static final char BOM = '\uFEFF';             // Excel按BOM识别UTF-8的CSV
+    private static final String MEDIA_DIR = "moment_media"; // 朋友圈媒体的下载目录, 见MomentMediaDownloader
+
+    /**
+     * 导出内容
+     */
+    public enum Kind {
+        CONTACTS_CSV("通讯录", "contacts", "csv"),
+        LEDGER_CSV("发送记录", "send_ledger", "csv"),
+        MOMENTS_MARKDOWN("朋友圈 (Markdown)", "moments", "md"),
+        MOMENTS_CSV("朋友圈 (CSV)", "moments", "csv");
+
+        public final String label;
+        final String fileName;
+        final String extension;
+
+        Kind(String label, String fileName, String extension) {
+            this.label = label;
+            this.fileName = fileName;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * 导出进度和结果回调 (主线程)
+     */
+    public interface Callback {
+        /**
+         * @param total 总行数,未知时为-1
+         */
+        void onProgress(long rows, long total);
+
+        /**
+         * @param error 失败原因,成功时为null
+         */
+        void onFinished(long rows, String error);
+    }
+
+    private final Context context;
+    private final AppDatabase database;
+    // 所有导出共用一个后台线程 (每次导出都会新建DataExporter)
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public DataExporter(Context context) {
+        this.context = context.getApplicationContext();
+        this.database = AppDatabase.getInstance(context);
+    }
+
+    /**
+     * 建议的文件名,例如 moments_20260104.md.gz
+     */
+    public static String suggestedFileName(Kind kind, boolean gzipped) {
+        String date = new SimpleDateFormat("yyyyMMdd", Locale.ROOT).format(new Date());
+        return kind.fileName + "_" + date + "." + kind.extension + (gzipped ? ".gz" : "");
+    }
+
+    public static String mimeType(Kind kind, boolean gzipped) {
+        if (gzipped) {
+            return "application/gzip";
+        }
+        return kind.extension.equals("csv") ? "text/csv" : "text/markdown";
+    }
+
+    /**
+     * 导出到用户选择的文件
+     * @param campaignId 只导出该活动的发送记录,为空时导出全部 (只用于LEDGER_CSV)
+     */
+    public void export(Kind kind, Uri uri, boolean gzipped, String campaignId, Callback callback) {
+        executor.execute(() -> {
+            long startTime = SystemClock.elapsedRealtime();
+            Progress progress = new Progress(callback);
+            String error = null;
+            try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "wt")) {
+                if (pfd == null) {
+                    throw new IOException("无法打开文件");
+                }
+                FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor());
+                try (ExportWriter writer = new ExportWriter(out.getChannel(), gzipped)) {
+                    switch (kind) {
+                        case CONTACTS_CSV:
+                            exportContacts(writer, progress);
+                            break;
+                        case LEDGER_CSV:
+                            exportLedger(writer, campaignId, progress);
+                            break;
+                        case MOMENTS_MARKDOWN:
+                            exportMomentsMarkdown(writer, progress);
+                            break;
+                        case MOMENTS_CSV:
+                            exportMomentsCsv(writer, progress);
+                            break;
+                    }
+                    Log.d(TAG, String.format("导出%s完成: %d行, %dKB, 耗时%dms", kind.label, progress.rows,
+                        writer.getBytesWritten() / 1024, SystemClock.elapsedRealtime() - startTime));
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "导出" + kind.label + "失败: " + e.getMessage(), e);
+                error = e.getMessage() != null ? e.getMessage() : "写入文件失败";
+            }
+
+            long rows = progress.rows;
+            String reason = error;
+            mainHandler.post(() -> callback.onFinished(rows, reason));
+        });
+    }
+
+    /**
+     * 通讯录: 从保存的JSON数组逐个读取昵称
+     */
+    private void exportContacts(ExportWriter writer, Progress progress) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String json = prefs.getString(KEY_FRIENDS, "[]");
+
+        writer.write(String.valueOf(BOM)).writeCsvRow("序号", "昵称");
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                progress.rows++;
+                writer.writeCsvRow(String.valueOf(progress.rows), reader.nextString());
+                progress.report(-1);
+            }
+            reader.endArray();
+        }
+    }
+
+    /**
+     * 发送台账: 按ID分页读取
+     */
+    private void exportLedger(ExportWriter writer, String campaignId, Progress progress) throws IOException {
+        SendLedgerDao dao = database.sendLedgerDao();
+        boolean all = campaignId == null || campaignId.isEmpty();
+        long total = all ? dao.count() : dao.countCampaign(campaignId);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+
+        writer.write(String.valueOf(BOM)).writeCsvRow("活动", "好友", "消息哈希", "发送时间");
+        long afterId = 0;
+        List<SendLedgerEntry> page;
+        do {
+            page = all ? dao.getPage(afterId, PAGE_SIZE) : dao.getCampaignPage(campaignId, afterId, PAGE_SIZE);
+            for (SendLedgerEntry entry : page) {
+                writer.writeCsvRow(entry.campaignId, entry.friendName, Long.toHexString(entry.messageHash),
+                    timeFormat.format(new Date(entry.sentAt)));
+                afterId = entry.id;
+            }
+            progress.rows += page.size();
+            progress.report(total);
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    /**
+     * 朋友圈 (Markdown): 按好友分节,格式同 项目文档整理/功能1-朋友圈采集.md
+     */
+    private void exportMomentsMarkdown(ExportWriter writer, Progress progress) throws IOException {
+        MomentDao dao = database.momentDao();
+        long total = dao.countPosts();
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+
+        writer.writeLine("# 朋友圈导出")
+            .writeLine("")
+            .writeLine("**导出时间**: " + timeFormat.format(new Date()))
+            .writeLine("**总条数**: " + total)
+            .writeLine("")
+            .writeLine("> 媒体文件保存在APP私有目录 files/" + MEDIA_DIR + "/ 中,没有随本文件导出,下面只列出文件名")
+            .writeLine("")
+            .writeLine("---")
+            .writeLine("");
+
+        String currentFriend = null;
+        PostPager pager = new PostPager(dao);
+        List<MomentPost> page;
+        while (!(page = pager.next()).isEmpty()) {
+            Map<String, List<String>> media = pager.mediaFor(page);
+            for (MomentPost post : page) {
+                if (!post.friendName.equals(currentFriend)) {
+                    currentFriend = post.friendName;
+                    writer.writeLine("## " + currentFriend + "的朋友圈").writeLine("");
+                }
+                writer.writeLine("### " + post.dateLabel).writeLine("");
+                if (!post.content.isEmpty()) {
+                    writer.writeLine(post.content).writeLine("");
+                }
+                List<String> files = media.get(mediaKey(post.friendName, post.fingerprint));
+                if (files != null) {
+                    writer.writeLine("**媒体文件**:");
+                    for (String file : files) {
+                        writer.writeLine("- `" + file + "`");
+                    }
+                    writer.writeLine("");
+                }
+                if (post.imageCount > 0) {
+                    writer.writeLine("**图片**: " + post.imageCount + "张").writeLine("");
+                }
+                writer.writeLine("---").writeLine("");
+            }
+            progress.rows += page.size();
+            progress.report(total);
+        }
+    }
+
+    /**
+     * 朋友圈 (CSV): 每条朋友圈一行
+     */
+    private void exportMomentsCsv(ExportWriter writer, Progress progress) throws IOException {
+        MomentDao dao = database.momentDao();
+        long total = dao.countPosts();
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+
+        writer.write(String.valueOf(BOM)).writeCsvRow("好友", "日期", "内容", "图片数", "媒体文件", "采集时间");
+        PostPager pager = new PostPager(dao);
+        List<MomentPost> page;
+        StringBuilder files = new StringBuilder();
+        while (!(page = pager.next()).isEmpty()) {
+            Map<String, List<String>> media = pager.mediaFor(page);
+            for (MomentPost post : page) {
+                files.setLength(0);
+                List<String> names = media.get(mediaKey(post.friendName, post.fingerprint));
+                if (names != null) {
+                    for (String name : names) {
+                        files.append(files.length() > 0 ? ";" : "").append(name);
+                    }
+                }
+                writer.writeCsvRow(post.friendName, post.dateLabel, post.content,
+                    String.valueOf(post.imageCount), files.toString(),
+                    timeFormat.format(new Date(post.capturedAt)));
+            }
+            progress.rows += page.size();
+            progress.report(total);
+        }
+    }
+
+    private static String mediaKey(String friendName, long fingerprint) {
+        return friendName + '\u0000' + fingerprint;
+    }
+
+    /**
+     * 按(好友, ID)分页读取朋友圈
+     */
+    private static class PostPager {
+        private final MomentDao dao;
+        private String afterFriend = "";
+        private long afterId = 0;
+
+        PostPager(MomentDao dao) {
+            this.dao = dao;
+        }
+
+        List<MomentPost> next() {
+            List<MomentPost> page = dao.getPostPage(afterFriend, afterId, PAGE_SIZE);
+            if (!page.isEmpty()) {
+                MomentPost last = page.get(page.size() - 1);
+                afterFriend = last.friendName;
+                afterId = last.id;
+            }
+            return page;
+        }
+
+        /**
+         * 这一页朋友圈已下载的媒体文件 (key: mediaKey(好友, 朋友圈指纹),不同好友的指纹可能相同)
+         */
+        Map<String, List<String>> mediaFor(List<MomentPost> page) {
+            Map<String, List<Long>> fingerprintsByFriend = new HashMap<>();
+            for (MomentPost post : page) {
+                List<Long> fingerprints = fingerprintsByFriend.get(post.friendName);
+                if (fingerprints == null) {
+                    fingerprints = new ArrayList<>();
+                    fingerprintsByFriend.put(post.friendName, fingerprints);
+                }
+                fingerprints.add(post.fingerprint);
+            }
+
+            Map<String, List<String>> files = new HashMap<>();
+            for (Map.Entry<String, List<Long>> entry : fingerprintsByFriend.entrySet()) {
+                for (MomentMedia media : dao.getDownloadedMedia(entry.getKey(), entry.getValue())) {
+                    String key = mediaKey(media.friendName, media.postFingerprint);
+                    List<String> names = files.get(key);
+                    if (names == null) {
+                        names = new ArrayList<>();
+                        files.put(key, names);
+                    }
+                    names.add(media.fileName);
+                }
+            }
+            return files;
+        }
+    }
+
+    /**
+     * 导出进度 (按时间间隔合并回调)
+     */
+    private class Progress {
+        private final Callback callback;
+        long rows;
+        private long lastReportMs;
+
+        Progress(Callback callback) {
+            this.callback = callback;
+        }
+
+        void report(long total) {
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastReportMs < PROGRESS_INTERVAL_MS) {
+                return;
+            }
+            lastReportMs = now;
+            long current = rows;
+            mainHandler.post(() -> callback.onProgress(current, total));
+        }
+    }
+}
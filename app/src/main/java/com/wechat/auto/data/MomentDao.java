@@ -0,0 +1,78 @@
+package com.wechat.auto.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import java.util.List;
+
+/**
+ * 朋友圈采集DAO
+ */
+@Dao
+public interface MomentDao {
+
+    /**
+     * @return 新记录的ID,已存在时返回-1
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertPost(MomentPost post);
+
+    /**
+     * 某位好友已采集的朋友圈指纹
+     */
+    @Query("SELECT fingerprint FROM moment_post WHERE friend_name = :friendName")
+    List<Long> getFingerprints(String friendName);
+
+    @Query("SELECT * FROM moment_watermark WHERE friend_name = :friendName")
+    MomentWatermark getWatermark(String friendName);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void saveWatermark(MomentWatermark watermark);
+
+    /**
+     * @return 新记录的ID,URL已存在时返回-1
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertMedia(MomentMedia media);
+
+    @Query("SELECT * FROM moment_media WHERE id = :id")
+    MomentMedia getMedia(long id);
+
+    /**
+     * 按ID分页读取等待下载的媒体,用于重启后继续下载
+     */
+    @Query("SELECT id FROM moment_media WHERE status = 0 AND id > :afterId ORDER BY id LIMIT :limit")
+    List<Long> getPendingMediaIds(long afterId, int limit);
+
+    @Query("UPDATE moment_media SET status = :status, file_name = :fileName, bytes = :bytes, "
+        + "updated_at = :updatedAt WHERE id = :id")
+    void updateMedia(long id, int status, String fileName, long bytes, long updatedAt);
+
+    @Query("UPDATE moment_media SET attempts = attempts + 1, status = :status, updated_at = :updatedAt "
+        + "WHERE id = :id")
+    void recordMediaFailure(long id, int status, long updatedAt);
+
+    /**
+     * 文件被淘汰后,引用它的媒体都标记为已淘汰
+     */
+    @Query("UPDATE moment_media SET status = 3, file_name = '' WHERE file_name = :fileName")
+    void markEvicted(String fileName);
+
+    @Query("SELECT COUNT(*) FROM moment_post")
+    int countPosts();
+
+    /**
+     * 按(好友, ID)分页读取所有朋友圈,用于导出: 同一好友的朋友圈连续,按采集顺序
+     */
+    @Query("SELECT * FROM moment_post WHERE friend_name > :afterFriend "
+        + "OR (friend_name = :afterFriend AND id > :afterId) ORDER BY friend_name, id LIMIT :limit")
+    List<MomentPost> getPostPage(String afterFriend, long afterId, int limit);
+
+    /**
+     * 某位好友的几条朋友圈中已下载的媒体
+     */
+    @Query("SELECT * FROM moment_media WHERE friend_name = :friendName AND status = 1 "
+        + "AND post_fingerprint IN (:fingerprints)")
+    List<MomentMedia> getDownloadedMedia(String friendName, List<Long> fingerprints);
+}
@@ -0,0 +1,52 @@
+package com.wechat.auto.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * 朋友圈采集: 待下载/已下载的媒体
+ * 同一个URL只下载一次; 内容相同的不同URL共用同一个本地文件
+ */
+@Entity(tableName = "moment_media",
+        indices = {@Index(value = {"url"}, unique = true),
+                   @Index(value = {"friend_name", "post_fingerprint"})})
+public class MomentMedia {
+
+    public static final int STATUS_PENDING = 0;  // 等待下载(或下载中断,可续传)
+    public static final int STATUS_DONE = 1;     // 已下载
+    public static final int STATUS_FAILED = 2;   // 多次失败或超过大小上限,不再重试
+    public static final int STATUS_EVICTED = 3;  // 超过磁盘配额被淘汰
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @NonNull
+    @ColumnInfo(name = "url")
+    public String url = "";
+
+    @NonNull
+    @ColumnInfo(name = "friend_name")
+    public String friendName = "";
+
+    @ColumnInfo(name = "post_fingerprint")
+    public long postFingerprint;  // 所属朋友圈, 见MomentPost.fingerprint
+
+    @ColumnInfo(name = "status")
+    public int status;
+
+    @NonNull
+    @ColumnInfo(name = "file_name")
+    public String fileName = "";  // 下载目录中的文件名(内容哈希 + 扩展名)
+
+    @ColumnInfo(name = "bytes")
+    public long bytes;
+
+    @ColumnInfo(name = "attempts")
+    public int attempts;
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+}
@@ -0,0 +1,466 @@
+package com.wechat.auto.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import com.wechat.auto.utils.BloomFilter;
+import com.wechat.auto.utils.HttpClientProvider;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 朋友圈媒体下载
+ * 功能:
+ * 1. 采集器每保存一条朋友圈,就把其中的链接登记为待下载(URL已登记过的跳过)
+ * 2. 固定数量的下载线程并行下载,与采集、数据库写入互不阻塞; 共用全应用的OkHttp连接池
+ * 3. 下载中断后用Range请求从已下载的位置继续(If-Range校验服务器上的文件没有变化)
+ * 4. 下载完成后按内容哈希命名,内容相同的文件只保存一份
+ * 5. 下载目录超过磁盘配额时按最近使用时间淘汰最旧的文件
+ *
+ * 下载会连接好友链接中的第三方服务器并消耗流量,默认关闭,由用户在采集朋友圈时开启;
+ * 只保存Content-Type为图片或视频的响应,文章、网页等链接读到响应头即放弃
+ * 待下载的记录保存在数据库中,服务重启后继续下载
+ */
+public class MomentMediaDownloader {
+
+    private static final String TAG = "MomentMediaDownloader";
+    private static final String PREFS_NAME = "WeChatAutoPrefs";
+    private static final String KEY_ENABLED = "moment_media_download_enabled";
+    private static final String DOWNLOAD_DIR = "moment_media";
+    private static final String PART_SUFFIX = ".part";          // 未下载完的文件
+    private static final String VALIDATOR_SUFFIX = ".validator"; // 未下载完的文件的ETag/Last-Modified
+    private static final int MAX_PARALLEL = 3;                   // 同时下载的数量
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 10000;            // 失败后重试的间隔(乘以失败次数)
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 200;
+    private static final long MAX_TOTAL_BYTES = 512L * 1024 * 1024; // 下载目录的磁盘配额
+    private static final long MAX_FILE_BYTES = 100L * 1024 * 1024;  // 单个文件的大小上限
+    private static final Pattern URL_PATTERN = Pattern.compile("https?://[^\\s<>\"'，。！？、）)】\\]]+");
+
+    private static volatile MomentMediaDownloader instance;
+
+    private final MomentDao dao;
+    private final SharedPreferences prefs;
+    private final File dir;
+    private final OkHttpClient client;
+    private final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService downloadPool = Executors.newFixedThreadPool(MAX_PARALLEL);
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private MomentMediaDownloader(Context context) {
+        this.dao = AppDatabase.getInstance(context).momentDao();
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.dir = new File(context.getApplicationContext().getFilesDir(), DOWNLOAD_DIR);
+        // 派生的客户端仍共用连接池; 大文件不设整体超时,只限制读写间隔
+        this.client = HttpClientProvider.get().newBuilder()
+            .readTimeout(30, TimeUnit.SECONDS)
+            .build();
+        dbExecutor.execute(this::resumePending);
+    }
+
+    public static MomentMediaDownloader getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MomentMediaDownloader.class) {
+                if (instance == null) {
+                    instance = new MomentMediaDownloader(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 是否下载朋友圈中的媒体 (默认关闭)
+     */
+    public boolean isEnabled() {
+        return prefs.getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * 开启或关闭媒体下载; 开启时继续下载之前登记的媒体,关闭时已在下载的文件会下载完
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled == isEnabled()) {
+            return;
+        }
+        prefs.edit().putBoolean(KEY_ENABLED, enabled).apply();
+        Log.d(TAG, "朋友圈媒体下载已" + (enabled ? "开启" : "关闭"));
+        if (enabled) {
+            dbExecutor.execute(this::resumePending);
+        }
+    }
+
+    /**
+     * 提取朋友圈文字中的链接
+     */
+    public static List<String> extractUrls(String content) {
+        List<String> urls = new ArrayList<>();
+        Matcher matcher = URL_PATTERN.matcher(content);
+        while (matcher.find()) {
+            urls.add(matcher.group());
+        }
+        return urls;
+    }
+
+    /**
+     * 登记一条朋友圈中的媒体并开始下载 (可在主线程调用)
+     */
+    public void enqueue(MomentPost post) {
+        if (!isEnabled()) {
+            return;
+        }
+        List<String> urls = extractUrls(post.content);
+        if (urls.isEmpty()) {
+            return;
+        }
+
+        dbExecutor.execute(() -> {
+            long now = System.currentTimeMillis();
+            for (String url : urls) {
+                MomentMedia media = new MomentMedia();
+                media.url = url;
+                media.friendName = post.friendName;
+                media.postFingerprint = post.fingerprint;
+                media.status = MomentMedia.STATUS_PENDING;
+                media.updatedAt = now;
+                try {
+                    long id = dao.insertMedia(media);
+                    if (id > 0) {
+                        submit(id);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "登记媒体失败: " + e.getMessage(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 继续下载上次未完成的媒体 (只在dbExecutor线程调用)
+     */
+    private void resumePending() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            long afterId = 0;
+            int count = 0;
+            List<Long> page;
+            do {
+                page = dao.getPendingMediaIds(afterId, PAGE_SIZE);
+                for (long id : page) {
+                    submit(id);
+                    afterId = id;
+                }
+                count += page.size();
+            } while (page.size() == PAGE_SIZE);
+            if (count > 0) {
+                Log.d(TAG, "继续下载上次未完成的媒体: " + count + "个");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "读取待下载媒体失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void submit(long id) {
+        if (inFlight.add(id)) {
+            downloadPool.execute(() -> {
+                try {
+                    download(id);
+                } finally {
+                    inFlight.remove(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * 下载一个媒体 (下载线程)
+     */
+    private void download(long id) {
+        MomentMedia media = dao.getMedia(id);
+        if (media == null || media.status != MomentMedia.STATUS_PENDING || !isEnabled()) {
+            return; // 关闭下载时保持待下载状态,重新开启后继续
+        }
+
+        String baseName = Long.toHexString(BloomFilter.fnv1a64(media.url));
+        File part = new File(dir, baseName + PART_SUFFIX);
+        File validatorFile = new File(dir, baseName + VALIDATOR_SUFFIX);
+        try {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("无法创建下载目录");
+            }
+
+            String extension = fetch(media.url, part, validatorFile);
+            File target = new File(dir, sha256(part) + extension);
+            long bytes = part.length();
+            if (target.exists()) {
+                // 相同内容已经下载过(其他URL)
+                part.delete();
+                target.setLastModified(System.currentTimeMillis());
+                Log.d(TAG, "内容已存在,复用文件: " + target.getName());
+            } else if (!part.renameTo(target)) {
+                throw new IOException("无法保存下载的文件");
+            }
+            validatorFile.delete();
+
+            dao.updateMedia(id, MomentMedia.STATUS_DONE, target.getName(), bytes, System.currentTimeMillis());
+            Log.d(TAG, String.format("下载完成: %s -> %s, %d bytes", media.url, target.getName(), bytes));
+            evictIfNeeded(target);
+
+        } catch (NotMediaException e) {
+            Log.d(TAG, "不是图片或视频(" + e.getMessage() + "),不下载: " + media.url);
+            part.delete();
+            validatorFile.delete();
+            dao.recordMediaFailure(id, MomentMedia.STATUS_FAILED, System.currentTimeMillis());
+        } catch (TooLargeException e) {
+            Log.w(TAG, "文件超过大小上限,不下载: " + media.url);
+            part.delete();
+            validatorFile.delete();
+            dao.recordMediaFailure(id, MomentMedia.STATUS_FAILED, System.currentTimeMillis());
+        } catch (IOException e) {
+            // 已下载的部分保留,下次用Range继续
+            boolean giveUp = media.attempts + 1 >= MAX_ATTEMPTS;
+            Log.w(TAG, String.format("下载失败(%d/%d): %s, %s", media.attempts + 1, MAX_ATTEMPTS,
+                media.url, e.getMessage()));
+            if (giveUp) {
+                part.delete();
+                validatorFile.delete();
+            }
+            dao.recordMediaFailure(id, giveUp ? MomentMedia.STATUS_FAILED : MomentMedia.STATUS_PENDING,
+                System.currentTimeMillis());
+            if (!giveUp) {
+                retryScheduler.schedule(() -> submit(id), RETRY_DELAY_MS * (media.attempts + 1),
+                    TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 下载到part文件,已有部分时用Range续传
+     * @return 文件扩展名(含".",未知时为空字符串)
+     */
+    private String fetch(String url, File part, File validatorFile) throws IOException {
+        long offset = part.length();
+        String validator = offset > 0 && validatorFile.exists() ? readValidator(validatorFile) : null;
+        if (offset > 0 && validator == null) {
+            // 无法确认服务器上的文件没有变化,重新下载
+            offset = 0;
+        }
+
+        Request.Builder builder = new Request.Builder().url(url);
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+            builder.header("If-Range", validator);
+        }
+
+        try (Response response = client.newCall(builder.build()).execute()) {
+            ResponseBody body = response.body();
+            if (response.code() == 416 && offset > 0) {
+                // 已下载的部分就是完整文件
+                return extensionFor(url, null);
+            }
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("HTTP " + response.code());
+            }
+            // 只下载图片和视频,读到响应头即判断,不读取网页等其他内容
+            okhttp3.MediaType contentType = body.contentType();
+            if (contentType == null
+                    || !("image".equals(contentType.type()) || "video".equals(contentType.type()))) {
+                throw new NotMediaException(contentType != null ? contentType.toString() : "无Content-Type");
+            }
+
+            boolean append = response.code() == 206 && offset > 0 && rangeStart(response) == offset;
+            if (!append) {
+                offset = 0; // 服务器不支持Range或文件已变化: 从头下载
+            }
+            long total = body.contentLength() >= 0 ? offset + body.contentLength() : -1;
+            if (total > MAX_FILE_BYTES) {
+                throw new TooLargeException();
+            }
+
+            String newValidator = response.header("ETag");
+            if (newValidator == null) {
+                newValidator = response.header("Last-Modified");
+            }
+            writeValidator(validatorFile, newValidator);
+
+            try (ReadableByteChannel source = Channels.newChannel(body.byteStream());
+                 FileOutputStream out = new FileOutputStream(part, append);
+                 FileChannel sink = out.getChannel()) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                long written = offset;
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        written += sink.write(buffer);
+                    }
+                    buffer.clear();
+                    if (written > MAX_FILE_BYTES) {
+                        throw new TooLargeException();
+                    }
+                }
+                sink.force(false);
+            }
+
+            return extensionFor(url, contentType != null ? contentType.type() + "/" + contentType.subtype() : null);
+        }
+    }
+
+    /**
+     * 206响应的起始位置 (Content-Range: bytes start-end/total)
+     */
+    private static long rangeStart(Response response) {
+        String range = response.header("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = range.indexOf('-');
+        try {
+            return dash > 6 ? Long.parseLong(range.substring(6, dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readValidator(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            String validator = new String(bytes, StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeValidator(File file, String validator) throws IOException {
+        if (validator == null) {
+            file.delete();
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 计算文件的SHA-256
+     */
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileInputStream in = new FileInputStream(file);
+             FileChannel channel = in.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按MIME类型或URL生成扩展名
+     */
+    private static String extensionFor(String url, String mimeType) {
+        String extension = mimeType != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType) : null;
+        if (extension == null) {
+            extension = MimeTypeMap.getFileExtensionFromUrl(url);
+        }
+        return extension != null && !extension.isEmpty() ? "." + extension : "";
+    }
+
+    /**
+     * 下载目录超过配额时按最近使用时间淘汰 (刚下载的文件和未下载完的文件不淘汰)
+     */
+    private synchronized void evictIfNeeded(File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        List<File> candidates = new ArrayList<>();
+        for (File file : files) {
+            total += file.length();
+            String name = file.getName();
+            if (!file.equals(keep) && !name.endsWith(PART_SUFFIX) && !name.endsWith(VALIDATOR_SUFFIX)) {
+                candidates.add(file);
+            }
+        }
+        if (total <= MAX_TOTAL_BYTES) {
+            return;
+        }
+
+        File[] sorted = candidates.toArray(new File[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : sorted) {
+            if (total <= MAX_TOTAL_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                dao.markEvicted(file.getName());
+                Log.d(TAG, "超过磁盘配额,淘汰文件: " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * 响应不是图片或视频
+     */
+    private static class NotMediaException extends IOException {
+        NotMediaException(String contentType) {
+            super(contentType);
+        }
+    }
+
+    /**
+     * 文件超过大小上限
+     */
+    private static class TooLargeException extends IOException {
+        TooLargeException() {
+            super("文件超过大小上限");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.wechat.auto.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * 朋友圈采集: 一条朋友圈
+ * 同一好友的同一条朋友圈只保存一次(按日期和指纹去重),重复采集不会产生重复记录
+ */
+@Entity(tableName = "moment_post",
+        indices = {@Index(value = {"friend_name", "date_label", "fingerprint"}, unique = true)})
+public class MomentPost {
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @NonNull
+    @ColumnInfo(name = "friend_name")
+    public String friendName = "";
+
+    @ColumnInfo(name = "fingerprint")
+    public long fingerprint;  // 日期、内容和同一天中序号的指纹, 见MomentStore.fingerprint()
+
+    @NonNull
+    @ColumnInfo(name = "date_label")
+    public String dateLabel = "";  // 相册中的日期, 换算为"yyyy年M月d日"
+
+    @NonNull
+    @ColumnInfo(name = "content")
+    public String content = "";
+
+    @ColumnInfo(name = "image_count")
+    public int imageCount;
+
+    @ColumnInfo(name = "captured_at")
+    public long capturedAt;
+}
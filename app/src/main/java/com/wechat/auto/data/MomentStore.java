@@ -0,0 +1,132 @@
+package com.wechat.auto.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.wechat.auto.utils.BloomFilter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 朋友圈存储
+ * 功能:
+ * 1. 采集到一条朋友圈立即写入,中途被打断也不会丢失已采集的内容
+ * 2. 每位好友保存一个采集位置(最新一条朋友圈),增量采集时滚动到这里即停止
+ *
+ * 采集位置只在一次采集完整结束(到达上次的位置或相册底部)后才前移:
+ * 中途被打断时如果提前前移,下次会停在新位置,漏掉两次之间还没采集的部分
+ *
+ * 所有数据库操作在单独的线程串行执行,回调在主线程执行
+ */
+public class MomentStore {
+
+    private static final String TAG = "MomentStore";
+
+    private static volatile MomentStore instance;
+
+    private final MomentDao dao;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 主线程回调
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * 某位好友的采集进度
+     */
+    public static class Checkpoint {
+        public final MomentWatermark watermark;   // 从未完整采集过时为null
+        public final Set<Long> knownFingerprints; // 已保存的朋友圈
+
+        Checkpoint(MomentWatermark watermark, Set<Long> knownFingerprints) {
+            this.watermark = watermark;
+            this.knownFingerprints = knownFingerprints;
+        }
+    }
+
+    private MomentStore(Context context) {
+        this.dao = AppDatabase.getInstance(context).momentDao();
+    }
+
+    public static MomentStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MomentStore.class) {
+                if (instance == null) {
+                    instance = new MomentStore(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 朋友圈的指纹 (日期 + 文字 + 图片数量 + 同一天中相同朋友圈的序号)
+     * 只发图片、或者转发同样文字的朋友圈很常见,只用文字和图片数量会互相冲突,后一条被当作已保存
+     * 日期是换算后的"yyyy年M月d日"(同一天的每一条都沿用这一天的日期),不随相册中日期文字的位置变化
+     * @param ordinal 同一天、文字和图片数量都相同的朋友圈里,这是从最旧的一条往上数第几条(从0开始),
+     *                好友之后再发相同的朋友圈时已保存的序号不变
+     */
+    public static long fingerprint(String dateLabel, String content, int imageCount, int ordinal) {
+        return BloomFilter.fnv1a64(dateLabel + "\n" + content + "\n" + imageCount + "\n" + ordinal);
+    }
+
+    /**
+     * 读取某位好友的采集进度
+     */
+    public void loadCheckpoint(String friendName, Callback<Checkpoint> callback) {
+        executor.execute(() -> {
+            MomentWatermark watermark = null;
+            Set<Long> known = new HashSet<>();
+            try {
+                watermark = dao.getWatermark(friendName);
+                known.addAll(dao.getFingerprints(friendName));
+            } catch (Exception e) {
+                Log.e(TAG, "读取采集进度失败: " + e.getMessage(), e);
+            }
+            Checkpoint checkpoint = new Checkpoint(watermark, known);
+            mainHandler.post(() -> callback.onResult(checkpoint));
+        });
+    }
+
+    /**
+     * 保存一条朋友圈 (已存在时忽略)
+     */
+    public void append(MomentPost post) {
+        executor.execute(() -> {
+            try {
+                if (dao.insertPost(post) < 0) {
+                    Log.d(TAG, "朋友圈已存在: " + post.friendName + " " + post.dateLabel);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "保存朋友圈失败: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 完整采集后把采集位置移到最新一条朋友圈
+     * 排在之前的append之后执行,位置之前的内容一定已经写入
+     */
+    public void advanceWatermark(MomentPost latest) {
+        MomentWatermark watermark = new MomentWatermark();
+        watermark.friendName = latest.friendName;
+        watermark.fingerprint = latest.fingerprint;
+        watermark.dateLabel = latest.dateLabel;
+        watermark.updatedAt = System.currentTimeMillis();
+        executor.execute(() -> {
+            try {
+                dao.saveWatermark(watermark);
+                Log.d(TAG, "采集位置已更新: " + watermark.friendName + " " + watermark.dateLabel);
+            } catch (Exception e) {
+                Log.e(TAG, "更新采集位置失败: " + e.getMessage(), e);
+            }
+        });
+    }
+}
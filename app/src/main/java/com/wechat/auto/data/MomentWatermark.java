@@ -0,0 +1,29 @@
+package com.wechat.auto.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * 朋友圈采集: 每位好友的采集位置
+ * 记录上次完整采集时最新一条朋友圈,下次采集滚动到这一条即停止
+ */
+@Entity(tableName = "moment_watermark")
+public class MomentWatermark {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "friend_name")
+    public String friendName = "";
+
+    @ColumnInfo(name = "fingerprint")
+    public long fingerprint;
+
+    @NonNull
+    @ColumnInfo(name = "date_label")
+    public String dateLabel = "";
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+}
@@ -0,0 +1,235 @@
+package com.wechat.auto.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.wechat.auto.model.SendTask;
+import com.wechat.auto.utils.BackgroundExecutor;
+import com.wechat.auto.utils.BloomFilter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 发送台账
+ * 功能:
+ * 1. 记录每个活动已发送给哪些好友哪些消息,跨任务、跨重启有效
+ * 2. 内存中的布隆过滤器挡在数据库前面: 编排任务时绝大多数好友不需要查数据库,
+ *    只有过滤器命中的好友才用一次批量IN查询确认
+ * 3. 台账写入先在内存中攒批,达到数量或超过时间后一次写入
+ *
+ * 攒批期间被杀丢失的记录由任务日志兜底(恢复任务时同样会跳过)
+ */
+public class SendLedger {
+
+    private static final String TAG = "SendLedger";
+    private static final int BATCH_SIZE = 50;           // 攒够多少条写一次
+    private static final long FLUSH_DELAY_MS = 3000;    // 最多攒多久
+    private static final int PAGE_SIZE = 1000;          // 构建过滤器时每页读取的数量
+    private static final int MAX_IN_PARAMS = 500;       // IN查询的参数上限(SQLite默认999)
+    private static final int MIN_FILTER_CAPACITY = 20000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static volatile SendLedger instance;
+
+    private final SendLedgerDao dao;
+    private final ExecutorService executor = BackgroundExecutor.newSingleThread();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<SendLedgerEntry> pending = new ArrayList<>();
+    private final Runnable flushRunnable = this::flush;
+    private volatile BloomFilter filter;  // 只在executor线程中构建和重建
+    private long filterCapacity;          // 构建过滤器时预留的记录数 (executor线程)
+    private long filterRecords;           // 过滤器中已有的记录数 (executor线程)
+
+    /**
+     * 主线程回调
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private SendLedger(Context context) {
+        this.dao = AppDatabase.getInstance(context).sendLedgerDao();
+        // 提前在后台构建过滤器,开始任务时不用等待
+        executor.execute(this::ensureFilter);
+    }
+
+    public static SendLedger getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SendLedger.class) {
+                if (instance == null) {
+                    instance = new SendLedger(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 消息内容的哈希 (类型 + 内容)
+     */
+    public static long messageHash(SendTask.Message message) {
+        return BloomFilter.fnv1a64(message.getType() + "\n" + message.getContent());
+    }
+
+    private static String filterKey(String campaignId, String friendName, long messageHash) {
+        return campaignId + "\u0000" + friendName + "\u0000" + messageHash;
+    }
+
+    /**
+     * 编排任务: 找出该活动中已经发送过的(好友, 消息)
+     * @param callback 返回已发送的操作, key见TaskJournal.opKey();没有活动ID时返回空集合
+     */
+    public void findServed(SendTask task, Callback<Set<Long>> callback) {
+        String campaignId = task.getCampaignId();
+        if (campaignId == null || campaignId.isEmpty()) {
+            callback.onResult(new HashSet<>());
+            return;
+        }
+
+        executor.execute(() -> {
+            Set<Long> served = new HashSet<>();
+            try {
+                BloomFilter bloom = ensureFilter();
+                List<String> friendNames = task.getFriendNames();
+                int candidateCount = 0;
+
+                for (int m = 0; m < task.getMessages().size(); m++) {
+                    long hash = messageHash(task.getMessages().get(m));
+
+                    // 过滤器说不存在的好友一定没发过,不用查数据库
+                    List<String> candidates = new ArrayList<>();
+                    for (String friendName : friendNames) {
+                        if (bloom.mightContain(filterKey(campaignId, friendName, hash))) {
+                            candidates.add(friendName);
+                        }
+                    }
+                    if (candidates.isEmpty()) {
+                        continue;
+                    }
+                    candidateCount += candidates.size();
+
+                    // 命中的好友用批量IN查询确认(排除误判)
+                    Set<String> confirmed = new HashSet<>();
+                    for (int start = 0; start < candidates.size(); start += MAX_IN_PARAMS) {
+                        int end = Math.min(start + MAX_IN_PARAMS, candidates.size());
+                        confirmed.addAll(dao.findServed(campaignId, hash, candidates.subList(start, end)));
+                    }
+                    for (int f = 0; f < friendNames.size(); f++) {
+                        if (confirmed.contains(friendNames.get(f))) {
+                            served.add(TaskJournal.opKey(f, m));
+                        }
+                    }
+                }
+
+                Log.d(TAG, String.format("活动[%s]: 过滤器命中%d项, 确认已发送%d项",
+                    campaignId, candidateCount, served.size()));
+            } catch (Exception e) {
+                Log.e(TAG, "查询发送台账失败: " + e.getMessage(), e);
+            }
+
+            mainHandler.post(() -> callback.onResult(served));
+        });
+    }
+
+    /**
+     * 记录已发送的操作 (主线程调用,攒批写入)
+     */
+    public void record(SendTask task, List<Integer> friendIndices, List<Integer> messageIndices) {
+        String campaignId = task.getCampaignId();
+        if (campaignId == null || campaignId.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        BloomFilter bloom = filter;
+        for (int friendIndex : friendIndices) {
+            String friendName = task.getFriendNames().get(friendIndex);
+            for (int messageIndex : messageIndices) {
+                SendLedgerEntry entry = new SendLedgerEntry();
+                entry.campaignId = campaignId;
+                entry.friendName = friendName;
+                entry.messageHash = messageHash(task.getMessages().get(messageIndex));
+                entry.sentAt = now;
+                pending.add(entry);
+                if (bloom != null) {
+                    bloom.put(filterKey(campaignId, friendName, entry.messageHash));
+                }
+            }
+        }
+
+        if (pending.size() >= BATCH_SIZE) {
+            flush();
+        } else {
+            mainHandler.removeCallbacks(flushRunnable);
+            mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * 立即写入攒批的记录 (任务结束或暂停时调用)
+     */
+    public void flush() {
+        mainHandler.removeCallbacks(flushRunnable);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<SendLedgerEntry> batch = new ArrayList<>(pending);
+        pending.clear();
+        executor.execute(() -> {
+            try {
+                dao.insertAll(batch);
+                // 过滤器在这批记录之后才构建完成时,补上这批记录
+                BloomFilter bloom = ensureFilter();
+                for (SendLedgerEntry entry : batch) {
+                    bloom.put(filterKey(entry.campaignId, entry.friendName, entry.messageHash));
+                }
+                filterRecords += batch.size();
+                if (filterRecords > filterCapacity) {
+                    // 记录数超过了预留的容量,按当前记录数的2倍重建,误判率回到期望值
+                    filter = null;
+                    ensureFilter();
+                }
+                Log.d(TAG, "发送台账已写入" + batch.size() + "条");
+            } catch (Exception e) {
+                Log.e(TAG, "写入发送台账失败: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 从数据库分页读取所有记录构建过滤器 (只在executor线程调用)
+     * 写入超过容量后清空filter,下次调用时按新的记录数重建
+     */
+    private BloomFilter ensureFilter() {
+        if (filter != null) {
+            return filter;
+        }
+
+        long startTime = System.currentTimeMillis();
+        int count = dao.count();
+        // 预留新记录的空间,避免误判率随写入升高
+        long capacity = Math.max(MIN_FILTER_CAPACITY, count * 2L);
+        BloomFilter bloom = new BloomFilter(capacity, FALSE_POSITIVE_RATE);
+        long afterId = 0;
+        List<SendLedgerEntry> page;
+        do {
+            page = dao.getPage(afterId, PAGE_SIZE);
+            for (SendLedgerEntry entry : page) {
+                bloom.put(filterKey(entry.campaignId, entry.friendName, entry.messageHash));
+                afterId = entry.id;
+            }
+        } while (page.size() == PAGE_SIZE);
+
+        filterCapacity = capacity;
+        filterRecords = count;
+        filter = bloom;
+        Log.d(TAG, String.format("布隆过滤器构建完成: %d条记录, %dKB, 耗时%dms",
+            count, bloom.sizeInBytes() / 1024, System.currentTimeMillis() - startTime));
+        return bloom;
+    }
+}
@@ -0,0 +1,43 @@
+package com.wechat.auto.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import java.util.List;
+
+/**
+ * 发送台账DAO
+ */
+@Dao
+public interface SendLedgerDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertAll(List<SendLedgerEntry> entries);
+
+    /**
+     * 按ID分页读取,用于构建布隆过滤器
+     */
+    @Query("SELECT * FROM send_ledger WHERE id > :afterId ORDER BY id LIMIT :limit")
+    List<SendLedgerEntry> getPage(long afterId, int limit);
+
+    @Query("SELECT COUNT(*) FROM send_ledger")
+    int count();
+
+    /**
+     * 在候选好友中确认已发送过该消息的好友
+     */
+    @Query("SELECT friend_name FROM send_ledger WHERE campaign_id = :campaignId "
+        + "AND message_hash = :messageHash AND friend_name IN (:friendNames)")
+    List<String> findServed(String campaignId, long messageHash, List<String> friendNames);
+
+    @Query("SELECT COUNT(*) FROM send_ledger WHERE campaign_id = :campaignId")
+    int countCampaign(String campaignId);
+
+    /**
+     * 按ID分页读取某个活动的记录,用于导出
+     */
+    @Query("SELECT * FROM send_ledger WHERE campaign_id = :campaignId AND id > :afterId "
+        + "ORDER BY id LIMIT :limit")
+    List<SendLedgerEntry> getCampaignPage(String campaignId, long afterId, int limit);
+}
@@ -0,0 +1,33 @@
+package com.wechat.auto.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * 发送台账: 某个活动的某条消息已发送给某位好友
+ * 跨任务、跨重启保存,同一活动不会重复发送给同一位好友
+ */
+@Entity(tableName = "send_ledger",
+        indices = {@Index(value = {"campaign_id", "friend_name", "message_hash"}, unique = true)})
+public class SendLedgerEntry {
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @NonNull
+    @ColumnInfo(name = "campaign_id")
+    public String campaignId = "";
+
+    @NonNull
+    @ColumnInfo(name = "friend_name")
+    public String friendName = "";
+
+    @ColumnInfo(name = "message_hash")
+    public long messageHash;  // 消息内容的哈希, 见SendLedger.messageHash()
+
+    @ColumnInfo(name = "sent_at")
+    public long sentAt;
+}
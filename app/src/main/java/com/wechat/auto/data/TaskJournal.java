@@ -0,0 +1,184 @@
+package com.wechat.auto.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.google.gson.Gson;
+import com.wechat.auto.model.SendTask;
+import com.wechat.auto.utils.BackgroundExecutor;
+import com.wechat.auto.utils.MediaCache;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 任务日志 (预写日志)
+ * 功能:
+ * 1. 任务加入队列前先保存任务配置(排队中、被插队暂停的任务同样可以恢复)
+ * 2. 每完成一项(好友, 消息)操作先写入日志,再继续下一步
+ * 3. 服务被杀或重启后,从最后的检查点恢复任务,不重复发送
+ *
+ * 所有数据库操作在单独的线程串行执行,回调在主线程执行
+ */
+public class TaskJournal {
+
+    private static final String TAG = "TaskJournal";
+
+    private final TaskJournalDao dao;
+    private final MediaCache mediaCache;
+    private final ExecutorService executor = BackgroundExecutor.newSingleThread();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Gson gson = new Gson();
+
+    /**
+     * 主线程回调
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * 可恢复的任务
+     */
+    public static class ResumableTask {
+        public final long taskId;
+        public final SendTask task;
+        public final Set<Long> completedOps;  // 已完成的操作, key见opKey()
+
+        ResumableTask(long taskId, SendTask task, Set<Long> completedOps) {
+            this.taskId = taskId;
+            this.task = task;
+            this.completedOps = completedOps;
+        }
+    }
+
+    public TaskJournal(Context context) {
+        this.dao = AppDatabase.getInstance(context).taskJournalDao();
+        this.mediaCache = MediaCache.getInstance(context);
+    }
+
+    /**
+     * 未结束的任务引用的媒体文件不能被缓存淘汰
+     */
+    private static String pinOwner(long taskId) {
+        return "journal:" + taskId;
+    }
+
+    /**
+     * 操作的唯一key: (好友索引, 消息索引)
+     */
+    public static long opKey(int friendIndex, int messageIndex) {
+        return ((long) friendIndex << 32) | (messageIndex & 0xffffffffL);
+    }
+
+    /**
+     * 记录新任务 (排队或被插队暂停的任务仍为执行中,不影响其他任务的状态)
+     * 任务配置中包含优先级,恢复时按原来的优先级排队
+     * @param callback 返回任务ID,写入失败时返回-1(任务照常执行,只是无法恢复)
+     */
+    public void begin(SendTask task, Callback<Long> callback) {
+        executor.execute(() -> {
+            long taskId = -1;
+            try {
+                long now = System.currentTimeMillis();
+                TaskRecord record = new TaskRecord();
+                record.taskJson = gson.toJson(task);
+                record.status = TaskRecord.STATUS_RUNNING;
+                record.createdAt = now;
+                record.updatedAt = now;
+                taskId = dao.insertTask(record);
+                mediaCache.pin(pinOwner(taskId), MediaCache.mediaPaths(task));
+                Log.d(TAG, "任务已写入日志: " + taskId);
+            } catch (Exception e) {
+                Log.e(TAG, "写入任务日志失败: " + e.getMessage(), e);
+            }
+
+            long result = taskId;
+            mainHandler.post(() -> callback.onResult(result));
+        });
+    }
+
+    /**
+     * 记录已完成的操作(好友列表 x 消息列表),写入后再在主线程执行then
+     */
+    public void recordCompleted(long taskId, List<Integer> friendIndices, List<Integer> messageIndices,
+                                Runnable then) {
+        if (taskId < 0 || friendIndices.isEmpty() || messageIndices.isEmpty()) {
+            mainHandler.post(then);
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                long now = System.currentTimeMillis();
+                List<TaskOpRecord> ops = new ArrayList<>();
+                for (int friendIndex : friendIndices) {
+                    for (int messageIndex : messageIndices) {
+                        TaskOpRecord op = new TaskOpRecord();
+                        op.taskId = taskId;
+                        op.friendIndex = friendIndex;
+                        op.messageIndex = messageIndex;
+                        op.completedAt = now;
+                        ops.add(op);
+                    }
+                }
+                dao.insertOps(ops);
+            } catch (Exception e) {
+                Log.e(TAG, "写入操作日志失败: " + e.getMessage(), e);
+            }
+            mainHandler.post(then);
+        });
+    }
+
+    /**
+     * 任务结束(完成或取消)
+     */
+    public void finish(long taskId, int status) {
+        if (taskId < 0) {
+            return;
+        }
+
+        mediaCache.unpin(pinOwner(taskId));
+        executor.execute(() -> {
+            try {
+                dao.updateStatus(taskId, status, System.currentTimeMillis());
+                Log.d(TAG, "任务日志已结束: " + taskId + ", 状态: " + status);
+            } catch (Exception e) {
+                Log.e(TAG, "更新任务日志失败: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 查找所有未完成的任务: 被中断的、被插队暂停的和排队中的 (按加入的先后顺序)
+     * 找到的任务引用的媒体文件在恢复或放弃之前不会被缓存淘汰
+     * @param callback 没有可恢复的任务时返回空列表
+     */
+    public void loadResumable(Callback<List<ResumableTask>> callback) {
+        executor.execute(() -> {
+            List<ResumableTask> resumable = new ArrayList<>();
+            try {
+                for (TaskRecord record : dao.findRunning()) {
+                    SendTask task = gson.fromJson(record.taskJson, SendTask.class);
+                    if (task == null) {
+                        continue;
+                    }
+                    Set<Long> completedOps = new HashSet<>();
+                    for (TaskOpRecord op : dao.getOps(record.id)) {
+                        completedOps.add(opKey(op.friendIndex, op.messageIndex));
+                    }
+                    resumable.add(new ResumableTask(record.id, task, completedOps));
+                    mediaCache.pin(pinOwner(record.id), MediaCache.mediaPaths(task));
+                    Log.d(TAG, "找到未完成的任务: " + record.id + ", 已完成操作: " + completedOps.size());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "读取任务日志失败: " + e.getMessage(), e);
+            }
+
+            mainHandler.post(() -> callback.onResult(resumable));
+        });
+    }
+}
@@ -0,0 +1,29 @@
+package com.wechat.auto.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import java.util.List;
+
+/**
+ * 任务日志DAO
+ */
+@Dao
+public interface TaskJournalDao {
+
+    @Insert
+    long insertTask(TaskRecord record);
+
+    @Query("UPDATE task_record SET status = :status, updated_at = :updatedAt WHERE id = :taskId")
+    void updateStatus(long taskId, int status, long updatedAt);
+
+    @Query("SELECT * FROM task_record WHERE status = 0 ORDER BY id")
+    List<TaskRecord> findRunning();
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertOps(List<TaskOpRecord> ops);
+
+    @Query("SELECT * FROM task_op WHERE task_id = :taskId")
+    List<TaskOpRecord> getOps(long taskId);
+}
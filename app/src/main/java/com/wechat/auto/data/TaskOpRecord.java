@@ -0,0 +1,29 @@
+package com.wechat.auto.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * 任务日志: 已完成的操作 (某位好友的某条消息已发送)
+ */
+@Entity(tableName = "task_op",
+        indices = {@Index(value = {"task_id", "friend_index", "message_index"}, unique = true)})
+public class TaskOpRecord {
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @ColumnInfo(name = "task_id")
+    public long taskId;
+
+    @ColumnInfo(name = "friend_index")
+    public int friendIndex;
+
+    @ColumnInfo(name = "message_index")
+    public int messageIndex;
+
+    @ColumnInfo(name = "completed_at")
+    public long completedAt;
+}
@@ -0,0 +1,32 @@
+package com.wechat.auto.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * 任务日志: 任务记录
+ * 保存任务的完整配置,服务被杀后可以从日志恢复任务
+ */
+@Entity(tableName = "task_record")
+public class TaskRecord {
+
+    public static final int STATUS_RUNNING = 0;    // 执行中(或被中断,可恢复)
+    public static final int STATUS_COMPLETED = 1;  // 已完成
+    public static final int STATUS_CANCELLED = 2;  // 已取消
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @ColumnInfo(name = "task_json")
+    public String taskJson;  // SendTask的JSON
+
+    @ColumnInfo(name = "status")
+    public int status;
+
+    @ColumnInfo(name = "created_at")
+    public long createdAt;
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+}
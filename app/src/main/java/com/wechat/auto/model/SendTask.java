@@ -12,6 +12,33 @@ public class SendTask implements Serializable {
     
     private List<String> friendNames;  // 好友昵称列表
     private List<Message> messages;     // 消息列表
+    private ShareMode shareMode = ShareMode.PER_FRIEND; // 图片/视频的分享方式
+    private String stagingChat = DEFAULT_STAGING_CHAT;  // 转发模式下先接收文件的聊天
+    private Priority priority = Priority.NORMAL;        // 任务队列中的优先级
+    private String campaignId;                          // 活动ID: 同一活动的消息不会重复发送给同一位好友, 为空不去重
+    private boolean compressImages = false;             // 分享前缩小并重新压缩图片
+    private boolean aiRewrite = false;                  // 文字消息先由AI按好友改写再发送
+
+    public static final String DEFAULT_STAGING_CHAT = "文件传输助手";
+
+    /**
+     * 图片/视频分享方式
+     */
+    public enum ShareMode {
+        PER_FRIEND,           // 逐个好友分享
+        MULTI_RECIPIENT,      // 按媒体分组,通过"多选"一次分享给多位好友
+        FORWARD_FROM_STAGING  // 先分享到中转聊天(文件传输助手),再长按"转发"给多位好友,大文件只上传一次
+    }
+
+    /**
+     * 任务优先级 (数值越小越优先)
+     * 高优先级任务会在当前任务处理完一位好友后插队执行,被插队的任务暂停后继续
+     */
+    public enum Priority {
+        URGENT,  // 紧急: 插队执行
+        NORMAL,  // 普通
+        BULK     // 批量群发: 可被其他任务插队
+    }
     
     public SendTask() {
         this.friendNames = new ArrayList<>();
@@ -38,6 +65,54 @@ public class SendTask implements Serializable {
     public void setMessages(List<Message> messages) {
         this.messages = messages;
     }
+
+    public ShareMode getShareMode() {
+        return shareMode;
+    }
+
+    public void setShareMode(ShareMode shareMode) {
+        this.shareMode = shareMode;
+    }
+
+    public String getStagingChat() {
+        return stagingChat;
+    }
+
+    public void setStagingChat(String stagingChat) {
+        this.stagingChat = stagingChat;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public String getCampaignId() {
+        return campaignId;
+    }
+
+    public void setCampaignId(String campaignId) {
+        this.campaignId = campaignId;
+    }
+
+    public boolean isCompressImages() {
+        return compressImages;
+    }
+
+    public void setCompressImages(boolean compressImages) {
+        this.compressImages = compressImages;
+    }
+
+    public boolean isAiRewrite() {
+        return aiRewrite;
+    }
+
+    public void setAiRewrite(boolean aiRewrite) {
+        this.aiRewrite = aiRewrite;
+    }
     
     /**
      * 消息数据模型
@@ -0,0 +1,74 @@
+package com.wechat.auto.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次分享流程的数据模型
+ * 同一类型(图片或视频)的多个文件打包成一次 ACTION_SEND_MULTIPLE 分享,
+ * 分享界面只需搜索并确认一次收件人
+ * 转发包(forward)不启动分享Intent,而是在中转聊天里长按已发送的消息"转发"
+ */
+public class ShareBatch {
+
+    private final String type;                 // 消息类型: image, video
+    private final List<Integer> messageIndices; // 对应SendTask中的消息索引
+    private final List<String> filePaths;       // 要分享的文件路径
+    private final List<String> friendNames;     // 收件人列表
+    private boolean forward = false;            // 是否为转发包
+
+    public ShareBatch(String type) {
+        this.type = type;
+        this.messageIndices = new ArrayList<>();
+        this.filePaths = new ArrayList<>();
+        this.friendNames = new ArrayList<>();
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 分享Intent使用的MIME类型
+     */
+    public String getMimeType() {
+        return "image".equals(type) ? "image/*" : "video/*";
+    }
+
+    public List<Integer> getMessageIndices() {
+        return messageIndices;
+    }
+
+    public List<String> getFilePaths() {
+        return filePaths;
+    }
+
+    public List<String> getFriendNames() {
+        return friendNames;
+    }
+
+    public boolean isForward() {
+        return forward;
+    }
+
+    public void setForward(boolean forward) {
+        this.forward = forward;
+    }
+
+    public void addFile(int messageIndex, String filePath) {
+        messageIndices.add(messageIndex);
+        filePaths.add(filePath);
+    }
+
+    public void addFriend(String friendName) {
+        friendNames.add(friendName);
+    }
+
+    public int size() {
+        return filePaths.size();
+    }
+
+    public boolean isMultiple() {
+        return filePaths.size() > 1;
+    }
+}
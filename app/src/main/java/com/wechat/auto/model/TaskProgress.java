@@ -0,0 +1,58 @@
+package com.wechat.auto.model;
+
+/**
+ * 任务进度快照
+ * 由WeChatAccessibilityService生成,供界面显示,生成后不再修改
+ */
+public class TaskProgress {
+
+    public static final long UNKNOWN = -1;
+
+    public final boolean running;          // 是否有任务在执行
+    public final String jobLabel;          // 当前任务描述
+    public final int totalRecipients;      // 好友总数
+    public final int completedRecipients;  // 已处理完的好友数
+    public final int totalShareBatches;    // 批量分享阶段的分享包总数 (未进入该阶段为0)
+    public final int completedShareBatches;
+    public final int queuedJobs;           // 排队中的任务数
+    public final double friendsPerMinute;  // 最近几分钟的吞吐量
+    public final long etaMillis;           // 预计剩余时间, UNKNOWN表示还没有足够的数据
+    public final long elapsedMillis;       // 已执行时间
+
+    public TaskProgress(boolean running, String jobLabel, int totalRecipients, int completedRecipients,
+                        int totalShareBatches, int completedShareBatches, int queuedJobs,
+                        double friendsPerMinute, long etaMillis, long elapsedMillis) {
+        this.running = running;
+        this.jobLabel = jobLabel;
+        this.totalRecipients = totalRecipients;
+        this.completedRecipients = completedRecipients;
+        this.totalShareBatches = totalShareBatches;
+        this.completedShareBatches = completedShareBatches;
+        this.queuedJobs = queuedJobs;
+        this.friendsPerMinute = friendsPerMinute;
+        this.etaMillis = etaMillis;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * 空闲状态
+     */
+    public static TaskProgress idle(int queuedJobs) {
+        return new TaskProgress(false, null, 0, 0, 0, 0, queuedJobs, 0, UNKNOWN, 0);
+    }
+
+    public int getRemainingRecipients() {
+        return Math.max(0, totalRecipients - completedRecipients);
+    }
+
+    /**
+     * 完成百分比 (0~100)
+     */
+    public int getPercent() {
+        int total = totalRecipients + totalShareBatches;
+        if (total == 0) {
+            return 0;
+        }
+        return (completedRecipients + completedShareBatches) * 100 / total;
+    }
+}
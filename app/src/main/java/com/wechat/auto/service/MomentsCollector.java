@@ -0,0 +1,424 @@
+package com.wechat.auto.service;
+
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+import com.wechat.auto.data.MomentMediaDownloader;
+import com.wechat.auto.data.MomentPost;
+import com.wechat.auto.data.MomentStore;
+import com.wechat.auto.data.MomentWatermark;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 朋友圈增量采集
+ * 在好友的朋友圈相册界面从上往下滚动采集,每解析出一条就写入MomentStore,
+ * 并把其中的链接交给MomentMediaDownloader在后台下载
+ * 遇到以下情况停止滚动:
+ * 1. 到达上次完整采集时最新的一条(采集位置)
+ * 2. 连续几条都是已经保存过的朋友圈(采集位置那一条被好友删除时兜底)
+ * 3. 到达相册底部
+ *
+ * 相册中每一行的左侧是日期(同一天的第二条起没有日期),右侧是可点击的朋友圈;
+ * 第一个日期之前的内容是相册封面和好友资料,不采集
+ * 同一天里文字和图片数量都相同的朋友圈(例如只发图片)按从这一天最旧的一条往上数的序号区分:
+ * 好友当天再发一条相同的朋友圈时,已保存的几条序号不变。所以一天的朋友圈读完(遇到下一个日期
+ * 或到达底部)后才计算指纹并保存,相邻两屏的重叠部分按列表中的行号去重,而不是按内容
+ * 相册中今年的日期没有年份,按从上往下日期越来越早推算年份
+ * 只在主线程使用
+ */
+public class MomentsCollector {
+
+    private static final String TAG = "MomentsCollector";
+    private static final int KNOWN_RUN_LIMIT = 3;      // 连续几条已保存即视为到达上次的位置
+    private static final long SCROLL_DELAY_MS = 1500;  // 等待滚动完成和图片加载
+    private static final int MAX_IDLE_ROUNDS = 3;
+    private static final int MAX_DATE_LENGTH = 12;     // 日期文字的最大长度,更长的是封面上的签名等
+    private static final Pattern YEAR_PATTERN = Pattern.compile("(\\d{4})年");
+    private static final Pattern FULL_DATE_PATTERN = Pattern.compile("(\\d{1,2})月(\\d{1,2})日");
+    private static final Pattern MONTH_PATTERN = Pattern.compile("(\\d{1,2})月");
+    private static final Pattern DAY_PATTERN = Pattern.compile("(?:^|\\s)(\\d{1,2})(?=\\s|$)");
+
+    /**
+     * 采集结果回调 (主线程)
+     */
+    public interface Callback {
+        /**
+         * @param newPosts 本次新保存的朋友圈数量
+         * @param complete 是否完整采集(到达上次的位置或相册底部)
+         */
+        void onFinished(String friendName, int newPosts, boolean complete);
+    }
+
+    /**
+     * 滚动相册列表
+     */
+    public interface Scroller {
+        boolean scroll();
+    }
+
+    private final MomentStore store;
+    private final MomentMediaDownloader downloader;
+    private final SendAckDetector.RootProvider rootProvider;
+    private final Scroller scroller;
+
+    /**
+     * 屏幕上的一条朋友圈,key在相邻两屏中保持不变
+     */
+    private static class ScreenPost {
+        final Object key;
+        final MomentPost post;
+
+        ScreenPost(Object key, MomentPost post) {
+            this.key = key;
+            this.post = post;
+        }
+    }
+
+    private ScrollHarvester<ScreenPost> harvester;
+    private String friendName;
+    private MomentStore.Checkpoint checkpoint;
+    private String currentDate;      // 最近一个日期,同一天后面的朋友圈沿用
+    private int[] anchorDate;        // 上一屏第一个日期(年,月,日),推算本屏日期的年份
+    private final List<MomentPost> dayPosts = new ArrayList<>(); // 当前这一天已读到、还没保存的朋友圈(从新到旧)
+    private MomentPost latest;       // 本次看到的最新一条
+    private int newPosts;
+    private int knownRun;            // 连续已保存的条数
+    private boolean reachedKnown;
+    private boolean cancelled;
+
+    public MomentsCollector(MomentStore store, MomentMediaDownloader downloader,
+                            SendAckDetector.RootProvider rootProvider, Scroller scroller) {
+        this.store = store;
+        this.downloader = downloader;
+        this.rootProvider = rootProvider;
+        this.scroller = scroller;
+    }
+
+    /**
+     * 采集当前相册界面 (需要已经进入好友的朋友圈相册)
+     */
+    public void collect(String friendName, Callback callback) {
+        this.friendName = friendName;
+        currentDate = null;
+        anchorDate = null;
+        dayPosts.clear();
+        latest = null;
+        newPosts = 0;
+        knownRun = 0;
+        reachedKnown = false;
+        cancelled = false;
+
+        store.loadCheckpoint(friendName, checkpoint -> {
+            if (cancelled) {
+                callback.onFinished(friendName, 0, false);
+                return;
+            }
+            this.checkpoint = checkpoint;
+            Log.d(TAG, String.format("开始采集[%s]的朋友圈: 已保存%d条, %s", friendName,
+                checkpoint.knownFingerprints.size(),
+                checkpoint.watermark != null ? "上次采集到" + checkpoint.watermark.dateLabel : "首次完整采集"));
+
+            harvester = new ScrollHarvester<>(new ScrollHarvester.Source<ScreenPost>() {
+                @Override
+                public List<ScreenPost> readScreen() {
+                    return readCurrentScreen();
+                }
+
+                @Override
+                public Object keyOf(ScreenPost item) {
+                    return item.key;
+                }
+
+                @Override
+                public boolean scroll() {
+                    return scroller.scroll();
+                }
+            }, new ScrollHarvester.Sink<ScreenPost>() {
+                @Override
+                public boolean onItem(ScreenPost item) {
+                    return onPost(item.post);
+                }
+
+                @Override
+                public void onFinished(int total, ScrollHarvester.StopReason reason) {
+                    harvester = null;
+                    if (reason == ScrollHarvester.StopReason.END_OF_LIST) {
+                        finishDay(); // 相册中最早的一天
+                    }
+                    boolean complete = reachedKnown || reason == ScrollHarvester.StopReason.END_OF_LIST;
+                    if (complete && latest != null) {
+                        store.advanceWatermark(latest);
+                    }
+                    Log.d(TAG, String.format("[%s]采集结束(%s): 浏览%d条, 新增%d条", friendName,
+                        reachedKnown ? "到达上次的位置" : reason, total, newPosts));
+                    callback.onFinished(friendName, newPosts, complete);
+                }
+            }).setScrollDelay(SCROLL_DELAY_MS).setMaxIdleRounds(MAX_IDLE_ROUNDS);
+            harvester.start();
+        });
+    }
+
+    /**
+     * 取消采集,已保存的朋友圈保留,采集位置不变
+     */
+    public void cancel() {
+        cancelled = true;
+        if (harvester != null) {
+            harvester.cancel();
+        }
+    }
+
+    /**
+     * 处理一条新解析出的朋友圈 (按从上到下的顺序,每条只处理一次)
+     * 先攒下同一天的朋友圈,读到下一天的第一条时再处理前一天
+     * @return 是否继续滚动
+     */
+    private boolean onPost(MomentPost post) {
+        if (!dayPosts.isEmpty() && !dayPosts.get(0).dateLabel.equals(post.dateLabel) && !finishDay()) {
+            return false;
+        }
+        dayPosts.add(post);
+        return true;
+    }
+
+    /**
+     * 当前这一天的朋友圈已读完: 从最旧的一条开始编号计算指纹,再按从新到旧的顺序保存
+     * @return 是否继续滚动
+     */
+    private boolean finishDay() {
+        List<MomentPost> day = new ArrayList<>(dayPosts);
+        dayPosts.clear();
+        Map<String, Integer> ordinals = new HashMap<>(); // 文字+图片数量 -> 已编号的条数
+        for (int i = day.size() - 1; i >= 0; i--) {
+            MomentPost post = day.get(i);
+            String sameKey = post.imageCount + "\n" + post.content;
+            Integer seen = ordinals.get(sameKey);
+            int ordinal = seen != null ? seen : 0;
+            ordinals.put(sameKey, ordinal + 1);
+            post.fingerprint = MomentStore.fingerprint(post.dateLabel, post.content, post.imageCount, ordinal);
+        }
+
+        for (MomentPost post : day) {
+            if (!savePost(post)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 保存一条已计算指纹的朋友圈
+     * @return 是否继续滚动
+     */
+    private boolean savePost(MomentPost post) {
+        if (latest == null) {
+            latest = post;
+        }
+
+        MomentWatermark watermark = checkpoint.watermark;
+        if (watermark != null && watermark.fingerprint == post.fingerprint
+                && watermark.dateLabel.equals(post.dateLabel)) {
+            reachedKnown = true;
+            return false;
+        }
+
+        if (checkpoint.knownFingerprints.contains(post.fingerprint)) {
+            knownRun++;
+            if (knownRun >= KNOWN_RUN_LIMIT) {
+                reachedKnown = true;
+                return false;
+            }
+            return true;
+        }
+
+        knownRun = 0;
+        checkpoint.knownFingerprints.add(post.fingerprint);
+        store.append(post);
+        downloader.enqueue(post);
+        newPosts++;
+        return true;
+    }
+
+    /**
+     * 解析当前屏幕上的朋友圈 (从上到下)
+     */
+    private List<ScreenPost> readCurrentScreen() {
+        List<ScreenPost> posts = new ArrayList<>();
+        AccessibilityNodeInfo rootNode = rootProvider.getRoot();
+        AccessibilityNodeInfo list = rootNode != null ? WeChatAccessibilityService.findLargestScrollable(rootNode) : null;
+        if (list == null) {
+            Log.w(TAG, "未找到朋友圈相册列表");
+            return posts;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Integer> screenOrdinals = new HashMap<>();
+        // 本屏从上一屏的第一个日期开始推算年份: 与上一屏重叠的部分不会早于它
+        int[] previous = anchorDate != null ? anchorDate : today(now);
+        int[] firstDate = null;
+        for (int i = 0; i < list.getChildCount(); i++) {
+            AccessibilityNodeInfo row = list.getChild(i);
+            if (row == null) {
+                continue;
+            }
+
+            List<String> dateParts = new ArrayList<>();
+            List<AccessibilityNodeInfo> postNodes = new ArrayList<>();
+            splitRow(row, dateParts, postNodes);
+            int[] date = dateParts.isEmpty() ? null : parseDate(dateParts, now, previous);
+            if (date != null) {
+                previous = date;
+                if (date[1] > 0) {
+                    currentDate = date[0] + "年" + date[1] + "月" + date[2] + "日";
+                    if (firstDate == null) {
+                        firstDate = date;
+                    }
+                }
+            }
+            if (currentDate == null) {
+                continue; // 相册封面和好友资料
+            }
+
+            AccessibilityNodeInfo.CollectionItemInfo itemInfo = row.getCollectionItemInfo();
+            for (int j = 0; j < postNodes.size(); j++) {
+                AccessibilityNodeInfo node = postNodes.get(j);
+                StringBuilder content = new StringBuilder();
+                int[] imageCount = new int[1];
+                collectPost(node, content, imageCount);
+                if (content.length() == 0 && imageCount[0] == 0) {
+                    continue;
+                }
+
+                MomentPost post = new MomentPost();
+                post.friendName = friendName;
+                post.content = content.toString();
+                post.imageCount = imageCount[0];
+                post.dateLabel = currentDate;
+                post.capturedAt = now;  // 指纹在onPost中按出现顺序计算
+
+                Object key;
+                if (itemInfo != null) {
+                    key = itemInfo.getRowIndex() + ":" + j; // 列表中的行号,滚动后不变
+                } else {
+                    // 列表没有提供行号时按内容和本屏中的序号,相同的朋友圈跨两屏时可能少采一条
+                    String sameKey = currentDate + "\n" + post.imageCount + "\n" + post.content;
+                    Integer seen = screenOrdinals.get(sameKey);
+                    int ordinal = seen != null ? seen : 0;
+                    screenOrdinals.put(sameKey, ordinal + 1);
+                    key = sameKey + "\n" + ordinal;
+                }
+                posts.add(new ScreenPost(key, post));
+            }
+        }
+        if (firstDate != null) {
+            anchorDate = firstDate;
+        }
+        return posts;
+    }
+
+    /**
+     * 把一行拆成日期文字和朋友圈节点: 可点击的子树是一条朋友圈,其余文字是日期
+     */
+    private static void splitRow(AccessibilityNodeInfo node, List<String> dateParts,
+                                 List<AccessibilityNodeInfo> postNodes) {
+        if (node.isClickable()) {
+            postNodes.add(node);
+            return;
+        }
+        CharSequence text = node.getText();
+        if (text != null && text.toString().trim().length() > 0) {
+            dateParts.add(text.toString().trim());
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child != null) {
+                splitRow(child, dateParts, postNodes);
+            }
+        }
+    }
+
+    /**
+     * 收集一条朋友圈的文字和图片数量
+     */
+    private static void collectPost(AccessibilityNodeInfo node, StringBuilder content, int[] imageCount) {
+        CharSequence text = node.getText();
+        if (text != null && text.length() > 0) {
+            if (content.length() > 0) {
+                content.append('\n');
+            }
+            content.append(text);
+        }
+        CharSequence className = node.getClassName();
+        if (className != null && className.toString().endsWith("ImageView")) {
+            imageCount[0]++;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child != null) {
+                collectPost(child, content, imageCount);
+            }
+        }
+    }
+
+    private static int[] today(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        return new int[]{calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                         calendar.get(Calendar.DAY_OF_MONTH)};
+    }
+
+    /**
+     * 解析日期文字 ("今天"、"昨天"、"12 3月"、"2023年"等), 换算为不随时间变化的(年, 月, 日)
+     * 没有年份时按上一个日期推算: 相册从上往下越来越早,月日比上一个日期晚说明跨入了前一年
+     * 只有年份的一行(往年的分隔)返回(年, 0, 0),作为后面日期的年份
+     * @param previous 上一个日期(年,月,日),月为0表示只知道年份
+     * @return 不是日期(封面上的昵称、签名等)时返回null
+     */
+    static int[] parseDate(List<String> parts, long now, int[] previous) {
+        String joined = TextUtils.join(" ", parts);
+        if (joined.length() > MAX_DATE_LENGTH) {
+            return null;
+        }
+        if (joined.contains("今天") || joined.contains("昨天")) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            if (joined.contains("昨天")) {
+                calendar.add(Calendar.DAY_OF_MONTH, -1);
+            }
+            return new int[]{calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                             calendar.get(Calendar.DAY_OF_MONTH)};
+        }
+
+        int month;
+        int day;
+        Matcher full = FULL_DATE_PATTERN.matcher(joined);
+        Matcher monthMatcher = MONTH_PATTERN.matcher(joined);
+        Matcher dayMatcher = DAY_PATTERN.matcher(joined);
+        if (full.find()) {
+            month = Integer.parseInt(full.group(1));
+            day = Integer.parseInt(full.group(2));
+        } else if (monthMatcher.find() && dayMatcher.find()) {
+            month = Integer.parseInt(monthMatcher.group(1));
+            day = Integer.parseInt(dayMatcher.group(1));
+        } else {
+            month = 0;
+            day = 0;
+        }
+
+        Matcher year = YEAR_PATTERN.matcher(joined);
+        if (year.find()) {
+            return new int[]{Integer.parseInt(year.group(1)), month, day};
+        }
+        if (month == 0) {
+            return null;
+        }
+        boolean later = previous[1] > 0 && (month > previous[1] || (month == previous[1] && day > previous[2]));
+        return new int[]{later ? previous[0] - 1 : previous[0], month, day};
+    }
+}
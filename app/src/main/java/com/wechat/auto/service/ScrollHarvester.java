@@ -0,0 +1,183 @@
+package com.wechat.auto.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 滚动采集
+ * 读取当前屏幕的条目 -> 交给调用方 -> 滚动 -> 等待加载,循环直到:
+ * 1. 连续几屏没有新条目(已到底部)
+ * 2. 滚动失败
+ * 3. 调用方要求停止(例如已经采集到上次的位置)
+ * 4. 达到最大滚动次数
+ *
+ * 相邻两屏有重叠,按key去重,每个条目只交给调用方一次,顺序与屏幕上从上到下的顺序一致
+ * 每一轮之间用Handler延时,不阻塞主线程; 只在主线程使用
+ */
+public class ScrollHarvester<T> {
+
+    private static final String TAG = "ScrollHarvester";
+
+    /**
+     * 结束原因
+     */
+    public enum StopReason {
+        END_OF_LIST,    // 连续几屏没有新条目
+        SCROLL_FAILED,  // 滚动失败
+        STOPPED,        // 调用方要求停止
+        MAX_SCROLLS,    // 达到最大滚动次数
+        CANCELLED       // 被取消
+    }
+
+    /**
+     * 列表的读取和滚动
+     */
+    public interface Source<T> {
+        /**
+         * 读取当前屏幕上的条目 (从上到下)
+         */
+        List<T> readScreen();
+
+        /**
+         * 条目的唯一key,用于去重
+         */
+        Object keyOf(T item);
+
+        /**
+         * 向下滚动一屏
+         */
+        boolean scroll();
+    }
+
+    /**
+     * 采集结果回调 (主线程)
+     */
+    public interface Sink<T> {
+        /**
+         * 采集到一个新条目
+         * @return false表示不再继续采集
+         */
+        boolean onItem(T item);
+
+        void onFinished(int total, StopReason reason);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Source<T> source;
+    private final Sink<T> sink;
+    private final Set<Object> seenKeys = new HashSet<>();
+    private int maxScrolls = 500;    // 主要依靠连续无新条目判断到底
+    private int maxIdleRounds = 5;   // 连续几屏没有新条目视为到底
+    private long scrollDelayMs = 1500; // 等待滚动完成和列表加载
+
+    private int scrollCount;
+    private int idleRounds;
+    private boolean running;
+
+    private final Runnable roundRunnable = this::round;
+
+    public ScrollHarvester(Source<T> source, Sink<T> sink) {
+        this.source = source;
+        this.sink = sink;
+    }
+
+    public ScrollHarvester<T> setMaxScrolls(int maxScrolls) {
+        this.maxScrolls = maxScrolls;
+        return this;
+    }
+
+    public ScrollHarvester<T> setMaxIdleRounds(int maxIdleRounds) {
+        this.maxIdleRounds = maxIdleRounds;
+        return this;
+    }
+
+    public ScrollHarvester<T> setScrollDelay(long scrollDelayMs) {
+        this.scrollDelayMs = scrollDelayMs;
+        return this;
+    }
+
+    /**
+     * 从当前屏幕开始采集
+     */
+    public void start() {
+        seenKeys.clear();
+        scrollCount = 0;
+        idleRounds = 0;
+        running = true;
+        round();
+    }
+
+    /**
+     * 取消采集,回调onFinished(CANCELLED)
+     */
+    public void cancel() {
+        if (running) {
+            finish(StopReason.CANCELLED);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void round() {
+        if (!running) {
+            return;
+        }
+
+        int newItems = 0;
+        try {
+            List<T> items = source.readScreen();
+            for (T item : items) {
+                if (!seenKeys.add(source.keyOf(item))) {
+                    continue;
+                }
+                newItems++;
+                if (!sink.onItem(item)) {
+                    Log.d(TAG, "调用方要求停止, 共采集" + seenKeys.size() + "项");
+                    finish(StopReason.STOPPED);
+                    return;
+                }
+            }
+            Log.d(TAG, "第" + (scrollCount + 1) + "次读取: 本屏" + items.size() + "项, 新增"
+                + newItems + "项, 总计" + seenKeys.size() + "项");
+        } catch (Exception e) {
+            Log.e(TAG, "读取当前屏幕失败: " + e.getMessage(), e);
+        }
+
+        if (newItems == 0) {
+            idleRounds++;
+            if (idleRounds >= maxIdleRounds) {
+                Log.d(TAG, "已到达列表底部(连续" + idleRounds + "次无新条目)");
+                finish(StopReason.END_OF_LIST);
+                return;
+            }
+        } else {
+            idleRounds = 0;
+        }
+
+        if (scrollCount >= maxScrolls) {
+            Log.w(TAG, "达到最大滚动次数: " + maxScrolls);
+            finish(StopReason.MAX_SCROLLS);
+            return;
+        }
+
+        if (!source.scroll()) {
+            Log.w(TAG, "滚动失败,可能已到底部");
+            finish(StopReason.SCROLL_FAILED);
+            return;
+        }
+        scrollCount++;
+        handler.postDelayed(roundRunnable, scrollDelayMs);
+    }
+
+    private void finish(StopReason reason) {
+        running = false;
+        handler.removeCallbacks(roundRunnable);
+        sink.onFinished(seenKeys.size(), reason);
+    }
+}
@@ -0,0 +1,171 @@
+package com.wechat.auto.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.accessibility.AccessibilityNodeInfo;
+import java.util.List;
+
+/**
+ * 发送确认检测
+ * 点击发送后不再固定等待,而是检测两个信号:
+ * 1. 聊天输入框的文字被清空
+ * 2. 聊天记录中出现了一条新的、内容相同的消息
+ * 两个信号都出现即确认发送成功,立即继续下一步;超时仍未确认则交给调用方处理
+ *
+ * 由窗口内容变化事件驱动,另外定时检查一次,防止事件被合并后漏掉
+ * 只在主线程使用
+ */
+public class SendAckDetector {
+
+    public static final long DEFAULT_TIMEOUT_MS = 3000; // 默认超时时间
+    private static final long POLL_INTERVAL_MS = 200;  // 兜底检查间隔
+
+    /**
+     * 检测结果回调 (主线程)
+     */
+    public interface Callback {
+        /**
+         * 已确认发送成功
+         * @param latencyMillis 从点击发送到确认的耗时
+         */
+        void onConfirmed(long latencyMillis);
+
+        /**
+         * 超时未确认
+         * @param inputCleared 输入框是否已清空(已清空但没找到新消息,多半已发送;未清空说明点击没有生效)
+         */
+        void onTimeout(boolean inputCleared);
+    }
+
+    /**
+     * 当前窗口的根节点
+     */
+    public interface RootProvider {
+        AccessibilityNodeInfo getRoot();
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final RootProvider rootProvider;
+
+    private String text;
+    private int baselineCount;
+    private long armedAtMs;
+    private long timeoutMs = DEFAULT_TIMEOUT_MS;
+    private Callback callback;
+
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (callback == null) {
+                return;
+            }
+            if (SystemClock.elapsedRealtime() - armedAtMs >= timeoutMs) {
+                Callback cb = callback;
+                boolean cleared = isInputCleared(rootProvider.getRoot(), text);
+                disarm();
+                cb.onTimeout(cleared);
+                return;
+            }
+            check();
+            if (callback != null) {
+                handler.postDelayed(this, POLL_INTERVAL_MS);
+            }
+        }
+    };
+
+    public SendAckDetector(RootProvider rootProvider) {
+        this.rootProvider = rootProvider;
+    }
+
+    /**
+     * 点击发送前调用: 记录当前聊天中内容相同的消息数量
+     */
+    public static int countMessages(AccessibilityNodeInfo root, String text) {
+        if (root == null || text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        List<AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByText(text);
+        if (nodes != null) {
+            for (AccessibilityNodeInfo node : nodes) {
+                // 只统计消息气泡,不统计输入框本身
+                if (!node.isEditable() && node.getText() != null && text.equals(node.getText().toString())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 输入框中是否已经没有要发送的文字
+     */
+    public static boolean isInputCleared(AccessibilityNodeInfo root, String text) {
+        if (root == null) {
+            return false;
+        }
+        return !hasEditableWithText(root, text);
+    }
+
+    private static boolean hasEditableWithText(AccessibilityNodeInfo node, String text) {
+        if (node.isEditable()) {
+            CharSequence current = node.getText();
+            return current != null && text.equals(current.toString());
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child != null && hasEditableWithText(child, text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 点击发送后调用: 开始等待确认
+     * @param timeoutMs 超时时间,由TimingModel按本机实测的发送耗时推算
+     */
+    public void arm(String text, int baselineCount, long timeoutMs, Callback callback) {
+        disarm();
+        this.text = text;
+        this.baselineCount = baselineCount;
+        this.timeoutMs = timeoutMs;
+        this.callback = callback;
+        this.armedAtMs = SystemClock.elapsedRealtime();
+        handler.postDelayed(pollRunnable, POLL_INTERVAL_MS);
+    }
+
+    public boolean isArmed() {
+        return callback != null;
+    }
+
+    /**
+     * 取消等待 (任务停止时调用)
+     */
+    public void disarm() {
+        handler.removeCallbacks(pollRunnable);
+        callback = null;
+    }
+
+    /**
+     * 窗口内容变化时调用: 两个信号都出现则确认
+     */
+    public void check() {
+        if (callback == null) {
+            return;
+        }
+
+        AccessibilityNodeInfo root = rootProvider.getRoot();
+        if (root == null) {
+            return;
+        }
+        if (isInputCleared(root, text) && countMessages(root, text) > baselineCount) {
+            Callback cb = callback;
+            long latency = SystemClock.elapsedRealtime() - armedAtMs;
+            disarm();
+            cb.onConfirmed(latency);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.wechat.auto.service;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import com.wechat.auto.MainActivity;
+import com.wechat.auto.R;
+
+/**
+ * 任务执行前台服务
+ * 功能:
+ * 1. 任务队列不为空时保持前台运行,避免长时间群发时进程被系统限制或杀掉
+ * 2. 通知栏显示当前任务和排队数量
+ *
+ * 由WeChatAccessibilityService在开始执行任务时启动,队列清空后停止
+ */
+public class TaskExecutionService extends Service {
+
+    private static final String TAG = "TaskExecutionService";
+    private static final String CHANNEL_ID = "task_execution";
+    private static final int NOTIFICATION_ID = 1001;
+    private static final String EXTRA_STATUS = "status";
+
+    /**
+     * 启动前台服务或更新通知内容
+     */
+    public static void start(Context context, String status) {
+        Intent intent = new Intent(context, TaskExecutionService.class);
+        intent.putExtra(EXTRA_STATUS, status);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+        } catch (Exception e) {
+            // 后台启动前台服务受限时,任务照常执行,只是没有前台保护
+            Log.e(TAG, "启动前台服务失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 停止前台服务
+     */
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, TaskExecutionService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        createNotificationChannel();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String status = intent != null ? intent.getStringExtra(EXTRA_STATUS) : null;
+        Notification notification = buildNotification(status != null ? status : "正在执行任务");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+
+        // 进程被杀后不自动重启,由任务日志负责恢复
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Log.d(TAG, "前台服务已停止");
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification buildNotification(String status) {
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle("微信自动化任务")
+            .setContentText(status)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .setContentIntent(pendingIntent)
+            .build();
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "任务执行",
+                NotificationManager.IMPORTANCE_LOW);
+            channel.setDescription("显示正在执行的发送任务");
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+    }
+}
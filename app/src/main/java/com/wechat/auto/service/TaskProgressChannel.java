@@ -0,0 +1,179 @@
+package com.wechat.auto.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.wechat.auto.model.TaskProgress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 任务进度通道
+ * 功能:
+ * 1. 服务只标记"进度有变化",通道按固定的最高频率合并发布快照,
+ *    大批量任务不会每条消息都通知一次
+ * 2. 任务执行中按固定间隔发布心跳快照,已用时间和剩余时间可以持续刷新
+ * 3. 完成、失败、取消等结束事件立即发布,不会被合并掉
+ * 4. 后订阅的界面立即收到当前快照和最近一次结束事件
+ *
+ * 只在主线程使用
+ */
+public class TaskProgressChannel {
+
+    private static final long MIN_INTERVAL_MS = 500;   // 两次快照之间的最小间隔
+    private static final long HEARTBEAT_MS = 1000;     // 执行中的心跳间隔
+
+    /**
+     * 任务结束事件
+     */
+    public static class TerminalEvent {
+        public enum Status {
+            COMPLETED,  // 完成
+            FAILED,     // 失败 (如无障碍服务被关闭)
+            CANCELLED   // 用户停止
+        }
+
+        public final Status status;
+        public final String jobLabel;
+        public final TaskProgress finalProgress;  // 结束时的进度
+        public final String reason;               // 失败或取消的原因,可为null
+
+        public TerminalEvent(Status status, String jobLabel, TaskProgress finalProgress, String reason) {
+            this.status = status;
+            this.jobLabel = jobLabel;
+            this.finalProgress = finalProgress;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * 订阅者 (回调在主线程)
+     */
+    public interface Listener {
+        void onProgress(TaskProgress progress);
+
+        void onTerminal(TerminalEvent event);
+    }
+
+    /**
+     * 快照来源
+     */
+    public interface Source {
+        TaskProgress snapshot();
+    }
+
+    private static final TaskProgressChannel instance = new TaskProgressChannel();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private Source source;
+    private TaskProgress latest = TaskProgress.idle(0);
+    private TerminalEvent lastTerminal;
+    private long lastPublishMs;
+    private boolean publishScheduled = false;
+    private long scheduledAtMs;                       // 已安排的下一次发布时间
+
+    private final Runnable publishRunnable = () -> {
+        publishScheduled = false;
+        publishNow();
+    };
+
+    private TaskProgressChannel() {
+    }
+
+    public static TaskProgressChannel getInstance() {
+        return instance;
+    }
+
+    /**
+     * 设置快照来源 (服务创建时设置,销毁时设为null)
+     */
+    public void setSource(Source source) {
+        this.source = source;
+        if (source == null) {
+            handler.removeCallbacks(publishRunnable);
+            publishScheduled = false;
+            latest = TaskProgress.idle(0);
+        }
+    }
+
+    /**
+     * 订阅: 立即收到当前快照,以及最近一次结束事件(如果有)
+     */
+    public void subscribe(Listener listener) {
+        if (listeners.contains(listener)) {
+            return;
+        }
+        listeners.add(listener);
+
+        if (source != null) {
+            latest = source.snapshot();
+        }
+        listener.onProgress(latest);
+        if (lastTerminal != null && !latest.running) {
+            listener.onTerminal(lastTerminal);
+        }
+        if (latest.running) {
+            schedulePublish(HEARTBEAT_MS);
+        }
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 最近一次快照 (不触发发布)
+     */
+    public TaskProgress getLatest() {
+        return latest;
+    }
+
+    /**
+     * 标记进度有变化: 距上次发布不足最小间隔时合并到下一次发布
+     */
+    public void markDirty() {
+        long sinceLast = SystemClock.elapsedRealtime() - lastPublishMs;
+        schedulePublish(Math.max(0, MIN_INTERVAL_MS - sinceLast));
+    }
+
+    /**
+     * 发布结束事件: 立即发布,并保留给后订阅的界面
+     */
+    public void publishTerminal(TerminalEvent event) {
+        lastTerminal = event;
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onTerminal(event);
+        }
+        // 结束后紧跟一次快照,让界面回到空闲或下一个任务的状态
+        markDirty();
+    }
+
+    private void schedulePublish(long delayMillis) {
+        long target = SystemClock.elapsedRealtime() + delayMillis;
+        if (publishScheduled && scheduledAtMs <= target) {
+            return; // 已经安排了更早的发布,合并
+        }
+        handler.removeCallbacks(publishRunnable);
+        publishScheduled = true;
+        scheduledAtMs = target;
+        handler.postDelayed(publishRunnable, delayMillis);
+    }
+
+    private void publishNow() {
+        if (source == null) {
+            return;
+        }
+
+        latest = source.snapshot();
+        lastPublishMs = SystemClock.elapsedRealtime();
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onProgress(latest);
+        }
+
+        // 有订阅者且任务执行中时继续心跳
+        if (latest.running && !listeners.isEmpty()) {
+            schedulePublish(HEARTBEAT_MS);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.wechat.auto.service;
+
+import com.wechat.auto.model.SendTask;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 任务队列
+ * 功能:
+ * 1. 按优先级分道排队,同一优先级先进先出
+ * 2. 被插队暂停的任务放回所在队列的队首,优先继续
+ * 3. 发送、同步通讯录和采集朋友圈任务共用一个队列,同一时间只执行一个,避免争抢微信界面
+ *
+ * 只在主线程使用
+ */
+public class TaskQueue {
+
+    /**
+     * 任务类型
+     */
+    public enum JobType {
+        SEND,    // 发送消息
+        SYNC,    // 同步通讯录
+        MOMENTS  // 采集朋友圈
+    }
+
+    /**
+     * 队列中的任务
+     */
+    public static class Job {
+        public final JobType type;
+        public final SendTask.Priority priority;
+        public final SendTask task;           // 同步和采集任务为null
+        public List<String> friendNames = new ArrayList<>(); // 采集任务的好友
+        public long taskId = -1;              // 任务日志ID (发送任务排队前写入日志),-1表示未记录
+        public Set<Long> completedOps = new HashSet<>(); // 暂停时已完成的操作
+
+        private Job(JobType type, SendTask.Priority priority, SendTask task) {
+            this.type = type;
+            this.priority = priority;
+            this.task = task;
+        }
+
+        public static Job send(SendTask task) {
+            return new Job(JobType.SEND, task.getPriority(), task);
+        }
+
+        public static Job sync() {
+            // 同步通讯录比较快,排在普通任务的队列里
+            return new Job(JobType.SYNC, SendTask.Priority.NORMAL, null);
+        }
+
+        public static Job moments(List<String> friendNames) {
+            // 采集朋友圈不着急,排在批量队列,每位好友采集完后可被插队
+            Job job = new Job(JobType.MOMENTS, SendTask.Priority.BULK, null);
+            job.friendNames = new ArrayList<>(friendNames);
+            return job;
+        }
+
+        @Override
+        public String toString() {
+            if (type == JobType.SYNC) {
+                return "同步通讯录";
+            }
+            if (type == JobType.MOMENTS) {
+                return "采集朋友圈: " + friendNames.size() + "位好友";
+            }
+            return String.format("发送任务[%s]: %d位好友, %d条消息",
+                priority, task.getFriendNames().size(), task.getMessages().size());
+        }
+    }
+
+    private final ArrayDeque<Job>[] lanes;
+
+    @SuppressWarnings("unchecked")
+    public TaskQueue() {
+        lanes = new ArrayDeque[SendTask.Priority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 加入所在优先级队列的队尾
+     */
+    public void enqueue(Job job) {
+        lanes[job.priority.ordinal()].addLast(job);
+    }
+
+    /**
+     * 被插队的任务放回所在优先级队列的队首
+     */
+    public void requeueFront(Job job) {
+        lanes[job.priority.ordinal()].addFirst(job);
+    }
+
+    /**
+     * 取出优先级最高的任务,队列为空时返回null
+     */
+    public Job poll() {
+        for (ArrayDeque<Job> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return lane.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 队列中是否有比指定优先级更高的任务
+     */
+    public boolean hasHigherThan(SendTask.Priority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (!lanes[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        int size = 0;
+        for (ArrayDeque<Job> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 排队中的所有任务 (按执行顺序,返回副本)
+     */
+    public List<Job> jobs() {
+        List<Job> jobs = new ArrayList<>();
+        for (ArrayDeque<Job> lane : lanes) {
+            jobs.addAll(lane);
+        }
+        return jobs;
+    }
+
+    /**
+     * 清空队列,返回被清除的任务
+     */
+    public List<Job> clear() {
+        List<Job> removed = new ArrayList<>();
+        for (ArrayDeque<Job> lane : lanes) {
+            removed.addAll(lane);
+            lane.clear();
+        }
+        return removed;
+    }
+}
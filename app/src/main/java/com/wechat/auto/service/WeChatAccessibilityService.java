@@ -10,15 +10,37 @@ import android.graphics.Path;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.WindowManager;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
+import com.wechat.auto.data.MomentMediaDownloader;
+import com.wechat.auto.data.MomentStore;
+import com.wechat.auto.data.SendLedger;
+import com.wechat.auto.data.TaskJournal;
+import com.wechat.auto.data.TaskRecord;
 import com.wechat.auto.model.SendTask;
+import com.wechat.auto.model.ShareBatch;
+import com.wechat.auto.model.TaskProgress;
+import com.wechat.auto.utils.AiMessageGenerator;
+import com.wechat.auto.utils.EtaEstimator;
+import com.wechat.auto.utils.MediaCache;
+import com.wechat.auto.utils.MediaPreparer;
+import com.wechat.auto.utils.MessageTemplate;
+import com.wechat.auto.utils.SharePlanner;
+import com.wechat.auto.utils.StepTracer;
+import com.wechat.auto.utils.TimingModel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -33,6 +55,29 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "WeChatAutoService";
     private static final String WECHAT_PACKAGE = "com.tencent.mm";
+    private static final String PREFS_NAME = "WeChatAutoPrefs";
+    // 微信"发送给朋友"的分享入口
+    private static final String WECHAT_SHARE_TO_FRIEND_UI = "ShareImgUI";
+    // 直接启动分享入口后等待分享界面出现的超时时间,超时则改用系统选择器 (样本足够后由TimingModel推算)
+    private static final long DIRECT_SHARE_TIMEOUT_MS = 5000;
+    // 一个分享包从进入分享模式到确认发送的最长时间,超时则跳过该分享包 (多位收件人时每位再加一段)
+    private static final long SHARE_WATCHDOG_MS = 30000;
+    private static final long SHARE_WATCHDOG_PER_FRIEND_MS = 8000;
+    // 转发模式: 中转聊天中图片/视频气泡的最小边长(dp),更小的图片是头像、表情等
+    private static final int MIN_MEDIA_BUBBLE_DP = 64;
+    private static final java.util.regex.Pattern VIDEO_DURATION_PATTERN =
+        java.util.regex.Pattern.compile("\\d{1,2}:\\d{2}");
+    // 吞吐量统计的时间窗口
+    private static final long THROUGHPUT_WINDOW_MS = 5 * 60 * 1000;
+    // 发现未完成的任务时发送的广播
+    public static final String ACTION_TASK_RESUMABLE = "com.wechat.auto.TASK_RESUMABLE";
+    // 任务结束(完成/失败/取消)时发送的广播,只在结束时发送一次
+    public static final String ACTION_TASK_FINISHED = "com.wechat.auto.TASK_FINISHED";
+    public static final String EXTRA_STATUS = "status";
+    public static final String EXTRA_COMPLETED = "completed";
+    public static final String EXTRA_TOTAL = "total";
+    // 朋友圈采集任务结束时发送的广播 (EXTRA_COMPLETED: 新增条数, EXTRA_TOTAL: 好友数)
+    public static final String ACTION_MOMENTS_COLLECTED = "com.wechat.auto.MOMENTS_COLLECTED";
 
     private static WeChatAccessibilityService instance;
     private boolean isAutoTaskRunning = false;
@@ -49,7 +94,55 @@ public class WeChatAccessibilityService extends AccessibilityService {
     // Intent分享相关
     private boolean isInShareMode = false;  // 是否在分享模式
     private String currentShareFriendName;  // 当前要分享给的好友名称
-    private String currentShareFilePath;    // 当前要分享的文件路径
+    private ShareBatch currentShareBatch;   // 当前要分享的文件包
+    private boolean isShareSearchStarted = false; // 本次分享是否已在搜索框中输入好友(之后不再由界面事件触发搜索)
+    private boolean isShareSearchScheduled = false; // 已安排一次搜索,等待执行
+    private final Handler shareHandler = new Handler(Looper.getMainLooper());
+    private Runnable shareWatchdog;          // 分享包超时未确认发送时跳过
+    private boolean isShareMultiSelectEnabled = false; // 分享界面是否已进入"多选"
+    private int shareRecipientCursor = 0;   // 当前分享包中正在选择的好友索引
+    private final List<String> shareSelectedFriends = new ArrayList<>(); // 当前分享包已选中的好友
+    // 微信分享入口缓存 (key: action|mimeType),避免每次分享都经过系统选择器
+    private final java.util.Map<String, ComponentName> shareTargetCache = new java.util.HashMap<>();
+
+    // 批量分享相关 (SendTask.ShareMode.MULTI_RECIPIENT / FORWARD_FROM_STAGING)
+    private List<ShareBatch> recipientBatches; // 按媒体分组的多收件人分享包
+    private int recipientBatchIndex = 0;       // 当前分享包索引
+    private List<Integer> stagedMessageIndices = new ArrayList<>(); // 已分享到中转聊天的消息(按聊天中的顺序)
+    private boolean isInStagingChat = false;   // 是否已经在中转聊天界面
+    private ShareBatch pendingForwardBatch;    // 等待进入中转聊天后转发的分享包
+
+    // 任务日志相关 (崩溃或服务重启后恢复任务)
+    private TaskJournal taskJournal;
+    private SendLedger sendLedger;             // 跨任务的发送台账 (按活动去重)
+    private final StepTracer tracer = StepTracer.getInstance(); // 每一步的耗时统计
+    private long currentTaskId = -1;           // 任务日志ID, -1表示未记录
+    private Set<Long> completedOps = new HashSet<>(); // 已完成的操作, key见TaskJournal.opKey()
+    private Map<String, Integer> friendIndexByName = new HashMap<>();
+    private List<TaskJournal.ResumableTask> pendingResume = new ArrayList<>(); // 等待用户确认恢复的任务
+    private int stopGeneration = 0;            // 每次停止任务加1,写入日志期间被停止的任务不再排队
+
+    // 任务队列相关 (发送和同步通讯录串行执行)
+    private final TaskQueue taskQueue = new TaskQueue();
+    private TaskQueue.Job activeJob;           // 正在执行的任务, null表示空闲
+
+    // 进度统计相关 (主界面仪表盘)
+    private long taskStartMs;                  // 本次执行开始的时间(elapsedRealtime)
+    private final ArrayDeque<Long> recentFriendTimes = new ArrayDeque<>(); // 最近处理完好友的时间
+    private List<ShareBatch> plannedShareBatches; // 批量模式预计的分享包,用于估算剩余时间
+    private final TaskProgressChannel progressChannel = TaskProgressChannel.getInstance();
+    private final SendAckDetector sendAckDetector = new SendAckDetector(this::getRootInActiveWindow);
+    private TimingModel timing;                // 按本机实测耗时推算的等待时间
+    private String pendingSearchQuery;         // 等待搜索结果出现的昵称
+    private MediaPreparer mediaPreparer;       // 任务开始时在后台准备媒体文件的Uri和MIME类型
+    private MessageTemplate[] textTemplates;   // 按消息索引编译好的文字模板,非文字消息为null
+    private final StringBuilder textBuilder = new StringBuilder(); // 生成每位好友文字时复用
+    private AiMessageGenerator aiGenerator;    // 开启AI改写时提前为后面几位好友生成文字
+
+    // 滚动采集相关 (同步通讯录、采集朋友圈)
+    private ScrollHarvester<String> activeHarvester; // 正在读取的通讯录
+    private MomentsCollector momentsCollector;
+    private int momentsNewPosts;               // 本次采集任务新增的朋友圈
 
     // 任务状态枚举
     private enum TaskState {
@@ -65,6 +158,14 @@ public class WeChatAccessibilityService extends AccessibilityService {
     public void onCreate() {
         super.onCreate();
         instance = this;
+        taskJournal = new TaskJournal(this);
+        sendLedger = SendLedger.getInstance(this);
+        progressChannel.setSource(this::getProgress);
+        timing = new TimingModel(this, getWechatVersionCode());
+        mediaPreparer = new MediaPreparer(this);
+        aiGenerator = new AiMessageGenerator(this);
+        momentsCollector = new MomentsCollector(MomentStore.getInstance(this),
+            MomentMediaDownloader.getInstance(this), this::getRootInActiveWindow, this::scrollLargestList);
         Log.d(TAG, "服务创建成功");
     }
 
@@ -72,6 +173,30 @@ public class WeChatAccessibilityService extends AccessibilityService {
     protected void onServiceConnected() {
         super.onServiceConnected();
         Log.d(TAG, "无障碍服务已连接");
+
+        // 检查上次是否有未完成的任务(服务被杀或手机重启),包括被插队暂停和排队中的任务
+        taskJournal.loadResumable(resumable -> {
+            // 读取期间已经开始的任务也在日志中,不算未完成
+            Set<Long> ownIds = new HashSet<>();
+            if (activeJob != null) {
+                ownIds.add(activeJob.taskId);
+            }
+            for (TaskQueue.Job job : taskQueue.jobs()) {
+                ownIds.add(job.taskId);
+            }
+            for (TaskJournal.ResumableTask task : resumable) {
+                if (!ownIds.contains(task.taskId)) {
+                    pendingResume.add(task);
+                }
+            }
+            if (pendingResume.isEmpty()) {
+                return;
+            }
+            Log.d(TAG, "发现" + pendingResume.size() + "个未完成的任务,等待用户确认恢复");
+            Intent intent = new Intent(ACTION_TASK_RESUMABLE);
+            intent.setPackage(getPackageName());
+            sendBroadcast(intent);
+        });
     }
 
     @Override
@@ -96,6 +221,10 @@ public class WeChatAccessibilityService extends AccessibilityService {
         int eventType = event.getEventType();
         Log.d(TAG, "收到微信事件: " + AccessibilityEvent.eventTypeToString(eventType));
 
+        if (eventType == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            observeWindowResponse(event);
+        }
+
         // 如果在分享模式,处理分享界面
         if (isInShareMode) {
             handleShareEvent(event);
@@ -121,7 +250,13 @@ public class WeChatAccessibilityService extends AccessibilityService {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (currentTask != null) {
+            // 任务执行中服务被关闭: 任务日志保留为执行中,重新开启后可以恢复
+            publishTerminal(TaskProgressChannel.TerminalEvent.Status.FAILED, "无障碍服务已关闭");
+        }
+        progressChannel.setSource(null);
         instance = null;
+        TaskExecutionService.stop(this);
         Log.d(TAG, "服务销毁");
     }
 
@@ -149,29 +284,328 @@ public class WeChatAccessibilityService extends AccessibilityService {
     }
 
     /**
-     * 启动发送任务
+     * 启动发送任务 (有任务在执行时加入队列)
+     * @return 是否在排队等待
      */
-    public void startSendTask(SendTask task) {
+    public boolean startSendTask(SendTask task) {
         if (task == null || task.getFriendNames().isEmpty() || task.getMessages().isEmpty()) {
             Log.e(TAG, "任务数据无效");
+            return false;
+        }
+
+        // 上次未完成的任务保留,直到用户在主界面选择恢复或放弃 (恢复时与新任务一起排队)
+
+        // 先写入任务日志再排队: 排队中或被插队暂停时服务被杀,同样可以恢复
+        boolean queued = activeJob != null || !taskQueue.isEmpty();
+        int generation = stopGeneration;
+        TaskQueue.Job job = TaskQueue.Job.send(task);
+        taskJournal.begin(task, taskId -> {
+            if (generation != stopGeneration) {
+                // 写入日志期间任务已被停止
+                taskJournal.finish(taskId, TaskRecord.STATUS_CANCELLED);
+                return;
+            }
+            job.taskId = taskId;
+            enqueueJob(job);
+        });
+        return queued;
+    }
+
+    /**
+     * 加入任务队列: 空闲时立即执行,否则排队
+     * 比当前任务优先级高的任务会在当前好友处理完后插队
+     * @return 是否在排队等待
+     */
+    private boolean enqueueJob(TaskQueue.Job job) {
+        taskQueue.enqueue(job);
+        pinQueuedMedia();
+        if (activeJob == null) {
+            scheduleNextJob();
+            return false;
+        }
+
+        Log.d(TAG, "任务已加入队列: " + job + ", 排队数量: " + taskQueue.size());
+        progressChannel.markDirty();
+        if (activeJob.type == TaskQueue.JobType.SEND && job.priority.ordinal() < activeJob.priority.ordinal()) {
+            Log.d(TAG, "当前好友处理完后插队执行");
+        }
+        updateForegroundStatus();
+        return true;
+    }
+
+    /**
+     * 执行队列中优先级最高的任务,队列为空时停止前台服务
+     */
+    private void scheduleNextJob() {
+        if (activeJob != null) {
+            return;
+        }
+
+        TaskQueue.Job job = taskQueue.poll();
+        if (job == null) {
+            Log.d(TAG, "任务队列已清空");
+            TaskExecutionService.stop(this);
+            return;
+        }
+
+        activeJob = job;
+        Log.d(TAG, "开始执行: " + job);
+        updateForegroundStatus();
+
+        if (job.type == TaskQueue.JobType.SYNC) {
+            runSyncJob();
+            return;
+        }
+        if (job.type == TaskQueue.JobType.MOMENTS) {
+            runMomentsJob(job);
+            return;
+        }
+
+        // 编排任务: 按发送台账跳过该活动中已经发送过的(好友, 消息)
+        sendLedger.findServed(job.task, served -> {
+            if (activeJob != job) {
+                return; // 查询期间任务已被停止
+            }
+            if (!served.isEmpty()) {
+                Log.d(TAG, "活动[" + job.task.getCampaignId() + "]中已发送过" + served.size() + "项,跳过");
+            }
+
+            // 任务在排队前已写入日志; 被插队暂停或从日志恢复的任务跳过已完成的操作
+            Set<Long> completed = new HashSet<>(job.completedOps);
+            completed.addAll(served);
+            runTask(job.task, job.taskId, completed);
+        });
+    }
+
+    /**
+     * 当前任务结束(完成或被插队暂停),稍后执行下一个任务
+     */
+    private void onJobFinished() {
+        tracer.end();
+        activeJob = null;
+        pinQueuedMedia();
+        progressChannel.markDirty();
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            scheduleNextJob();
+        }, 1000);
+    }
+
+    /**
+     * 当前任务和排队任务引用的媒体文件不能被缓存淘汰 (被插队暂停的任务在队列中)
+     */
+    private void pinQueuedMedia() {
+        List<String> paths = new ArrayList<>();
+        if (activeJob != null) {
+            paths.addAll(MediaCache.mediaPaths(activeJob.task));
+        }
+        for (TaskQueue.Job job : taskQueue.jobs()) {
+            paths.addAll(MediaCache.mediaPaths(job.task));
+        }
+        MediaCache.getInstance(this).pin("queue", paths);
+    }
+
+    /**
+     * 更新前台服务通知: 当前任务和排队数量
+     */
+    private void updateForegroundStatus() {
+        if (activeJob == null) {
             return;
         }
+        String status = activeJob.toString();
+        if (!taskQueue.isEmpty()) {
+            status += ", 排队" + taskQueue.size() + "个";
+        }
+        TaskExecutionService.start(this, status);
+    }
+
+    /**
+     * 当前任务是否需要让位给队列中优先级更高的任务
+     */
+    private boolean shouldPreempt() {
+        return activeJob != null && activeJob.type == TaskQueue.JobType.SEND
+            && taskQueue.hasHigherThan(activeJob.priority);
+    }
+
+    /**
+     * 暂停当前任务并放回队首,已完成的操作随任务保存,继续时跳过
+     */
+    private void preemptCurrentTask() {
+        TaskQueue.Job job = activeJob;
+        job.taskId = currentTaskId;
+        job.completedOps = new HashSet<>(completedOps);
+        taskQueue.requeueFront(job);
+        Log.d(TAG, String.format("暂停任务(已处理%d位好友),先执行优先级更高的任务", currentFriendIndex));
+
+        resetTaskState();
+        onJobFinished();
+    }
+
+    /**
+     * 获取等待恢复的任务(没有时返回空列表)
+     */
+    public List<TaskJournal.ResumableTask> getPendingResume() {
+        return new ArrayList<>(pendingResume);
+    }
+
+    /**
+     * 恢复所有未完成的任务: 按原来的优先级排队,跳过日志中已完成的操作
+     * 同一优先级按加入的先后顺序,被插队暂停的任务排在之后加入的任务前面
+     */
+    public void resumePendingTask() {
+        List<TaskJournal.ResumableTask> resumable = pendingResume;
+        pendingResume = new ArrayList<>();
+        // 空闲时第一个加入的任务立即开始,所以先加入优先级最高的 (排序是稳定的,同一优先级仍按先后顺序)
+        Collections.sort(resumable, (a, b) -> Integer.compare(
+            a.task.getPriority().ordinal(), b.task.getPriority().ordinal()));
+        for (TaskJournal.ResumableTask task : resumable) {
+            Log.d(TAG, String.format("恢复任务: %d, 已完成%d项操作", task.taskId, task.completedOps.size()));
+            TaskQueue.Job job = TaskQueue.Job.send(task.task);
+            job.taskId = task.taskId;
+            job.completedOps = task.completedOps;
+            enqueueJob(job);
+        }
+    }
+
+    /**
+     * 放弃所有未完成的任务
+     */
+    public void discardPendingTask() {
+        List<TaskJournal.ResumableTask> resumable = pendingResume;
+        pendingResume = new ArrayList<>();
+        for (TaskJournal.ResumableTask task : resumable) {
+            taskJournal.finish(task.taskId, TaskRecord.STATUS_CANCELLED);
+        }
+    }
 
+    /**
+     * 执行任务(新任务或从日志恢复的任务)
+     */
+    private void runTask(SendTask task, long taskId, Set<Long> completed) {
         this.currentTask = task;
-        this.currentFriendIndex = 0;
+        this.currentTaskId = taskId;
+        this.completedOps = new HashSet<>(completed);
+        this.friendIndexByName = new HashMap<>();
+        for (int i = task.getFriendNames().size() - 1; i >= 0; i--) {
+            friendIndexByName.put(task.getFriendNames().get(i), i);
+        }
+        this.currentFriendIndex = firstPendingFriendIndex(task);
         this.currentMessageIndex = 0;
         this.isAutoTaskRunning = true;
         this.isTextPhase = true;
-        this.sentMessageIndices.clear();
+        seedSentIndices();
         this.isInChatWindow = false;
-
-        Log.d(TAG, String.format("开始执行任务: %d位好友, %d条消息",
-            task.getFriendNames().size(), task.getMessages().size()));
+        this.recipientBatches = null;
+        this.recipientBatchIndex = 0;
+        this.stagedMessageIndices.clear();
+        this.isInStagingChat = false;
+        this.pendingForwardBatch = null;
+        this.taskStartMs = SystemClock.elapsedRealtime();
+        this.recentFriendTimes.clear();
+        this.plannedShareBatches = isBatchShareMode() ? EtaEstimator.planShareBatches(task) : null;
+        mediaPreparer.prepare(task);
+        compileTextTemplates(task);
+        aiGenerator.start(task, this::textFor);
+        aiGenerator.prefetch(currentFriendIndex);
+
+        Log.d(TAG, String.format("开始执行任务: %d位好友, %d条消息, 分享方式: %s, 从第%d位好友开始",
+            task.getFriendNames().size(), task.getMessages().size(), task.getShareMode(),
+            currentFriendIndex + 1));
+
+        progressChannel.markDirty();
 
         // 开始处理第一条消息
         processNextMessage();
     }
 
+    /**
+     * 编译任务中的文字消息模板 (每个任务一次)
+     */
+    private void compileTextTemplates(SendTask task) {
+        Date now = new Date();
+        int personalized = 0;
+        textTemplates = new MessageTemplate[task.getMessages().size()];
+        for (int i = 0; i < textTemplates.length; i++) {
+            SendTask.Message message = task.getMessages().get(i);
+            if ("text".equals(message.getType())) {
+                textTemplates[i] = MessageTemplate.compile(message.getContent(), task.getCampaignId(), now);
+                if (textTemplates[i].isPersonalized()) {
+                    personalized++;
+                }
+            }
+        }
+        if (personalized > 0) {
+            Log.d(TAG, "按好友替换占位符的文字消息: " + personalized + "条");
+        }
+    }
+
+    /**
+     * 第friendIndex位好友的第messageIndex条文字消息 (占位符已替换)
+     */
+    private String textFor(int friendIndex, int messageIndex) {
+        MessageTemplate template = textTemplates != null && messageIndex < textTemplates.length
+            ? textTemplates[messageIndex] : null;
+        if (template == null) {
+            return currentTask.getMessages().get(messageIndex).getContent();
+        }
+        return template.render(currentTask.getFriendNames().get(friendIndex), friendIndex + 1, textBuilder);
+    }
+
+    /**
+     * 向当前好友发送第messageIndex条文字消息
+     * 开启AI改写时使用生成的文字(通常已提前生成好),否则直接发送
+     */
+    private void sendTextFor(int messageIndex) {
+        SendTask task = currentTask;
+        int friendIndex = currentFriendIndex;
+        aiGenerator.get(friendIndex, messageIndex, textFor(friendIndex, messageIndex), text -> {
+            if (currentTask != task || currentFriendIndex != friendIndex) {
+                return; // 等待生成期间任务已结束或切换
+            }
+            sendTextMessage(text);
+        });
+    }
+
+    /**
+     * 第一个还有待发送消息的好友 (批量模式下图片/视频不在逐个好友阶段发送,不计入)
+     */
+    private int firstPendingFriendIndex(SendTask task) {
+        boolean perFriendMedia = task.getShareMode() == SendTask.ShareMode.PER_FRIEND;
+        for (int f = 0; f < task.getFriendNames().size(); f++) {
+            for (int m = 0; m < task.getMessages().size(); m++) {
+                boolean isText = "text".equals(task.getMessages().get(m).getType());
+                if ((isText || perFriendMedia) && !completedOps.contains(TaskJournal.opKey(f, m))) {
+                    return f;
+                }
+            }
+        }
+        return task.getFriendNames().size();
+    }
+
+    /**
+     * 切换到新好友时,用任务日志中已完成的操作初始化已发送的消息
+     */
+    private void seedSentIndices() {
+        sentMessageIndices.clear();
+        for (int m = 0; m < currentTask.getMessages().size(); m++) {
+            if (completedOps.contains(TaskJournal.opKey(currentFriendIndex, m))) {
+                sentMessageIndices.add(m);
+            }
+        }
+    }
+
+    /**
+     * 记录已完成的操作: 先写入任务日志,写入后再继续下一步
+     */
+    private void recordCompletedOps(List<Integer> friendIndices, List<Integer> messageIndices, Runnable then) {
+        for (int friendIndex : friendIndices) {
+            for (int messageIndex : messageIndices) {
+                completedOps.add(TaskJournal.opKey(friendIndex, messageIndex));
+            }
+        }
+        sendLedger.record(currentTask, friendIndices, messageIndices);
+        taskJournal.recordCompleted(currentTaskId, friendIndices, messageIndices, then);
+    }
+
     /**
      * 继续下一条消息(在聊天界面发送完文字后调用)
      */
@@ -182,7 +616,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
         // 检查是否所有好友都处理完了
         if (currentFriendIndex >= currentTask.getFriendNames().size()) {
-            taskCompleted();
+            onAllFriendsProcessed();
             return;
         }
 
@@ -205,7 +639,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
                     // 已经在聊天界面,直接发送文字
                     taskState = TaskState.SENDING_MESSAGE;
-                    sendTextMessage(message.getContent());
+                    sendTextFor(i);
                     return;
                 }
             }
@@ -216,38 +650,224 @@ public class WeChatAccessibilityService extends AccessibilityService {
             Log.d(TAG, "文字消息发送完成,开始发送图片/视频");
         }
 
-        // 第二阶段: 发送所有图片/视频消息
-        for (int i = 0; i < currentTask.getMessages().size(); i++) {
-            if (sentMessageIndices.contains(i)) {
-                continue; // 已发送,跳过
-            }
+        // 第二阶段: 按类型打包发送所有图片/视频消息 (批量模式下留到所有好友处理完后统一分享)
+        if (!isBatchShareMode() && shareNextMediaBatch(friendName)) {
+            return;
+        }
+
+        // 所有消息都已发送完成,处理下一个好友
+        moveToNextFriend();
+    }
+
+    /**
+     * 切换到下一个好友 (好友之间是任务可以被插队暂停的位置)
+     */
+    private void moveToNextFriend() {
+        recentFriendTimes.addLast(SystemClock.elapsedRealtime());
+        currentFriendIndex++;
+        aiGenerator.prefetch(currentFriendIndex);
+        progressChannel.markDirty();
+        currentMessageIndex = 0;
+        isTextPhase = true;
+        isInChatWindow = false;
+
+        if (currentFriendIndex < currentTask.getFriendNames().size() && shouldPreempt()) {
+            preemptCurrentTask();
+            return;
+        }
+
+        seedSentIndices();
+        processNextMessage();
+    }
+
+    /**
+     * 当前任务的进度快照 (主界面仪表盘定时读取)
+     */
+    public TaskProgress getProgress() {
+        if (currentTask == null) {
+            return TaskProgress.idle(taskQueue.size());
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        while (!recentFriendTimes.isEmpty() && now - recentFriendTimes.peekFirst() > THROUGHPUT_WINDOW_MS) {
+            recentFriendTimes.pollFirst();
+        }
+
+        // 吞吐量: 最近5分钟(不足5分钟按已执行时间)处理完的好友数
+        long window = Math.min(THROUGHPUT_WINDOW_MS, now - taskStartMs);
+        double perMinute = window > 0 ? recentFriendTimes.size() * 60000.0 / window : 0;
+
+        int totalFriends = currentTask.getFriendNames().size();
+        int completedFriends = Math.min(currentFriendIndex, totalFriends);
+        List<ShareBatch> shareBatches = recipientBatches != null ? recipientBatches : plannedShareBatches;
+        int totalBatches = shareBatches != null ? shareBatches.size() : 0;
+        int completedBatches = recipientBatches != null ? recipientBatchIndex : 0;
+
+        // 剩余时间: 按实测的步骤耗时估算,没有实测数据时按吞吐量估算
+        long eta = TaskProgress.UNKNOWN;
+        int remainingFriends = totalFriends - completedFriends;
+        long perFriend = EtaEstimator.friendMillis(currentTask, tracer);
+        if (perFriend != EtaEstimator.UNKNOWN) {
+            eta = perFriend * remainingFriends;
+        } else if (perMinute > 0) {
+            eta = Math.round(remainingFriends * 60000.0 / perMinute);
+        }
+        if (eta != TaskProgress.UNKNOWN && shareBatches != null) {
+            long shareEta = EtaEstimator.shareBatchesMillis(shareBatches, completedBatches, tracer);
+            eta = shareEta == EtaEstimator.UNKNOWN ? TaskProgress.UNKNOWN : eta + shareEta;
+        }
+
+        return new TaskProgress(true, activeJob != null ? activeJob.toString() : null,
+            totalFriends, completedFriends, totalBatches, completedBatches, taskQueue.size(),
+            perMinute, eta, now - taskStartMs);
+    }
+
+    /**
+     * 分享当前好友的下一个图片/视频包
+     * @return 是否启动了分享(false表示该好友没有待发送的图片/视频)
+     */
+    private boolean shareNextMediaBatch(String friendName) {
+        List<ShareBatch> batches = SharePlanner.planFriendMedia(
+            currentTask.getMessages(), sentMessageIndices, friendName);
+        if (batches.isEmpty()) {
+            return false;
+        }
+
+        ShareBatch batch = batches.get(0);
+        currentMessageIndex = batch.getMessageIndices().get(0);
+        // 注意: 不在这里标记为已发送,等分享成功后再标记
+
+        Log.d(TAG, String.format("处理好友[%s]的%d个%s(共%d个分享包)",
+            friendName, batch.size(), batch.getType(), batches.size()));
+
+        // 图片/视频消息: 直接用Intent分享
+        taskState = TaskState.SHARING_FILE;
+        if ("image".equals(batch.getType())) {
+            sendImageMessage(batch);
+        } else {
+            sendVideoMessage(batch);
+        }
+        return true;
+    }
 
-            SendTask.Message message = currentTask.getMessages().get(i);
-            if ("image".equals(message.getType()) || "video".equals(message.getType())) {
-                currentMessageIndex = i;
-                // 注意: 不在这里标记为已发送,等分享成功后再标记
+    /**
+     * 所有好友的逐个发送阶段结束: 批量模式下按媒体分组继续分享,否则任务完成
+     */
+    private void onAllFriendsProcessed() {
+        if (isBatchShareMode()) {
+            if (recipientBatches == null) {
+                if (currentTask.getShareMode() == SendTask.ShareMode.FORWARD_FROM_STAGING) {
+                    recipientBatches = SharePlanner.planForwardBatches(currentTask.getMessages(),
+                        currentTask.getFriendNames(), currentTask.getStagingChat());
+                } else {
+                    recipientBatches = SharePlanner.planRecipientBatches(
+                        currentTask.getMessages(), currentTask.getFriendNames());
+                }
+                if (!completedOps.isEmpty()) {
+                    removeCompletedRecipients(recipientBatches);
+                }
+                recipientBatchIndex = 0;
+                // 文字阶段已全部结束,避免后续进入聊天界面时误发文字
+                isTextPhase = false;
+                Log.d(TAG, "开始批量分享图片/视频: 共" + recipientBatches.size() + "个分享包");
+            }
 
-                Log.d(TAG, String.format("处理好友[%s]的第%d条消息(%s)",
-                    friendName, i + 1, message.getType()));
+            if (recipientBatchIndex < recipientBatches.size()) {
+                ShareBatch batch = recipientBatches.get(recipientBatchIndex);
+                Log.d(TAG, String.format("批量%s第%d/%d包: %d个%s -> %d位好友",
+                    batch.isForward() ? "转发" : "分享",
+                    recipientBatchIndex + 1, recipientBatches.size(),
+                    batch.size(), batch.getType(), batch.getFriendNames().size()));
 
-                // 图片/视频消息: 直接用Intent分享
                 taskState = TaskState.SHARING_FILE;
-                if ("image".equals(message.getType())) {
-                    sendImageMessage(message.getContent());
+                if (batch.isForward()) {
+                    forwardStagedMessage(batch);
+                } else if ("image".equals(batch.getType())) {
+                    sendImageMessage(batch);
                 } else {
-                    sendVideoMessage(message.getContent());
+                    sendVideoMessage(batch);
                 }
                 return;
             }
         }
 
-        // 所有消息都已发送完成,处理下一个好友
-        currentFriendIndex++;
-        currentMessageIndex = 0;
-        isTextPhase = true;
-        isInChatWindow = false;
-        sentMessageIndices.clear();
-        processNextMessage();
+        taskCompleted();
+    }
+
+    /**
+     * 恢复任务时去掉日志中已完成的收件人;
+     * 转发模式下只保留还有好友待转发的中转消息
+     */
+    private void removeCompletedRecipients(List<ShareBatch> batches) {
+        Set<Integer> pendingForwards = new HashSet<>();
+        Iterator<ShareBatch> it = batches.iterator();
+        while (it.hasNext()) {
+            ShareBatch batch = it.next();
+            if (isStagingBatch(batch)) {
+                continue;
+            }
+
+            Iterator<String> friends = batch.getFriendNames().iterator();
+            while (friends.hasNext()) {
+                if (isCompletedForFriend(friends.next(), batch.getMessageIndices())) {
+                    friends.remove();
+                }
+            }
+            if (batch.getFriendNames().isEmpty()) {
+                it.remove();
+            } else if (batch.isForward()) {
+                pendingForwards.addAll(batch.getMessageIndices());
+            }
+        }
+
+        for (int i = 0; i < batches.size(); i++) {
+            ShareBatch staging = batches.get(i);
+            if (!isStagingBatch(staging)) {
+                continue;
+            }
+
+            ShareBatch pending = new ShareBatch(staging.getType());
+            pending.getFriendNames().addAll(staging.getFriendNames());
+            for (int j = 0; j < staging.size(); j++) {
+                if (pendingForwards.contains(staging.getMessageIndices().get(j))) {
+                    pending.addFile(staging.getMessageIndices().get(j), staging.getFilePaths().get(j));
+                }
+            }
+            if (pending.size() == 0) {
+                batches.remove(i--);
+            } else {
+                batches.set(i, pending);
+            }
+        }
+        Log.d(TAG, "恢复任务: 剩余" + batches.size() + "个分享包");
+    }
+
+    private boolean isCompletedForFriend(String friendName, List<Integer> messageIndices) {
+        Integer friendIndex = friendIndexByName.get(friendName);
+        if (friendIndex == null) {
+            return false;
+        }
+        for (int messageIndex : messageIndices) {
+            if (!completedOps.contains(TaskJournal.opKey(friendIndex, messageIndex))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 转发模式中分享到中转聊天的包(不直接发给好友,不写入任务日志)
+     */
+    private boolean isStagingBatch(ShareBatch batch) {
+        return !batch.isForward() && currentTask != null
+            && currentTask.getShareMode() == SendTask.ShareMode.FORWARD_FROM_STAGING;
+    }
+
+    /**
+     * 是否为批量分享模式(多选分享或中转转发)
+     */
+    private boolean isBatchShareMode() {
+        return currentTask != null && currentTask.getShareMode() != SendTask.ShareMode.PER_FRIEND;
     }
 
     /**
@@ -260,7 +880,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
         // 检查是否所有好友都处理完了
         if (currentFriendIndex >= currentTask.getFriendNames().size()) {
-            taskCompleted();
+            onAllFriendsProcessed();
             return;
         }
 
@@ -287,11 +907,11 @@ public class WeChatAccessibilityService extends AccessibilityService {
                         launchWeChat();
                         new Handler(Looper.getMainLooper()).postDelayed(() -> {
                             searchFriend(friendName);
-                        }, 3000);
+                        }, timing.delay(TimingModel.Key.LAUNCH));
                     } else {
                         // 已经在聊天界面,直接发送文字
                         taskState = TaskState.SENDING_MESSAGE;
-                        sendTextMessage(message.getContent());
+                        sendTextFor(i);
                     }
                     return;
                 }
@@ -303,44 +923,27 @@ public class WeChatAccessibilityService extends AccessibilityService {
             Log.d(TAG, "文字消息发送完成,开始发送图片/视频");
         }
 
-        // 第二阶段: 发送所有图片/视频消息
-        for (int i = 0; i < currentTask.getMessages().size(); i++) {
-            if (sentMessageIndices.contains(i)) {
-                continue; // 已发送,跳过
-            }
-
-            SendTask.Message message = currentTask.getMessages().get(i);
-            if ("image".equals(message.getType()) || "video".equals(message.getType())) {
-                currentMessageIndex = i;
-                // 注意: 不在这里标记为已发送,等分享成功后再标记
-
-                Log.d(TAG, String.format("处理好友[%s]的第%d条消息(%s)",
-                    friendName, i + 1, message.getType()));
-
-                // 图片/视频消息: 直接用Intent分享
-                taskState = TaskState.SHARING_FILE;
-                if ("image".equals(message.getType())) {
-                    sendImageMessage(message.getContent());
-                } else {
-                    sendVideoMessage(message.getContent());
-                }
-                return;
-            }
+        // 第二阶段: 按类型打包发送所有图片/视频消息 (批量模式下留到所有好友处理完后统一分享)
+        if (!isBatchShareMode() && shareNextMediaBatch(friendName)) {
+            return;
         }
 
         // 所有消息都已发送完成,处理下一个好友
-        currentFriendIndex++;
-        currentMessageIndex = 0;
-        isTextPhase = true;
-        isInChatWindow = false;
-        sentMessageIndices.clear();
-        processNextMessage();
+        moveToNextFriend();
     }
 
     /**
-     * 同步通讯录
+     * 同步通讯录 (有任务在执行时加入队列)
+     * @return 是否在排队等待
      */
-    public void syncContacts() {
+    public boolean syncContacts() {
+        return enqueueJob(TaskQueue.Job.sync());
+    }
+
+    /**
+     * 执行同步通讯录任务
+     */
+    private void runSyncJob() {
         Log.d(TAG, "开始同步通讯录");
 
         // 启动微信
@@ -351,16 +954,149 @@ public class WeChatAccessibilityService extends AccessibilityService {
             clickContactsTab();
         }, 2000);
 
-        // 延迟4秒后读取通讯录
+        // 延迟4秒后读取通讯录,读取完成后执行下一个任务
         new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            readContactsList();
+            readContactsList(this::onJobFinished);
         }, 4000);
     }
 
+    /**
+     * 采集好友的朋友圈 (有任务在执行时加入队列)
+     * 每位好友只采集上次之后的新内容
+     * @return 是否在排队等待
+     */
+    public boolean collectMoments(List<String> friendNames) {
+        if (friendNames == null || friendNames.isEmpty()) {
+            Log.e(TAG, "没有要采集的好友");
+            return false;
+        }
+        return enqueueJob(TaskQueue.Job.moments(friendNames));
+    }
+
+    /**
+     * 执行采集朋友圈任务
+     */
+    private void runMomentsJob(TaskQueue.Job job) {
+        Log.d(TAG, "开始采集朋友圈: " + job.friendNames.size() + "位好友");
+        momentsNewPosts = 0;
+        launchWeChat();
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            collectNextMoments(job, 0);
+        }, timing.delay(TimingModel.Key.LAUNCH));
+    }
+
+    /**
+     * 采集第index位好友的朋友圈: 搜索好友 -> 聊天信息 -> 好友资料 -> 朋友圈相册
+     */
+    private void collectNextMoments(TaskQueue.Job job, int index) {
+        if (activeJob != job) {
+            return; // 任务已被停止
+        }
+        if (index >= job.friendNames.size()) {
+            Log.d(TAG, "朋友圈采集完成: 新增" + momentsNewPosts + "条");
+            Intent intent = new Intent(ACTION_MOMENTS_COLLECTED);
+            intent.setPackage(getPackageName());
+            intent.putExtra(EXTRA_COMPLETED, momentsNewPosts);
+            intent.putExtra(EXTRA_TOTAL, job.friendNames.size());
+            sendBroadcast(intent);
+            onJobFinished();
+            return;
+        }
+        if (index > 0 && taskQueue.hasHigherThan(job.priority)) {
+            // 剩下的好友放回队首,先执行其他任务
+            job.friendNames = new ArrayList<>(job.friendNames.subList(index, job.friendNames.size()));
+            taskQueue.requeueFront(job);
+            Log.d(TAG, "暂停采集朋友圈(剩余" + job.friendNames.size() + "位好友),先执行其他任务");
+            onJobFinished();
+            return;
+        }
+
+        String friendName = job.friendNames.get(index);
+        Log.d(TAG, String.format("采集朋友圈 (%d/%d): %s", index + 1, job.friendNames.size(), friendName));
+        Runnable next = () -> {
+            // 重新启动微信回到主界面,再采集下一位好友
+            launchWeChat();
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                collectNextMoments(job, index + 1);
+            }, timing.delay(TimingModel.Key.LAUNCH));
+        };
+
+        // 各步骤的间隔按本机实测的界面响应耗时推算 (与发送消息时搜索好友相同)
+        long clickAt = 1000;
+        long inputAt = clickAt + timing.delay(TimingModel.Key.SEARCH_OPEN);
+        long resultAt = inputAt + timing.delay(TimingModel.Key.SEARCH_RESULTS);
+        long chatAt = resultAt + timing.delay(TimingModel.Key.CHAT_OPEN);
+        Handler handler = new Handler(Looper.getMainLooper());
+        handler.postDelayed(this::clickSearchButton, clickAt);
+        handler.postDelayed(() -> inputSearchText(friendName), inputAt);
+        handler.postDelayed(() -> clickSearchResult(friendName), resultAt);
+        handler.postDelayed(() -> {
+            timing.cancel();
+            openFriendMoments(job, friendName, 0, next);
+        }, chatAt);
+    }
+
+    /**
+     * 从聊天界面进入好友的朋友圈相册,任一步找不到入口则跳过该好友
+     * @param step 0=聊天信息 1=好友头像 2=朋友圈
+     */
+    private void openFriendMoments(TaskQueue.Job job, String friendName, int step, Runnable next) {
+        if (activeJob != job) {
+            return;
+        }
+        String[] targets = {"聊天信息", friendName, "朋友圈"};
+        TimingModel.Key[] keys = {TimingModel.Key.MOMENTS_CHAT_INFO, TimingModel.Key.MOMENTS_PROFILE,
+                                  TimingModel.Key.MOMENTS_ALBUM};
+        if (step >= targets.length) {
+            timing.cancel();
+            momentsCollector.collect(friendName, (name, newPosts, complete) -> {
+                if (activeJob != job) {
+                    return;
+                }
+                momentsNewPosts += newPosts;
+                next.run();
+            });
+            return;
+        }
+
+        if (!clickNodeByText(targets[step])) {
+            Log.w(TAG, "未找到'" + targets[step] + "',跳过好友: " + friendName);
+            next.run();
+            return;
+        }
+        timing.start(keys[step]);
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            openFriendMoments(job, friendName, step + 1, next);
+        }, timing.delay(keys[step]));
+    }
+
+    /**
+     * 点击文字或描述完全相同的节点(或其可点击的父节点)
+     */
+    private boolean clickNodeByText(String text) {
+        AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+        if (rootNode == null) {
+            return false;
+        }
+        for (AccessibilityNodeInfo node : rootNode.findAccessibilityNodeInfosByText(text)) {
+            CharSequence nodeText = node.getText() != null ? node.getText() : node.getContentDescription();
+            if (nodeText == null || !text.equals(nodeText.toString())) {
+                continue;
+            }
+            AccessibilityNodeInfo clickableNode = findClickableParent(node);
+            if (clickableNode != null && clickableNode.performAction(AccessibilityNodeInfo.ACTION_CLICK)) {
+                Log.d(TAG, "点击'" + text + "'成功");
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 启动微信应用
      */
     private void launchWeChat() {
+        tracer.step(StepTracer.Step.LAUNCH);
         try {
             // 直接启动微信的LauncherUI
             Intent intent = new Intent();
@@ -368,6 +1104,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
 
             startActivity(intent);
+            timing.start(TimingModel.Key.LAUNCH);
             Log.d(TAG, "正在启动微信...");
 
         } catch (Exception e) {
@@ -429,59 +1166,52 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
     /**
      * 读取通讯录好友列表(带滚动加载)
+     * @param onDone 读取完成(或失败)后在主线程调用
      */
-    private void readContactsList() {
-        try {
-            Log.d(TAG, "开始读取通讯录,将滚动加载所有好友...");
-
-            // 使用Set避免重复
-            Set<String> allFriends = new HashSet<>();
-            int scrollCount = 0;
-            int maxScrolls = 500; // 最大滚动次数(设置为500,足够大),主要依靠连续无新好友判断
-            int noNewFriendsCount = 0; // 连续没有新好友的次数
-
-            while (scrollCount < maxScrolls) {
-                int beforeSize = allFriends.size();
-
-                // 读取当前屏幕的好友
-                Set<String> currentFriends = readCurrentScreenFriends();
-                allFriends.addAll(currentFriends);
-
-                int afterSize = allFriends.size();
-                int newFriends = afterSize - beforeSize;
-
-                Log.d(TAG, "第" + (scrollCount + 1) + "次读取: 本次找到" + currentFriends.size() + "个好友, 新增" + newFriends + "个, 总计" + afterSize + "个");
+    private void readContactsList(Runnable onDone) {
+        Log.d(TAG, "开始读取通讯录,将滚动加载所有好友...");
+
+        // 使用Set避免重复
+        Set<String> allFriends = new HashSet<>();
+        activeHarvester = new ScrollHarvester<>(new ScrollHarvester.Source<String>() {
+            @Override
+            public List<String> readScreen() {
+                return readCurrentScreenFriends();
+            }
 
-                if (newFriends == 0) {
-                    noNewFriendsCount++;
-                    Log.d(TAG, "连续" + noNewFriendsCount + "次没有新好友");
-                } else {
-                    noNewFriendsCount = 0;
-                }
+            @Override
+            public Object keyOf(String item) {
+                return item;
+            }
 
-                // 如果连续5次没有新好友,说明已经到底了(增加容错次数)
-                if (noNewFriendsCount >= 5) {
-                    Log.d(TAG, "已到达列表底部(连续5次无新好友)");
-                    break;
-                }
+            @Override
+            public boolean scroll() {
+                return scrollContactsList();
+            }
+        }, new ScrollHarvester.Sink<String>() {
+            @Override
+            public boolean onItem(String item) {
+                allFriends.add(item);
+                return true;
+            }
 
-                // 执行滚动
-                boolean scrolled = scrollContactsList();
-                if (!scrolled) {
-                    Log.w(TAG, "滚动失败,可能已到底部");
-                    break;
-                }
-
-                scrollCount++;
-
-                // 等待滚动完成和列表加载(增加等待时间到1.5秒)
-                try {
-                    Thread.sleep(1500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+            @Override
+            public void onFinished(int total, ScrollHarvester.StopReason reason) {
+                activeHarvester = null;
+                if (reason != ScrollHarvester.StopReason.CANCELLED) {
+                    publishContacts(allFriends);
                 }
+                onDone.run();
             }
+        });
+        activeHarvester.start();
+    }
 
+    /**
+     * 排序并保存读取到的好友,通知MainActivity
+     */
+    private void publishContacts(Set<String> allFriends) {
+        try {
             Log.d(TAG, "通讯录读取完成! 总共找到 " + allFriends.size() + " 个真实好友");
 
             // 转换为List并按首字母排序(模仿微信排序:字母在前,特殊符号在后)
@@ -526,8 +1256,8 @@ public class WeChatAccessibilityService extends AccessibilityService {
     /**
      * 读取当前屏幕上的好友
      */
-    private Set<String> readCurrentScreenFriends() {
-        Set<String> friends = new HashSet<>();
+    private List<String> readCurrentScreenFriends() {
+        List<String> friends = new ArrayList<>();
 
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
@@ -598,6 +1328,21 @@ public class WeChatAccessibilityService extends AccessibilityService {
         }
     }
 
+    /**
+     * 在面积最大的可滚动列表内向下滑动一屏 (朋友圈相册)
+     */
+    private boolean scrollLargestList() {
+        AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+        AccessibilityNodeInfo list = rootNode != null ? findLargestScrollable(rootNode) : null;
+        if (list == null) {
+            return false;
+        }
+        android.graphics.Rect rect = new android.graphics.Rect();
+        list.getBoundsInScreen(rect);
+        return performSwipeGesture(rect.centerX(), (int) (rect.top + rect.height() * 0.8),
+            rect.centerX(), (int) (rect.top + rect.height() * 0.2));
+    }
+
     /**
      * 执行滑动手势
      */
@@ -656,7 +1401,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 保存好友列表到SharedPreferences (保持顺序)
      */
     private void saveFriendsToPrefs(List<String> friends) {
-        SharedPreferences prefs = getSharedPreferences("WeChatAutoPrefs", MODE_PRIVATE);
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
 
         // 使用JSON字符串保存,保持顺序
@@ -704,9 +1449,48 @@ public class WeChatAccessibilityService extends AccessibilityService {
      */
     public void stopAutoTask() {
         isAutoTaskRunning = false;
+        if (currentTask != null || !taskQueue.isEmpty()) {
+            publishTerminal(TaskProgressChannel.TerminalEvent.Status.CANCELLED, "用户停止");
+        }
+        // 用户主动停止的任务(包括排队中的)不再提示恢复
+        stopGeneration++;
+        for (TaskQueue.Job job : taskQueue.clear()) {
+            taskJournal.finish(job.taskId, TaskRecord.STATUS_CANCELLED);
+        }
+        if (activeJob != null) {
+            taskJournal.finish(activeJob.taskId, TaskRecord.STATUS_CANCELLED);
+        }
+        resetTaskState();
+        if (activeHarvester != null) {
+            activeHarvester.cancel();
+        }
+        momentsCollector.cancel();
+        tracer.export(this);
+        activeJob = null;
+        pinQueuedMedia();
+        TaskExecutionService.stop(this);
         Log.d(TAG, "自动化任务已停止");
     }
 
+    /**
+     * 微信窗口变化: 记录正在等待的动作的响应耗时
+     */
+    private void observeWindowResponse(AccessibilityEvent event) {
+        TimingModel.Key pending = timing.getPending();
+        if (pending == null) {
+            return;
+        }
+        String className = event.getClassName() != null ? event.getClassName().toString() : "";
+        if (pending == TimingModel.Key.CHAT_OPEN) {
+            // 点击搜索结果后只有进入聊天界面才算响应
+            if ("com.tencent.mm.ui.chatting.ChattingUI".equals(className)) {
+                timing.stop(pending);
+            }
+        } else if (pending != TimingModel.Key.SEARCH_RESULTS) {
+            timing.stop(pending);
+        }
+    }
+
     /**
      * 处理窗口状态变化
      */
@@ -716,9 +1500,22 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
         // 检测是否进入了聊天界面
         if ("com.tencent.mm.ui.chatting.ChattingUI".equals(className)) {
+            // 转发模式: 进入中转聊天后开始转发
+            if (pendingForwardBatch != null) {
+                Log.d(TAG, "已进入中转聊天,准备转发");
+                ShareBatch batch = pendingForwardBatch;
+                pendingForwardBatch = null;
+                isInStagingChat = true;
+                new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                    forwardStagedMessage(batch);
+                }, 1000);
+                return;
+            }
+
             // 如果之前不在聊天界面,现在进入了
             if (!isInChatWindow && isTextPhase && isAutoTaskRunning) {
                 Log.d(TAG, "已进入聊天界面,准备发送文字消息");
+                tracer.step(StepTracer.Step.CHAT_OPEN);
                 isInChatWindow = true;
                 taskState = TaskState.SENDING_MESSAGE;
 
@@ -727,7 +1524,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
                     if (currentTask != null && currentMessageIndex < currentTask.getMessages().size()) {
                         SendTask.Message message = currentTask.getMessages().get(currentMessageIndex);
                         if ("text".equals(message.getType())) {
-                            sendTextMessage(message.getContent());
+                            sendTextFor(currentMessageIndex);
                         }
                     }
                 }, 1000);
@@ -739,7 +1536,19 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 处理窗口内容变化
      */
     private void handleWindowContentChanged(AccessibilityEvent event) {
-        // 窗口内容变化时的处理逻辑
+        // 等待发送确认时,每次内容变化都检查一次
+        if (sendAckDetector.isArmed()) {
+            sendAckDetector.check();
+        }
+
+        // 等待搜索结果时,结果列表中出现好友昵称即记录耗时
+        if (pendingSearchQuery != null && timing.getPending() == TimingModel.Key.SEARCH_RESULTS) {
+            AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+            if (rootNode != null && SendAckDetector.countMessages(rootNode, pendingSearchQuery) > 0) {
+                timing.stop(TimingModel.Key.SEARCH_RESULTS);
+                pendingSearchQuery = null;
+            }
+        }
     }
 
     /**
@@ -797,28 +1606,34 @@ public class WeChatAccessibilityService extends AccessibilityService {
         Log.d(TAG, "开始搜索好友: " + friendName);
         taskState = TaskState.SEARCHING_FRIEND;
 
+        // 各步骤的间隔按本机实测的界面响应耗时推算
+        long clickAt = 1000;
+        long inputAt = clickAt + timing.delay(TimingModel.Key.SEARCH_OPEN);
+        long resultAt = inputAt + timing.delay(TimingModel.Key.SEARCH_RESULTS);
+
         // 1. 点击搜索按钮
         new Handler(Looper.getMainLooper()).postDelayed(() -> {
             clickSearchButton();
-        }, 1000);
+        }, clickAt);
 
         // 2. 输入好友昵称
         new Handler(Looper.getMainLooper()).postDelayed(() -> {
             inputSearchText(friendName);
-        }, 2500);
+        }, inputAt);
 
         // 3. 点击搜索结果
         new Handler(Looper.getMainLooper()).postDelayed(() -> {
             clickSearchResult(friendName);
-        }, 4000);
+        }, resultAt);
 
-        // 注意: 不在这里调用sendMessages(),由handleWindowStateChanged负责发送第一条消息
+        // 进入聊天界面后由handleWindowStateChanged发送第一条消息
     }
 
     /**
      * 点击搜索按钮 (使用resource-id精确定位)
      */
     private void clickSearchButton() {
+        tracer.step(StepTracer.Step.SEARCH_CLICK);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -832,6 +1647,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
                 for (AccessibilityNodeInfo node : nodes) {
                     if (node.isClickable()) {
                         node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                        timing.start(TimingModel.Key.SEARCH_OPEN);
                         Log.d(TAG, "点击搜索按钮成功 (通过resource-id)");
                         return;
                     }
@@ -845,12 +1661,14 @@ public class WeChatAccessibilityService extends AccessibilityService {
                     CharSequence desc = node.getContentDescription();
                     if (desc != null && desc.toString().equals("搜索") && node.isClickable()) {
                         node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                        timing.start(TimingModel.Key.SEARCH_OPEN);
                         Log.d(TAG, "点击搜索按钮成功 (通过content-desc)");
                         return;
                     }
                 }
             }
 
+            tracer.fail(StepTracer.Step.SEARCH_CLICK);
             Log.w(TAG, "未找到搜索按钮");
 
         } catch (Exception e) {
@@ -862,6 +1680,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 输入搜索文本
      */
     private void inputSearchText(String text) {
+        tracer.step(StepTracer.Step.QUERY_INPUT);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -881,11 +1700,14 @@ public class WeChatAccessibilityService extends AccessibilityService {
                 Bundle arguments = new Bundle();
                 arguments.putCharSequence(AccessibilityNodeInfo.ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE, text);
                 editText.performAction(AccessibilityNodeInfo.ACTION_SET_TEXT, arguments);
+                pendingSearchQuery = text;
+                timing.start(TimingModel.Key.SEARCH_RESULTS);
 
                 Log.d(TAG, "输入搜索文本成功: " + text);
                 return;
             }
 
+            tracer.fail(StepTracer.Step.QUERY_INPUT);
             Log.w(TAG, "未找到搜索输入框");
 
         } catch (Exception e) {
@@ -897,6 +1719,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 点击搜索结果
      */
     private void clickSearchResult(String friendName) {
+        tracer.step(StepTracer.Step.RESULT_CLICK);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -911,12 +1734,14 @@ public class WeChatAccessibilityService extends AccessibilityService {
                     AccessibilityNodeInfo clickableNode = findClickableParent(node);
                     if (clickableNode != null) {
                         clickableNode.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                        timing.start(TimingModel.Key.CHAT_OPEN);
                         Log.d(TAG, "点击搜索结果成功: " + friendName);
                         return;
                     }
                 }
             }
 
+            tracer.fail(StepTracer.Step.RESULT_CLICK);
             Log.w(TAG, "未找到搜索结果: " + friendName);
 
         } catch (Exception e) {
@@ -924,56 +1749,11 @@ public class WeChatAccessibilityService extends AccessibilityService {
         }
     }
 
-    /**
-     * 发送消息
-     */
-    private void sendMessages() {
-        if (currentTask == null || currentTask.getMessages().isEmpty()) {
-            Log.e(TAG, "没有要发送的消息");
-            return;
-        }
-
-        Log.d(TAG, "开始发送消息");
-        taskState = TaskState.SENDING_MESSAGE;
-        currentMessageIndex = 0;
-
-        // 发送第一条消息
-        sendNextMessage();
-    }
-
-    /**
-     * 发送下一条消息
-     */
-    private void sendNextMessage() {
-        if (currentTask == null || currentMessageIndex >= currentTask.getMessages().size()) {
-            // 所有消息发送完成,处理下一个好友
-            handleNextFriend();
-            return;
-        }
-
-        SendTask.Message message = currentTask.getMessages().get(currentMessageIndex);
-        Log.d(TAG, String.format("发送第 %d 条消息, 类型: %s", currentMessageIndex + 1, message.getType()));
-
-        if ("text".equals(message.getType())) {
-            sendTextMessage(message.getContent());
-        } else if ("image".equals(message.getType())) {
-            sendImageMessage(message.getContent());
-        } else if ("video".equals(message.getType())) {
-            sendVideoMessage(message.getContent());
-        }
-
-        currentMessageIndex++;
-
-        // 延迟1秒后发送下一条消息
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            sendNextMessage();
-        }, 1000);
-    }
-
     /**
      * 发送文字消息
      */
     private void sendTextMessage(String text) {
+        tracer.step(StepTracer.Step.TEXT_SET);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -1021,13 +1801,14 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
                     // 延迟800ms后点击发送按钮
                     new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                        clickSendButton();
+                        clickSendButton(text, false);
                     }, 800);
                 }, 300);
 
                 return;
             }
 
+            tracer.fail(StepTracer.Step.TEXT_SET);
             Log.w(TAG, "未找到聊天输入框");
 
         } catch (Exception e) {
@@ -1036,9 +1817,12 @@ public class WeChatAccessibilityService extends AccessibilityService {
     }
 
     /**
-     * 点击发送按钮
+     * 点击发送按钮,然后等待发送确认
+     * @param text 要发送的文字,用于确认消息已出现在聊天中
+     * @param isRetry 是否为点击未生效后的重试
      */
-    private void clickSendButton() {
+    private void clickSendButton(String text, boolean isRetry) {
+        tracer.step(StepTracer.Step.SEND);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -1046,6 +1830,9 @@ public class WeChatAccessibilityService extends AccessibilityService {
                 return;
             }
 
+            // 记录点击前聊天中内容相同的消息数量
+            int baseline = SendAckDetector.countMessages(rootNode, text);
+
             // 方法1: 通过resource-id查找发送按钮
             List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId("com.tencent.mm:id/bql");
             if (nodes != null && !nodes.isEmpty()) {
@@ -1054,13 +1841,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
                         node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
                         Log.d(TAG, "点击发送按钮成功 (通过resource-id)");
 
-                        // 当前消息发送完成,标记为已发送
-                        sentMessageIndices.add(currentMessageIndex);
-
-                        // 延迟1秒后继续下一条消息
-                        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                            continueNextMessage();
-                        }, 1000);
+                        awaitSendAck(text, baseline, isRetry);
                         return;
                     }
                 }
@@ -1070,23 +1851,18 @@ public class WeChatAccessibilityService extends AccessibilityService {
             nodes = rootNode.findAccessibilityNodeInfosByText("发送");
             if (nodes != null && !nodes.isEmpty()) {
                 for (AccessibilityNodeInfo node : nodes) {
-                    CharSequence text = node.getText();
-                    if (text != null && "发送".equals(text.toString()) && node.isClickable()) {
+                    CharSequence label = node.getText();
+                    if (label != null && "发送".equals(label.toString()) && node.isClickable()) {
                         node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
                         Log.d(TAG, "点击发送按钮成功 (通过text)");
 
-                        // 当前消息发送完成,标记为已发送
-                        sentMessageIndices.add(currentMessageIndex);
-
-                        // 延迟1秒后继续下一条消息
-                        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                            continueNextMessage();
-                        }, 1000);
+                        awaitSendAck(text, baseline, isRetry);
                         return;
                     }
                 }
             }
 
+            tracer.fail(StepTracer.Step.SEND);
             Log.w(TAG, "未找到发送按钮");
 
         } catch (Exception e) {
@@ -1095,120 +1871,348 @@ public class WeChatAccessibilityService extends AccessibilityService {
     }
 
     /**
-     * 发送图片消息 (使用Intent分享)
+     * 发送图片消息 (使用Intent分享,多张图片合并为一次分享)
      */
-    private void sendImageMessage(String imagePath) {
-        Log.d(TAG, "发送图片消息: " + imagePath);
-        shareFileToWechat(imagePath, "image/*");
+    private void sendImageMessage(ShareBatch batch) {
+        Log.d(TAG, "发送图片消息: " + batch.size() + "张");
+        shareFileToWechat(batch);
     }
 
     /**
      * 发送视频消息 (使用Intent分享)
      */
-    private void sendVideoMessage(String videoPath) {
-        Log.d(TAG, "发送视频消息: " + videoPath);
-        shareFileToWechat(videoPath, "video/*");
+    private void sendVideoMessage(ShareBatch batch) {
+        Log.d(TAG, "发送视频消息: " + batch.size() + "个");
+        shareFileToWechat(batch);
     }
 
     /**
      * 通过Intent分享文件给微信
+     * 单个文件使用ACTION_SEND,多个文件使用ACTION_SEND_MULTIPLE一次分享
      */
-    private void shareFileToWechat(String filePath, String mimeType) {
-        Log.d(TAG, "========== 开始分享文件 ==========");
-        Log.d(TAG, "文件路径: " + filePath);
-        Log.d(TAG, "MIME类型: " + mimeType);
+    private void shareFileToWechat(ShareBatch batch) {
+        if (!mediaPreparer.isReady()) {
+            // 媒体文件还在后台准备(如压缩图片),准备完成后再分享
+            Log.d(TAG, "等待媒体文件准备完成");
+            SendTask task = currentTask;
+            mediaPreparer.runWhenReady(() -> {
+                if (currentTask == task) {
+                    shareFileToWechat(batch);
+                }
+            });
+            return;
+        }
+
+        tracer.step(StepTracer.Step.SHARE_LAUNCH);
 
         try {
-            java.io.File file = new java.io.File(filePath);
-            Log.d(TAG, "文件是否存在: " + file.exists());
-            Log.d(TAG, "文件是否可读: " + file.canRead());
-            Log.d(TAG, "文件大小: " + file.length() + " bytes");
+            // 文件检查和Uri解析在任务开始时已在后台完成,这里直接取结果
+            ArrayList<android.net.Uri> fileUris = new ArrayList<>();
+            List<MediaPreparer.PreparedMedia> prepared = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                MediaPreparer.PreparedMedia media = mediaPreparer.get(batch.getFilePaths().get(i));
+                if (!media.isValid()) {
+                    Log.e(TAG, media.error + ",跳过: " + media.path);
+                    // 无效的文件无法发送,标记为已处理避免重复尝试
+                    sentMessageIndices.add(batch.getMessageIndices().get(i));
+                    continue;
+                }
+                fileUris.add(media.uri);
+                prepared.add(media);
+            }
 
-            if (!file.exists()) {
-                Log.e(TAG, "文件不存在: " + filePath);
+            if (fileUris.isEmpty()) {
+                Log.e(TAG, "分享包中没有可发送的文件");
                 // 继续发送下一条消息
-                currentMessageIndex++;
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    sendNextMessage();
-                }, 1000);
+                onShareFinished(batch, false, 1000);
                 return;
             }
 
-            Log.d(TAG, "开始获取FileProvider Uri...");
-            // 使用FileProvider获取Uri
-            android.net.Uri fileUri = androidx.core.content.FileProvider.getUriForFile(
-                this,
-                "com.wechat.auto.fileprovider",
-                file
-            );
-            Log.d(TAG, "FileProvider Uri: " + fileUri.toString());
-
             // 创建分享Intent
-            Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType(mimeType);
+            Intent shareIntent;
+            if (fileUris.size() > 1) {
+                shareIntent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+                shareIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, fileUris);
+            } else {
+                shareIntent = new Intent(Intent.ACTION_SEND);
+                shareIntent.putExtra(Intent.EXTRA_STREAM, fileUris.get(0));
+            }
+            shareIntent.setType(MediaPreparer.commonMimeType(prepared, batch.getMimeType()));
             shareIntent.setPackage(WECHAT_PACKAGE);
-            shareIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
             shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
             shareIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 
-            // 保存当前要分享的好友名称
-            currentShareFriendName = currentTask.getFriendNames().get(currentFriendIndex);
-            currentShareFilePath = filePath;
-            isInShareMode = true;
-            taskState = TaskState.SHARING_FILE;
+            // 保存当前要分享的好友名称
+            enterShareMode(batch);
+
+            Log.d(TAG, String.format("启动分享Intent(%s, %d个文件),目标好友: %s",
+                shareIntent.getAction(), fileUris.size(), currentShareFriendName));
+
+            // 优先直接启动微信的"发送给朋友"入口,跳过系统选择器
+            ComponentName shareTarget = resolveShareTarget(shareIntent.getAction(), batch.getMimeType());
+            if (shareTarget != null && startDirectShare(shareIntent, shareTarget, batch)) {
+                return;
+            }
+
+            // 启动分享 (经过系统选择器)
+            startActivity(shareIntent);
+            Log.d(TAG, "startActivity() 调用成功");
+
+        } catch (Exception e) {
+            Log.e(TAG, "========== 分享文件失败 ==========");
+            Log.e(TAG, "错误类型: " + e.getClass().getName());
+            Log.e(TAG, "错误信息: " + e.getMessage(), e);
+
+            // 分享失败的文件跳过,继续发送下一条消息
+            onShareFinished(batch, false, 1000);
+        }
+    }
+
+    /**
+     * 直接启动微信分享入口
+     * @return 是否启动成功(失败时由调用方改用系统选择器)
+     */
+    private boolean startDirectShare(Intent shareIntent, ComponentName target, ShareBatch batch) {
+        Intent directIntent = new Intent(shareIntent);
+        directIntent.setComponent(target);
+        try {
+            startActivity(directIntent);
+            timing.start(TimingModel.Key.SHARE_OPEN);
+            Log.d(TAG, "直接启动分享入口: " + target.getClassName());
+        } catch (android.content.ActivityNotFoundException | SecurityException e) {
+            Log.w(TAG, "直接启动分享入口失败,改用系统选择器: " + e.getMessage());
+            invalidateShareTarget(shareIntent.getAction(), batch.getMimeType());
+            return false;
+        }
+
+        // 分享界面迟迟没有出现(例如微信升级后入口变化),改用系统选择器重新分享
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            if (currentShareBatch == batch && isInShareMode && !isShareSearchStarted) {
+                Log.w(TAG, "分享界面未出现,改用系统选择器");
+                invalidateShareTarget(shareIntent.getAction(), batch.getMimeType());
+                try {
+                    startActivity(shareIntent);
+                } catch (Exception e) {
+                    Log.e(TAG, "系统选择器分享失败: " + e.getMessage(), e);
+                    onShareFinished(batch, false, 1000);
+                }
+            }
+        }, timing.timeout(TimingModel.Key.SHARE_OPEN, DIRECT_SHARE_TIMEOUT_MS));
+        return true;
+    }
+
+    /**
+     * 解析微信"发送给朋友"分享入口 (内存和SharedPreferences两级缓存,微信版本变化后重新解析)
+     */
+    private ComponentName resolveShareTarget(String action, String mimeType) {
+        String key = action + "|" + mimeType;
+        if (shareTargetCache.containsKey(key)) {
+            return shareTargetCache.get(key);
+        }
+
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String prefsKey = "share_target_" + key;
+        String versionKey = "share_target_version_" + key;
+        long wechatVersion = getWechatVersionCode();
+
+        ComponentName target = null;
+        String cached = prefs.getString(prefsKey, null);
+        if (cached != null && prefs.getLong(versionKey, -1) == wechatVersion) {
+            target = ComponentName.unflattenFromString(cached);
+        } else {
+            Intent probe = new Intent(action);
+            probe.setType(mimeType);
+            probe.setPackage(WECHAT_PACKAGE);
+            List<android.content.pm.ResolveInfo> infos = getPackageManager().queryIntentActivities(probe, 0);
+            for (android.content.pm.ResolveInfo info : infos) {
+                if (info.activityInfo != null && info.activityInfo.name.endsWith(WECHAT_SHARE_TO_FRIEND_UI)) {
+                    target = new ComponentName(info.activityInfo.packageName, info.activityInfo.name);
+                    break;
+                }
+            }
+
+            if (target != null) {
+                prefs.edit()
+                    .putString(prefsKey, target.flattenToString())
+                    .putLong(versionKey, wechatVersion)
+                    .apply();
+            }
+            Log.d(TAG, "解析分享入口 " + key + ": " + (target != null ? target.getClassName() : "未找到"));
+        }
+
+        shareTargetCache.put(key, target);
+        return target;
+    }
+
+    /**
+     * 分享入口不可用时清除缓存,本次服务运行期间改用系统选择器
+     */
+    private void invalidateShareTarget(String action, String mimeType) {
+        String key = action + "|" + mimeType;
+        shareTargetCache.put(key, null);
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+            .remove("share_target_" + key)
+            .remove("share_target_version_" + key)
+            .apply();
+    }
+
+    /**
+     * 获取微信版本号
+     */
+    private long getWechatVersionCode() {
+        try {
+            android.content.pm.PackageInfo info = getPackageManager().getPackageInfo(WECHAT_PACKAGE, 0);
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.P) {
+                return info.getLongVersionCode();
+            }
+            return info.versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 等待发送确认: 输入框清空且聊天中出现新消息后立即继续
+     * 超时时: 输入框已清空按已发送处理;文字还在输入框里则重试点击一次,仍失败则跳过这条消息
+     */
+    private void awaitSendAck(String text, int baseline, boolean isRetry) {
+        long timeout = timing.timeout(TimingModel.Key.SEND_ACK, SendAckDetector.DEFAULT_TIMEOUT_MS);
+        sendAckDetector.arm(text, baseline, timeout, new SendAckDetector.Callback() {
+            @Override
+            public void onConfirmed(long latencyMillis) {
+                Log.d(TAG, "已确认发送成功, 耗时" + latencyMillis + "ms");
+                timing.record(TimingModel.Key.SEND_ACK, latencyMillis);
+                onTextMessageSent();
+            }
+
+            @Override
+            public void onTimeout(boolean inputCleared) {
+                if (inputCleared) {
+                    Log.w(TAG, "输入框已清空但未找到新消息,按已发送处理");
+                    onTextMessageSent();
+                } else if (!isRetry) {
+                    Log.w(TAG, "发送未生效,重新点击发送按钮");
+                    clickSendButton(text, true);
+                } else {
+                    // 不写入任务日志,恢复任务时会重新发送这条消息
+                    tracer.fail(StepTracer.Step.SEND);
+                    Log.e(TAG, "消息发送失败,跳过: " + text);
+                    sentMessageIndices.add(currentMessageIndex);
+                    continueNextMessage();
+                }
+            }
+        });
+    }
 
-            Log.d(TAG, "启动分享Intent,目标好友: " + currentShareFriendName);
-            Log.d(TAG, "Intent包名: " + WECHAT_PACKAGE);
-            Log.d(TAG, "Intent Flags: " + shareIntent.getFlags());
+    /**
+     * 当前文字消息发送完成: 标记为已发送并写入任务日志后,立即继续下一条消息
+     */
+    private void onTextMessageSent() {
+        sentMessageIndices.add(currentMessageIndex);
+        recordCompletedOps(Collections.singletonList(currentFriendIndex),
+            Collections.singletonList(currentMessageIndex), () -> {
+                continueNextMessage();
+            });
+    }
 
-            // 启动分享
-            startActivity(shareIntent);
-            Log.d(TAG, "startActivity() 调用成功");
+    /**
+     * 进入分享模式,等待微信分享界面(或转发选择界面)出现后搜索好友
+     */
+    private void enterShareMode(ShareBatch batch) {
+        currentShareFriendName = batch.getFriendNames().get(0);
+        currentShareBatch = batch;
+        isShareSearchStarted = false;
+        isShareSearchScheduled = false;
+        isShareMultiSelectEnabled = false;
+        shareRecipientCursor = 0;
+        shareSelectedFriends.clear();
+        isInShareMode = true;
+        taskState = TaskState.SHARING_FILE;
+        startShareWatchdog(batch);
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "========== 分享文件失败 ==========");
-            Log.e(TAG, "错误类型: " + e.getClass().getName());
-            Log.e(TAG, "错误信息: " + e.getMessage(), e);
-            isInShareMode = false;
+    /**
+     * 分享界面没有出现、搜索框或搜索结果一直找不到时,超时后放弃该分享包并继续下一步,避免任务一直停在分享界面
+     */
+    private void startShareWatchdog(ShareBatch batch) {
+        cancelShareWatchdog();
+        long timeout = SHARE_WATCHDOG_MS + SHARE_WATCHDOG_PER_FRIEND_MS * (batch.getFriendNames().size() - 1);
+        shareWatchdog = () -> {
+            shareWatchdog = null;
+            if (currentShareBatch != batch || !isInShareMode || taskState != TaskState.SHARING_FILE) {
+                return;
+            }
+            Log.w(TAG, String.format("分享超时(%dms)未确认发送,跳过该分享包: %s", timeout, batch.getFriendNames()));
+            tracer.fail(StepTracer.Step.SHARE_CONFIRM);
+            performGlobalAction(GLOBAL_ACTION_BACK);
+            onShareFinished(batch, false, 1000);
+        };
+        shareHandler.postDelayed(shareWatchdog, timeout);
+    }
 
-            // 继续发送下一条消息
-            currentMessageIndex++;
-            new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                sendNextMessage();
-            }, 1000);
+    private void cancelShareWatchdog() {
+        if (shareWatchdog != null) {
+            shareHandler.removeCallbacks(shareWatchdog);
+            shareWatchdog = null;
         }
     }
 
     /**
-     * 处理下一个好友
+     * 当前分享包处理结束(已发送或跳过),退出分享模式并继续下一步
      */
-    private void handleNextFriend() {
-        currentFriendIndex++;
-
-        if (currentFriendIndex >= currentTask.getFriendNames().size()) {
-            // 所有好友处理完成
-            taskCompleted();
-            return;
+    private void onShareFinished(ShareBatch batch, boolean sent, long delayMillis) {
+        cancelShareWatchdog();
+        isInShareMode = false;
+        isShareSearchStarted = false;
+        isShareSearchScheduled = false;
+        currentShareFriendName = null;
+        currentShareBatch = null;
+
+        // 转发模式: 记录已分享到中转聊天的消息,用于定位待转发的消息
+        if (sent && !batch.isForward() && currentTask != null
+                && currentTask.getShareMode() == SendTask.ShareMode.FORWARD_FROM_STAGING) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (mediaPreparer.get(batch.getFilePaths().get(i)).isValid()) {
+                    stagedMessageIndices.add(batch.getMessageIndices().get(i));
+                }
+            }
         }
 
-        Log.d(TAG, String.format("处理下一个好友 (%d/%d)",
-            currentFriendIndex + 1, currentTask.getFriendNames().size()));
-
-        // 返回微信主界面
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            performGlobalAction(GLOBAL_ACTION_BACK);
-        }, 500);
-
-        // 延迟1秒后返回到主界面
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            performGlobalAction(GLOBAL_ACTION_BACK);
-        }, 1500);
+        List<Integer> recipients = new ArrayList<>();
+        if (recipientBatches != null) {
+            // 批量模式: 进入下一个分享包
+            recipientBatchIndex++;
+            progressChannel.markDirty();
+            if (sent && !isStagingBatch(batch)) {
+                List<String> names = shareSelectedFriends.isEmpty()
+                    ? batch.getFriendNames() : shareSelectedFriends;
+                for (String name : names) {
+                    Integer friendIndex = friendIndexByName.get(name);
+                    if (friendIndex != null) {
+                        recipients.add(friendIndex);
+                    }
+                }
+            }
+        } else {
+            // 逐个好友模式: 分享包内的消息全部标记为已发送
+            sentMessageIndices.addAll(batch.getMessageIndices());
+            if (sent) {
+                recipients.add(currentFriendIndex);
+            }
+        }
 
-        // 延迟2秒后搜索下一个好友
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            String nextFriend = currentTask.getFriendNames().get(currentFriendIndex);
-            searchFriend(nextFriend);
-        }, 2500);
+        // 已发送的分享包先写入任务日志,再继续下一步
+        List<Integer> messageIndices = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (mediaPreparer.get(batch.getFilePaths().get(i)).isValid()) {
+                messageIndices.add(batch.getMessageIndices().get(i));
+            }
+        }
+        recordCompletedOps(recipients, messageIndices, () -> {
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                processNextMessage();
+            }, delayMillis);
+        });
     }
 
     /**
@@ -1216,13 +2220,60 @@ public class WeChatAccessibilityService extends AccessibilityService {
      */
     private void taskCompleted() {
         Log.d(TAG, "所有任务执行完成!");
+        taskJournal.finish(currentTaskId, TaskRecord.STATUS_COMPLETED);
+        publishTerminal(TaskProgressChannel.TerminalEvent.Status.COMPLETED, null);
+        resetTaskState();
+        tracer.export(this);
         taskState = TaskState.TASK_COMPLETED;
+
+        // 继续执行队列中的下一个任务
+        onJobFinished();
+    }
+
+    /**
+     * 发布任务结束事件: 通知进度通道的订阅者,并发送一次应用内广播
+     * 需要在清除任务状态之前调用,以便带上结束时的进度
+     */
+    private void publishTerminal(TaskProgressChannel.TerminalEvent.Status status, String reason) {
+        TaskProgress progress = getProgress();
+        String jobLabel = activeJob != null ? activeJob.toString() : null;
+        progressChannel.publishTerminal(new TaskProgressChannel.TerminalEvent(status, jobLabel, progress, reason));
+
+        Intent intent = new Intent(ACTION_TASK_FINISHED);
+        intent.setPackage(getPackageName());
+        intent.putExtra(EXTRA_STATUS, status.name());
+        intent.putExtra(EXTRA_COMPLETED, progress.completedRecipients);
+        intent.putExtra(EXTRA_TOTAL, progress.totalRecipients);
+        sendBroadcast(intent);
+        Log.d(TAG, "任务结束: " + status + (reason != null ? " (" + reason + ")" : ""));
+    }
+
+    /**
+     * 清除当前任务的执行状态
+     */
+    private void resetTaskState() {
+        sendAckDetector.disarm();
+        sendLedger.flush();
+        timing.cancel();
+        timing.save();
+        mediaPreparer.clear();
+        textTemplates = null;
+        aiGenerator.stop();
+        pendingSearchQuery = null;
+        tracer.end();
+        taskState = TaskState.IDLE;
         isAutoTaskRunning = false;
         currentTask = null;
+        currentTaskId = -1;
+        completedOps = new HashSet<>();
         currentFriendIndex = 0;
         currentMessageIndex = 0;
-
-        // TODO: 发送广播通知任务完成
+        recipientBatches = null;
+        stagedMessageIndices.clear();
+        isInStagingChat = false;
+        pendingForwardBatch = null;
+        recentFriendTimes.clear();
+        plannedShareBatches = null;
     }
 
     /**
@@ -1264,6 +2315,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 点击"发送给朋友"选项
      */
     private void clickSendToFriend() {
+        tracer.step(StepTracer.Step.SHARE_CHOOSER);
         AccessibilityNodeInfo rootNode = getRootInActiveWindow();
         if (rootNode == null) {
             Log.e(TAG, "无法获取根节点");
@@ -1288,6 +2340,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
             }
         }
 
+        tracer.fail(StepTracer.Step.SHARE_CHOOSER);
         Log.e(TAG, "未找到'发送给朋友'选项");
     }
 
@@ -1303,11 +2356,21 @@ public class WeChatAccessibilityService extends AccessibilityService {
             return;
         }
 
+        // 已在搜索框中输入好友后忽略后续的界面刷新事件;
+        // 搜索框还没出现或没找到搜索结果时,由下一个界面事件重新搜索 (超时由分享看门狗兜底)
+        if (isShareSearchStarted || isShareSearchScheduled) {
+            return;
+        }
+        isShareSearchScheduled = true;
+
         Log.d(TAG, "处理分享界面事件");
 
         // 延迟1秒后尝试搜索好友
         new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            searchFriendInShareDialog();
+            isShareSearchScheduled = false;
+            if (isInShareMode && !isShareSearchStarted) {
+                searchFriendInShareDialog();
+            }
         }, 1000);
     }
 
@@ -1315,6 +2378,19 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 在分享对话框中搜索好友
      */
     private void searchFriendInShareDialog() {
+        tracer.step(StepTracer.Step.SHARE_SEARCH);
+        // 多位收件人: 先进入"多选",再逐个搜索勾选
+        if (isMultiRecipientShare() && !isShareMultiSelectEnabled) {
+            isShareMultiSelectEnabled = true;
+            if (!clickMultiSelectInShareDialog()) {
+                splitRemainingRecipients();
+            }
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                searchFriendInShareDialog();
+            }, 500);
+            return;
+        }
+
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -1338,6 +2414,9 @@ public class WeChatAccessibilityService extends AccessibilityService {
 
                 Log.d(TAG, "找到搜索框,准备输入好友名称");
 
+                // 输入期间不再由界面事件触发搜索
+                isShareSearchStarted = true;
+
                 // 延迟500ms后输入好友名称
                 new Handler(Looper.getMainLooper()).postDelayed(() -> {
                     Bundle arguments = new Bundle();
@@ -1345,7 +2424,12 @@ public class WeChatAccessibilityService extends AccessibilityService {
                         AccessibilityNodeInfo.ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE,
                         currentShareFriendName
                     );
-                    searchBox.performAction(AccessibilityNodeInfo.ACTION_SET_TEXT, arguments);
+                    if (!searchBox.performAction(AccessibilityNodeInfo.ACTION_SET_TEXT, arguments)) {
+                        // 搜索框已失效(界面还在切换),等下一个界面事件重新搜索
+                        Log.w(TAG, "输入好友名称失败,等待界面刷新后重试");
+                        isShareSearchStarted = false;
+                        return;
+                    }
 
                     Log.d(TAG, "输入好友名称: " + currentShareFriendName);
 
@@ -1358,6 +2442,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
                 return;
             }
 
+            tracer.fail(StepTracer.Step.SHARE_SEARCH);
             Log.w(TAG, "未找到搜索框");
 
         } catch (Exception e) {
@@ -1369,6 +2454,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 点击分享对话框中的搜索结果
      */
     private void clickSearchResultInShareDialog() {
+        tracer.step(StepTracer.Step.SHARE_SELECT);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -1385,6 +2471,13 @@ public class WeChatAccessibilityService extends AccessibilityService {
                         clickableNode.performAction(AccessibilityNodeInfo.ACTION_CLICK);
                         Log.d(TAG, "点击搜索结果: " + currentShareFriendName);
 
+                        if (isMultiRecipientShare()) {
+                            // 多选模式: 勾选后继续选择下一位好友
+                            shareSelectedFriends.add(currentShareFriendName);
+                            selectNextShareRecipient();
+                            return;
+                        }
+
                         // 延迟1秒后点击发送按钮
                         new Handler(Looper.getMainLooper()).postDelayed(() -> {
                             clickSendButtonInShareDialog();
@@ -1395,8 +2488,17 @@ public class WeChatAccessibilityService extends AccessibilityService {
                 }
             }
 
+            tracer.fail(StepTracer.Step.SHARE_SELECT);
             Log.w(TAG, "未找到搜索结果: " + currentShareFriendName);
 
+            if (isMultiRecipientShare()) {
+                // 多选模式: 跳过找不到的好友,继续选择下一位
+                selectNextShareRecipient();
+            } else {
+                // 搜索结果可能还没加载出来,等下一个界面事件重新搜索
+                isShareSearchStarted = false;
+            }
+
         } catch (Exception e) {
             Log.e(TAG, "点击搜索结果失败: " + e.getMessage(), e);
         }
@@ -1406,6 +2508,7 @@ public class WeChatAccessibilityService extends AccessibilityService {
      * 点击分享对话框中的发送按钮
      */
     private void clickSendButtonInShareDialog() {
+        tracer.step(StepTracer.Step.SHARE_CONFIRM);
         try {
             AccessibilityNodeInfo rootNode = getRootInActiveWindow();
             if (rootNode == null) {
@@ -1423,31 +2526,390 @@ public class WeChatAccessibilityService extends AccessibilityService {
                 for (AccessibilityNodeInfo button : sendButtons) {
                     if (button.isClickable()) {
                         button.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                        timing.start(TimingModel.Key.SHARE_CONFIRM);
                         Log.d(TAG, "点击发送按钮成功");
 
-                        // 分享完成,退出分享模式
-                        isInShareMode = false;
-                        currentShareFriendName = null;
-                        currentShareFilePath = null;
+                        // 分享完成,等分享界面关闭后继续下一条消息
+                        onShareFinished(currentShareBatch, true, timing.delay(TimingModel.Key.SHARE_CONFIRM));
+                        return;
+                    }
+                }
+            }
+
+            tracer.fail(StepTracer.Step.SHARE_CONFIRM);
+            Log.w(TAG, "未找到发送按钮");
 
-                        // 当前消息发送完成,索引+1
-                        currentMessageIndex++;
+        } catch (Exception e) {
+            Log.e(TAG, "点击发送按钮失败: " + e.getMessage(), e);
+        }
+    }
 
-                        // 延迟2秒后继续下一条消息
-                        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                            processNextMessage();
-                        }, 2000);
+    /**
+     * 当前分享包是否需要发送给多位好友
+     */
+    private boolean isMultiRecipientShare() {
+        return currentShareBatch != null && currentShareBatch.getFriendNames().size() > 1;
+    }
+
+    /**
+     * 点击分享界面右上角的"多选"
+     */
+    private boolean clickMultiSelectInShareDialog() {
+        AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+        if (rootNode == null) {
+            Log.e(TAG, "无法获取根节点");
+            return false;
+        }
+
+        List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByText("多选");
+        if (nodes != null) {
+            for (AccessibilityNodeInfo node : nodes) {
+                AccessibilityNodeInfo clickableNode = findClickableParent(node);
+                if (clickableNode != null && clickableNode.performAction(AccessibilityNodeInfo.ACTION_CLICK)) {
+                    Log.d(TAG, "点击'多选'成功");
+                    return true;
+                }
+            }
+        }
+
+        Log.w(TAG, "未找到'多选'选项");
+        return false;
+    }
+
+    /**
+     * 无法进入"多选"时,本次只分享给第一位好友,其余好友拆成新的分享包稍后发送
+     */
+    private void splitRemainingRecipients() {
+        List<String> friends = currentShareBatch.getFriendNames();
+        ShareBatch rest = new ShareBatch(currentShareBatch.getType());
+        rest.setForward(currentShareBatch.isForward());
+        for (int i = 0; i < currentShareBatch.size(); i++) {
+            rest.addFile(currentShareBatch.getMessageIndices().get(i), currentShareBatch.getFilePaths().get(i));
+        }
+        for (int i = 1; i < friends.size(); i++) {
+            rest.addFriend(friends.get(i));
+        }
+        friends.subList(1, friends.size()).clear();
+
+        if (recipientBatches != null) {
+            recipientBatches.add(recipientBatchIndex + 1, rest);
+        }
+        Log.w(TAG, "无法多选,本次只分享给: " + friends.get(0) + ", 其余" + rest.getFriendNames().size() + "位稍后分享");
+    }
+
+    /**
+     * 多选模式: 选择下一位好友,全部选完后点击"完成"
+     */
+    private void selectNextShareRecipient() {
+        shareRecipientCursor++;
+        if (shareRecipientCursor < currentShareBatch.getFriendNames().size()) {
+            currentShareFriendName = currentShareBatch.getFriendNames().get(shareRecipientCursor);
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                searchFriendInShareDialog();
+            }, 500);
+            return;
+        }
+
+        if (shareSelectedFriends.isEmpty()) {
+            // 一个好友都没选中,退出分享界面,跳过这个分享包
+            Log.w(TAG, "分享包中的好友均未找到,跳过");
+            performGlobalAction(GLOBAL_ACTION_BACK);
+            onShareFinished(currentShareBatch, false, 1000);
+            return;
+        }
+
+        Log.d(TAG, "已选择" + shareSelectedFriends.size() + "位好友,准备点击完成");
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            clickDoneInShareDialog();
+        }, 1000);
+    }
+
+    /**
+     * 多选模式: 点击"完成(n)"按钮,弹出发送确认框
+     */
+    private void clickDoneInShareDialog() {
+        tracer.step(StepTracer.Step.SHARE_CONFIRM);
+        try {
+            AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+            if (rootNode == null) {
+                Log.e(TAG, "无法获取根节点");
+                return;
+            }
+
+            // 按钮文字为"完成(n)"
+            List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByText("完成");
+            for (AccessibilityNodeInfo node : nodes) {
+                AccessibilityNodeInfo clickableNode = findClickableParent(node);
+                if (clickableNode != null && clickableNode.performAction(AccessibilityNodeInfo.ACTION_CLICK)) {
+                    Log.d(TAG, "点击'完成'成功");
+
+                    // 延迟1秒后点击确认框的发送按钮
+                    new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                        clickSendButtonInShareDialog();
+                    }, 1000);
+                    return;
+                }
+            }
+
+            tracer.fail(StepTracer.Step.SHARE_CONFIRM);
+            Log.w(TAG, "未找到'完成'按钮");
+
+        } catch (Exception e) {
+            Log.e(TAG, "点击完成按钮失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 转发模式: 在中转聊天里长按已发送的消息,转发给分享包中的好友
+     */
+    private void forwardStagedMessage(ShareBatch batch) {
+        int position = stagedMessageIndices.indexOf(batch.getMessageIndices().get(0));
+        if (position < 0) {
+            Log.w(TAG, "消息未成功发送到中转聊天,跳过转发: " + batch.getFilePaths().get(0));
+            onShareFinished(batch, false, 0);
+            return;
+        }
+
+        if (!isInStagingChat) {
+            // 先打开中转聊天,进入后由handleWindowStateChanged继续
+            String stagingChat = currentTask.getStagingChat();
+            Log.d(TAG, "打开中转聊天: " + stagingChat);
+            pendingForwardBatch = batch;
+            launchWeChat();
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                searchFriend(stagingChat);
+            }, timing.delay(TimingModel.Key.LAUNCH));
+            return;
+        }
+
+        // 消息在中转聊天的媒体消息中距底部的位置(0=最后一条)
+        int bubbleOffset = stagedMessageIndices.size() - 1 - position;
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            longPressStagedMessage(batch, bubbleOffset);
+        }, 1000);
+    }
+
+    /**
+     * 长按中转聊天中的消息,弹出操作菜单
+     * 聊天列表中夹着时间、系统提示等行,屏幕外的行会被回收,不能按行号定位;
+     * 这里只数图片/视频气泡,并核对从底部数起的每个气泡的类型与已分享到中转聊天的消息一致,
+     * 对不上时放弃该分享包,避免把别的消息转发给一批好友
+     */
+    private void longPressStagedMessage(ShareBatch batch, int bubbleOffset) {
+        tracer.step(StepTracer.Step.FORWARD_PRESS);
+        try {
+            AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+            AccessibilityNodeInfo messageList = rootNode != null ? findLargestScrollable(rootNode) : null;
+            if (messageList == null) {
+                tracer.fail(StepTracer.Step.FORWARD_PRESS);
+                Log.w(TAG, "未找到中转聊天的消息列表,跳过转发");
+                onShareFinished(batch, false, 1000);
+                return;
+            }
+
+            // 从底部往上找媒体气泡,逐个核对类型
+            int minSize = (int) (MIN_MEDIA_BUBBLE_DP * getResources().getDisplayMetrics().density);
+            AccessibilityNodeInfo target = null;
+            int matched = 0;
+            for (int i = messageList.getChildCount() - 1; i >= 0 && matched <= bubbleOffset; i--) {
+                AccessibilityNodeInfo row = messageList.getChild(i);
+                AccessibilityNodeInfo media = row != null ? findMediaBubble(row, minSize) : null;
+                if (media == null) {
+                    continue; // 时间、系统提示、文字消息
+                }
+                String expected = currentTask.getMessages()
+                    .get(stagedMessageIndices.get(stagedMessageIndices.size() - 1 - matched)).getType();
+                String actual = isVideoBubble(row) ? "video" : "image";
+                if (!expected.equals(actual)) {
+                    Log.w(TAG, String.format("中转聊天中距底部第%d个媒体消息是%s,应为%s",
+                        matched, actual, expected));
+                    break;
+                }
+                if (matched == bubbleOffset) {
+                    target = media;
+                }
+                matched++;
+            }
+
+            if (target == null) {
+                tracer.fail(StepTracer.Step.FORWARD_PRESS);
+                Log.w(TAG, "无法确认中转聊天中要转发的消息(距底部第" + bubbleOffset + "个媒体消息),跳过转发");
+                onShareFinished(batch, false, 1000);
+                return;
+            }
+
+            AccessibilityNodeInfo pressable = findLongClickableParent(target);
+            boolean pressed;
+            if (pressable != null) {
+                pressed = pressable.performAction(AccessibilityNodeInfo.ACTION_LONG_CLICK);
+            } else {
+                // 找不到可长按的节点,用手势长按气泡中心
+                android.graphics.Rect rect = new android.graphics.Rect();
+                target.getBoundsInScreen(rect);
+                pressed = performLongPressGesture(rect.centerX(), rect.centerY());
+            }
+            Log.d(TAG, "长按消息(距底部第" + bubbleOffset + "个媒体消息): " + (pressed ? "成功" : "失败"));
+            if (!pressed) {
+                tracer.fail(StepTracer.Step.FORWARD_PRESS);
+                onShareFinished(batch, false, 1000);
+                return;
+            }
+
+            // 延迟800ms后点击"转发"
+            new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                clickForwardMenuItem(batch);
+            }, 800);
+
+        } catch (Exception e) {
+            Log.e(TAG, "长按消息失败: " + e.getMessage(), e);
+            onShareFinished(batch, false, 1000);
+        }
+    }
+
+    /**
+     * 消息行中的图片/视频气泡: 描述为图片/视频的节点,或足够大的ImageView (头像较小且描述为"头像")
+     */
+    private static AccessibilityNodeInfo findMediaBubble(AccessibilityNodeInfo node, int minSize) {
+        CharSequence desc = node.getContentDescription();
+        String description = desc != null ? desc.toString() : "";
+        if (!description.contains("头像")) {
+            if (description.contains("图片") || description.contains("视频")) {
+                return node;
+            }
+            CharSequence className = node.getClassName();
+            if (className != null && className.toString().endsWith("ImageView")) {
+                android.graphics.Rect rect = new android.graphics.Rect();
+                node.getBoundsInScreen(rect);
+                if (Math.max(rect.width(), rect.height()) >= minSize) {
+                    return node;
+                }
+            }
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child != null) {
+                AccessibilityNodeInfo found = findMediaBubble(child, minSize);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 视频气泡带有"视频"描述或时长文字(如 0:15)
+     */
+    private static boolean isVideoBubble(AccessibilityNodeInfo node) {
+        CharSequence desc = node.getContentDescription();
+        if (desc != null && desc.toString().contains("视频")) {
+            return true;
+        }
+        CharSequence text = node.getText();
+        if (text != null && VIDEO_DURATION_PATTERN.matcher(text.toString().trim()).matches()) {
+            return true;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child != null && isVideoBubble(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * 点击长按菜单中的"转发",之后的选择好友流程与分享相同
+     */
+    private void clickForwardMenuItem(ShareBatch batch) {
+        tracer.step(StepTracer.Step.FORWARD_MENU);
+        AccessibilityNodeInfo rootNode = getRootInActiveWindow();
+        if (rootNode != null) {
+            List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByText("转发");
+            for (AccessibilityNodeInfo node : nodes) {
+                AccessibilityNodeInfo clickableNode = findClickableParent(node);
+                if (clickableNode != null) {
+                    // 先进入分享模式,再点击,避免漏掉选择界面的窗口事件
+                    enterShareMode(batch);
+                    if (clickableNode.performAction(AccessibilityNodeInfo.ACTION_CLICK)) {
+                        Log.d(TAG, "点击'转发'成功");
                         return;
                     }
+                    isInShareMode = false;
+                    cancelShareWatchdog();
                 }
             }
+        }
 
-            Log.w(TAG, "未找到发送按钮");
+        tracer.fail(StepTracer.Step.FORWARD_MENU);
+        Log.w(TAG, "未找到'转发'菜单,跳过");
+        performGlobalAction(GLOBAL_ACTION_BACK);
+        onShareFinished(batch, false, 1000);
+    }
+
+    /**
+     * 查找面积最大的可滚动节点(聊天消息列表、朋友圈相册)
+     */
+    static AccessibilityNodeInfo findLargestScrollable(AccessibilityNodeInfo node) {
+        AccessibilityNodeInfo best = null;
+        long bestArea = 0;
+        if (node.isScrollable()) {
+            android.graphics.Rect rect = new android.graphics.Rect();
+            node.getBoundsInScreen(rect);
+            best = node;
+            bestArea = (long) rect.width() * rect.height();
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
+            if (child == null) {
+                continue;
+            }
+            AccessibilityNodeInfo candidate = findLargestScrollable(child);
+            if (candidate != null) {
+                android.graphics.Rect rect = new android.graphics.Rect();
+                candidate.getBoundsInScreen(rect);
+                long area = (long) rect.width() * rect.height();
+                if (best == null || area > bestArea) {
+                    best = candidate;
+                    bestArea = area;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * 查找节点自身或最近的可长按的父节点
+     */
+    private static AccessibilityNodeInfo findLongClickableParent(AccessibilityNodeInfo node) {
+        for (AccessibilityNodeInfo current = node; current != null; current = current.getParent()) {
+            if (current.isLongClickable()) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 执行长按手势
+     */
+    private boolean performLongPressGesture(int x, int y) {
+        try {
+            Path path = new Path();
+            path.moveTo(x, y);
+
+            GestureDescription.StrokeDescription stroke =
+                new GestureDescription.StrokeDescription(path, 0, 800);
+            GestureDescription.Builder builder = new GestureDescription.Builder();
+            builder.addStroke(stroke);
+
+            return dispatchGesture(builder.build(), null, null);
 
         } catch (Exception e) {
-            Log.e(TAG, "点击发送按钮失败: " + e.getMessage(), e);
+            Log.e(TAG, "执行长按手势失败: " + e.getMessage(), e);
+            return false;
         }
     }
 }
-
@@ -0,0 +1,437 @@
+package com.wechat.auto.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.wechat.auto.model.SendTask;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * AI改写文字消息
+ * 开启后每位好友的文字消息先交给AI按好友改写,再发送。
+ * 一次请求要几秒,逐个好友同步请求会让每位好友都多等几秒,所以按流水线处理:
+ * 发送当前好友时,后台已经在为接下来PREFETCH_WINDOW位好友并发生成
+ *
+ * 1. 接口兼容OpenAI的/chat/completions (COZE等可以通过兼容网关接入),使用流式响应,
+ *    超过MAX_LENGTH字或没有正常结束(被截断)的结果视为失败,发送原文,不会把半句话发给好友
+ * 2. 结果按 好友昵称 + 原文 缓存在有上限的LRU中,任务恢复或重发时不重复请求
+ * 3. 轮到某位好友时结果还没回来,最多等WAIT_TIMEOUT_MS,超时或请求失败都发送原文,不会卡住任务
+ *
+ * 本地测试可以用 src/ai_stub_server.py 模拟AI服务
+ * 除网络回调外只在主线程使用
+ */
+public class AiMessageGenerator {
+
+    private static final String TAG = "AiMessageGenerator";
+    private static final String PREFS_NAME = "WeChatAutoPrefs";
+    private static final String KEY_BASE_URL = "ai_base_url";
+    private static final String KEY_API_KEY = "ai_api_key";
+    private static final String KEY_MODEL = "ai_model";
+    private static final String KEY_SYSTEM_PROMPT = "ai_system_prompt";
+
+    public static final String DEFAULT_MODEL = "gpt-4o-mini";
+    public static final String DEFAULT_SYSTEM_PROMPT =
+        "你是私域运营助手。根据好友昵称改写给出的消息,语气自然亲切,保留原意和所有关键信息,"
+        + "不要添加称呼以外的新内容,只输出改写后的消息。";
+
+    private static final int PREFETCH_WINDOW = 3;        // 提前生成的好友数 (也是最大并发请求数)
+    private static final int CACHE_SIZE = 256;           // 缓存的生成结果条数
+    private static final long WAIT_TIMEOUT_MS = 4000;    // 轮到好友时最多等待生成结果的时间
+    private static final long REQUEST_TIMEOUT_MS = 20000; // 单次请求的总超时
+    private static final int MAX_LENGTH = 500;           // 生成结果的最大长度
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /**
+     * AI服务配置 (保存在SharedPreferences中)
+     */
+    public static class Config {
+        public String baseUrl;
+        public String apiKey;
+        public String model;
+        public String systemPrompt;
+
+        public static Config load(Context context) {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            Config config = new Config();
+            config.baseUrl = prefs.getString(KEY_BASE_URL, "");
+            config.apiKey = prefs.getString(KEY_API_KEY, "");
+            config.model = prefs.getString(KEY_MODEL, DEFAULT_MODEL);
+            config.systemPrompt = prefs.getString(KEY_SYSTEM_PROMPT, DEFAULT_SYSTEM_PROMPT);
+            return config;
+        }
+
+        public void save(Context context) {
+            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_BASE_URL, baseUrl)
+                .putString(KEY_API_KEY, apiKey)
+                .putString(KEY_MODEL, model)
+                .putString(KEY_SYSTEM_PROMPT, systemPrompt)
+                .apply();
+        }
+
+        public boolean isConfigured() {
+            return baseUrl != null && !baseUrl.trim().isEmpty();
+        }
+    }
+
+    /**
+     * 某位好友某条文字消息的原文 (占位符已替换)
+     */
+    public interface TextSource {
+        String staticText(int friendIndex, int messageIndex);
+    }
+
+    /**
+     * 生成结果回调 (主线程),失败或超时时为原文
+     */
+    public interface Callback {
+        void onText(String text);
+    }
+
+    private final Context context;
+    private final OkHttpClient client;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 生成结果缓存,key见keyOf()
+    private final Map<String, String> cache = new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final Map<String, Call> inFlight = new HashMap<>();            // 正在生成的请求
+    private final Map<String, List<Callback>> waiters = new HashMap<>();   // 等待生成结果的发送
+
+    private Config config;
+    private SendTask task;
+    private TextSource source;
+    private List<Integer> textMessages = new ArrayList<>(); // 任务中文字消息的索引
+    private int generation = 0; // start()/stop()时递增,丢弃上一个任务的迟到结果
+
+    public AiMessageGenerator(Context context) {
+        this.context = context.getApplicationContext();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(PREFETCH_WINDOW);
+        dispatcher.setMaxRequestsPerHost(PREFETCH_WINDOW);
+        this.client = HttpClientProvider.get().newBuilder()
+            .dispatcher(dispatcher)
+            .callTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * 任务开始时调用,任务未开启AI改写或未配置AI服务时不做任何事
+     */
+    public void start(SendTask task, TextSource source) {
+        stop();
+        Config loaded = Config.load(context);
+        if (!task.isAiRewrite()) {
+            return;
+        }
+        if (!loaded.isConfigured()) {
+            Log.w(TAG, "任务开启了AI改写,但未配置AI服务,发送原文");
+            return;
+        }
+
+        this.config = loaded;
+        this.task = task;
+        this.source = source;
+        this.textMessages = new ArrayList<>();
+        for (int i = 0; i < task.getMessages().size(); i++) {
+            if ("text".equals(task.getMessages().get(i).getType())) {
+                textMessages.add(i);
+            }
+        }
+        Log.d(TAG, "AI改写已开启: " + config.baseUrl + ", 模型: " + config.model);
+    }
+
+    public boolean isEnabled() {
+        return task != null;
+    }
+
+    /**
+     * 开始为当前及之后PREFETCH_WINDOW-1位好友生成 (每处理一位好友调用一次)
+     */
+    public void prefetch(int currentFriendIndex) {
+        if (!isEnabled()) {
+            return;
+        }
+        int end = Math.min(task.getFriendNames().size(), currentFriendIndex + PREFETCH_WINDOW);
+        for (int f = currentFriendIndex; f < end; f++) {
+            for (int m : textMessages) {
+                request(f, m);
+            }
+        }
+    }
+
+    /**
+     * 取某位好友某条消息的生成结果
+     * 未开启时直接回调原文;已生成时直接回调;否则等生成完成,最多WAIT_TIMEOUT_MS后回调原文
+     * @param fallback 原文 (占位符已替换)
+     */
+    public void get(int friendIndex, int messageIndex, String fallback, Callback callback) {
+        if (!isEnabled()) {
+            callback.onText(fallback);
+            return;
+        }
+
+        String key = keyOf(task.getFriendNames().get(friendIndex), fallback);
+        String cached = cache.get(key);
+        if (cached != null) {
+            callback.onText(cached);
+            return;
+        }
+
+        request(friendIndex, messageIndex);
+        long waitStart = SystemClock.elapsedRealtime();
+        boolean[] delivered = {false};
+        Callback once = text -> {
+            if (!delivered[0]) {
+                delivered[0] = true;
+                Log.d(TAG, String.format("等待AI生成%dms%s", SystemClock.elapsedRealtime() - waitStart,
+                    text == fallback ? ", 使用原文" : ""));
+                callback.onText(text);
+            }
+        };
+        List<Callback> list = waiters.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            waiters.put(key, list);
+        }
+        list.add(once);
+
+        int gen = generation;
+        mainHandler.postDelayed(() -> {
+            if (gen != generation) {
+                return;
+            }
+            List<Callback> pending = waiters.get(key);
+            if (pending != null && pending.remove(once)) {
+                Log.w(TAG, "AI生成超时,发送原文");
+                once.onText(fallback);
+            }
+        }, WAIT_TIMEOUT_MS);
+    }
+
+    /**
+     * 任务结束时调用: 取消还没完成的请求 (已缓存的结果保留)
+     */
+    public void stop() {
+        generation++;
+        for (Call call : inFlight.values()) {
+            call.cancel();
+        }
+        inFlight.clear();
+        waiters.clear();
+        task = null;
+        source = null;
+        config = null;
+    }
+
+    private void request(int friendIndex, int messageIndex) {
+        String friendName = task.getFriendNames().get(friendIndex);
+        String original = source.staticText(friendIndex, messageIndex);
+        String key = keyOf(friendName, original);
+        if (cache.containsKey(key) || inFlight.containsKey(key)) {
+            return;
+        }
+
+        Call call = client.newCall(buildRequest(friendName, original));
+        inFlight.put(key, call);
+        int gen = generation;
+        long start = SystemClock.elapsedRealtime();
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                String text = null;
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        Log.e(TAG, "AI请求失败: HTTP " + response.code());
+                    } else {
+                        text = readCompletion(body);
+                    }
+                } catch (IOException | JsonParseException | IllegalStateException e) {
+                    Log.e(TAG, "读取AI响应失败: " + e.getMessage());
+                }
+                finish(gen, key, original, text, start);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!call.isCanceled()) {
+                    Log.e(TAG, "AI请求失败: " + e.getMessage());
+                }
+                finish(gen, key, original, null, start);
+            }
+        });
+    }
+
+    /**
+     * 请求结束 (网络线程): 回到主线程缓存结果并通知等待的发送
+     */
+    private void finish(int gen, String key, String original, String text, long start) {
+        mainHandler.post(() -> {
+            if (gen != generation) {
+                return; // 任务已结束
+            }
+            inFlight.remove(key);
+            String result = text;
+            if (result != null && !result.isEmpty()) {
+                cache.put(key, result);
+                Log.d(TAG, String.format("AI生成完成, 耗时%dms, %d字",
+                    SystemClock.elapsedRealtime() - start, result.length()));
+            } else {
+                result = original; // 失败时使用原文,不缓存,下次重试
+            }
+
+            List<Callback> pending = waiters.remove(key);
+            if (pending != null) {
+                for (Callback callback : pending) {
+                    callback.onText(result);
+                }
+            }
+        });
+    }
+
+    private Request buildRequest(String friendName, String original) {
+        JsonObject body = new JsonObject();
+        body.addProperty("model", config.model);
+        body.addProperty("stream", true);
+        body.addProperty("temperature", 0.7);
+
+        JsonArray messages = new JsonArray();
+        JsonObject system = new JsonObject();
+        system.addProperty("role", "system");
+        system.addProperty("content", config.systemPrompt);
+        messages.add(system);
+        JsonObject user = new JsonObject();
+        user.addProperty("role", "user");
+        user.addProperty("content", "好友昵称: " + friendName + "\n原始消息:\n" + original);
+        messages.add(user);
+        body.add("messages", messages);
+
+        String baseUrl = config.baseUrl.trim();
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        Request.Builder builder = new Request.Builder()
+            .url(baseUrl + "/chat/completions")
+            .post(RequestBody.create(body.toString(), JSON));
+        if (config.apiKey != null && !config.apiKey.isEmpty()) {
+            builder.header("Authorization", "Bearer " + config.apiKey);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 读取生成结果: 流式(text/event-stream)逐段拼接; 服务不支持流式时按普通JSON响应解析
+     * @return 生成的文字; 超过MAX_LENGTH、被截断(finish_reason为length)或没有正常结束时返回null
+     */
+    private static String readCompletion(ResponseBody body) throws IOException {
+        MediaType type = body.contentType();
+        if (type == null || !"event-stream".equals(type.subtype())) {
+            JsonObject json = JsonParser.parseString(body.string()).getAsJsonObject();
+            JsonObject choice = firstChoice(json);
+            if (choice == null || "length".equals(stringOrNull(choice.get("finish_reason")))) {
+                return null;
+            }
+            JsonObject message = choice.getAsJsonObject("message");
+            return message != null ? trim(stringOrNull(message.get("content"))) : null;
+        }
+
+        StringBuilder text = new StringBuilder();
+        BufferedSource source = body.source();
+        boolean finished = false;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith("data:")) {
+                continue; // 空行、注释或event:行
+            }
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                finished = true;
+                break;
+            }
+            // 部分兼容网关会发送choices为空的片段(如Azure的内容过滤结果),跳过
+            JsonObject choice = firstChoice(JsonParser.parseString(data).getAsJsonObject());
+            if (choice == null) {
+                continue;
+            }
+            JsonObject delta = choice.getAsJsonObject("delta");
+            String content = delta != null ? stringOrNull(delta.get("content")) : null;
+            if (content != null) {
+                text.append(content);
+            }
+            if (text.length() > MAX_LENGTH) {
+                Log.w(TAG, "AI生成的内容超过" + MAX_LENGTH + "字,发送原文");
+                return null; // 不再等剩余内容
+            }
+            String finishReason = stringOrNull(choice.get("finish_reason"));
+            if ("length".equals(finishReason)) {
+                Log.w(TAG, "AI生成的内容被截断,发送原文");
+                return null;
+            }
+            if (finishReason != null) {
+                finished = true;
+            }
+        }
+        if (!finished) {
+            Log.w(TAG, "AI响应没有正常结束,发送原文");
+            return null;
+        }
+        return trim(text.toString());
+    }
+
+    /**
+     * 第一个choice,choices为空时返回null
+     */
+    private static JsonObject firstChoice(JsonObject json) {
+        JsonArray choices = json.getAsJsonArray("choices");
+        if (choices == null || choices.size() == 0) {
+            return null;
+        }
+        return choices.get(0).getAsJsonObject();
+    }
+
+    private static String stringOrNull(JsonElement element) {
+        return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+
+    private static String trim(String text) {
+        if (text == null) {
+            return null;
+        }
+        String trimmed = text.trim();
+        return trimmed.length() > MAX_LENGTH ? null : trimmed; // 截断会把半句话发给好友
+    }
+
+    /**
+     * 缓存key: 模型和提示词变化后不使用旧结果
+     */
+    private String keyOf(String friendName, String original) {
+        return config.model + '\u0000' + config.systemPrompt.hashCode() + '\u0000' + friendName + '\u0000' + original;
+    }
+}
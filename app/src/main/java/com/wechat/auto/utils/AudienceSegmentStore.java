@@ -0,0 +1,78 @@
+package com.wechat.auto.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 好友分组
+ * 把一次好友选择(FriendSelection编码后的字符串)按名称保存在SharedPreferences中,
+ * 下次直接载入,不需要重新逐个勾选
+ */
+public class AudienceSegmentStore {
+
+    private static final String TAG = "AudienceSegmentStore";
+    private static final String PREFS_NAME = "WeChatAutoPrefs";
+    private static final String PREFS_KEY = "audience_segments";
+
+    private final SharedPreferences prefs;
+    private final Gson gson = new Gson();
+    private final Map<String, String> segments = new LinkedHashMap<>();
+
+    public AudienceSegmentStore(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    private void load() {
+        String json = prefs.getString(PREFS_KEY, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            Map<String, String> saved = gson.fromJson(json, new TypeToken<LinkedHashMap<String, String>>() {}.getType());
+            if (saved != null) {
+                segments.putAll(saved);
+            }
+        } catch (JsonParseException e) {
+            Log.e(TAG, "读取好友分组失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 分组名称,按保存顺序
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(segments.keySet());
+    }
+
+    /**
+     * 编码后的分组,不存在时返回null
+     */
+    public String get(String name) {
+        return segments.get(name);
+    }
+
+    /**
+     * 保存分组 (同名分组会被覆盖)
+     */
+    public void save(String name, String encoded) {
+        segments.remove(name);
+        segments.put(name, encoded);
+        prefs.edit().putString(PREFS_KEY, gson.toJson(segments)).apply();
+        Log.d(TAG, "已保存好友分组: " + name + ", " + encoded.length() + " 字符");
+    }
+
+    public void delete(String name) {
+        if (segments.remove(name) != null) {
+            prefs.edit().putString(PREFS_KEY, gson.toJson(segments)).apply();
+        }
+    }
+}
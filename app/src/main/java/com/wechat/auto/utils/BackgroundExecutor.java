@@ -0,0 +1,72 @@
+package com.wechat.auto.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台单线程执行器
+ * 与Executors.newSingleThreadExecutor()相同,另外统计所有这类执行器中还没执行完的任务数:
+ * 测试中用awaitIdle()等到后台任务全部执行完(结果已投递到主线程)再推进模拟时钟,
+ * 回调的先后顺序不依赖真实时间
+ */
+public final class BackgroundExecutor {
+
+    private static final Object lock = new Object();
+    private static int pending = 0;  // 已提交、还没执行完的任务
+
+    private BackgroundExecutor() {
+    }
+
+    public static ExecutorService newSingleThread() {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable command) {
+                synchronized (lock) {
+                    pending++;
+                }
+                try {
+                    super.execute(command);
+                } catch (RejectedExecutionException e) {
+                    done();
+                    throw e;
+                }
+            }
+
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                super.afterExecute(r, t);
+                done();
+            }
+        };
+    }
+
+    private static void done() {
+        synchronized (lock) {
+            pending--;
+            if (pending == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 等待所有后台任务执行完 (测试用)
+     * @return 超时前是否已全部执行完
+     */
+    public static boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (pending > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+}
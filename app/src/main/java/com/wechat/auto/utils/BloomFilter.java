@@ -0,0 +1,78 @@
+package com.wechat.auto.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 布隆过滤器
+ * 用很小的内存判断一个key"一定不存在"或"可能存在":
+ * 不存在的结果是准确的,存在的结果需要再查数据库确认
+ *
+ * 线程安全
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计插入的数量
+     * @param falsePositiveRate  期望的误判率, 如0.01
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        // 最优位数 m = -n*ln(p)/(ln2)^2, 最优哈希次数 k = m/n*ln2
+        long m = (long) (-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, m);
+        this.bits = new long[(int) ((m + 63) / 64)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    public synchronized void put(String key) {
+        long hash = fnv1a64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + i * h2);
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    public synchronized boolean mightContain(String key) {
+        long hash = fnv1a64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + i * h2);
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 占用的内存(字节)
+     */
+    public int sizeInBytes() {
+        return bits.length * 8;
+    }
+
+    private long indexOf(int combinedHash) {
+        // 负数取反,保证落在[0, bitCount)
+        return (combinedHash < 0 ? ~combinedHash : combinedHash) % bitCount;
+    }
+
+    /**
+     * 64位FNV-1a哈希
+     */
+    public static long fnv1a64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
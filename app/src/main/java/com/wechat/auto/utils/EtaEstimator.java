@@ -0,0 +1,111 @@
+package com.wechat.auto.utils;
+
+import com.wechat.auto.model.SendTask;
+import com.wechat.auto.model.ShareBatch;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 剩余时间估算
+ * 按任务内容算出每位好友要经过哪些步骤,用StepTracer实测的各步骤平均耗时相加,
+ * 不使用固定的经验值
+ */
+public class EtaEstimator {
+
+    public static final long UNKNOWN = -1;
+
+    // 进入聊天的步骤 (每位好友一次)
+    private static final StepTracer.Step[] OPEN_CHAT_STEPS = {
+        StepTracer.Step.LAUNCH, StepTracer.Step.SEARCH_CLICK, StepTracer.Step.QUERY_INPUT,
+        StepTracer.Step.RESULT_CLICK, StepTracer.Step.CHAT_OPEN
+    };
+    // 发送一条文字的步骤
+    private static final StepTracer.Step[] TEXT_STEPS = {
+        StepTracer.Step.TEXT_SET, StepTracer.Step.SEND
+    };
+    // 一次分享的步骤
+    private static final StepTracer.Step[] SHARE_STEPS = {
+        StepTracer.Step.SHARE_LAUNCH, StepTracer.Step.SHARE_SEARCH,
+        StepTracer.Step.SHARE_SELECT, StepTracer.Step.SHARE_CONFIRM
+    };
+    // 一次转发的步骤
+    private static final StepTracer.Step[] FORWARD_STEPS = {
+        StepTracer.Step.FORWARD_PRESS, StepTracer.Step.FORWARD_MENU, StepTracer.Step.SHARE_SEARCH,
+        StepTracer.Step.SHARE_SELECT, StepTracer.Step.SHARE_CONFIRM
+    };
+
+    /**
+     * 处理一位好友的预计耗时(毫秒),有步骤还没有实测数据时返回UNKNOWN
+     */
+    public static long friendMillis(SendTask task, StepTracer tracer) {
+        int textCount = 0;
+        for (SendTask.Message message : task.getMessages()) {
+            if ("text".equals(message.getType())) {
+                textCount++;
+            }
+        }
+
+        long total = 0;
+        if (textCount > 0) {
+            long openChat = sumMeans(OPEN_CHAT_STEPS, tracer);
+            long text = sumMeans(TEXT_STEPS, tracer);
+            if (openChat == UNKNOWN || text == UNKNOWN) {
+                return UNKNOWN;
+            }
+            total += openChat + text * textCount;
+        }
+
+        if (task.getShareMode() == SendTask.ShareMode.PER_FRIEND) {
+            List<ShareBatch> batches = SharePlanner.planFriendMedia(
+                task.getMessages(), new HashSet<Integer>(), null);
+            if (!batches.isEmpty()) {
+                long share = sumMeans(SHARE_STEPS, tracer);
+                if (share == UNKNOWN) {
+                    return UNKNOWN;
+                }
+                total += share * batches.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 批量分享阶段剩余分享包的预计耗时(毫秒)
+     */
+    public static long shareBatchesMillis(List<ShareBatch> batches, int fromIndex, StepTracer tracer) {
+        long total = 0;
+        for (int i = fromIndex; i < batches.size(); i++) {
+            long batch = sumMeans(batches.get(i).isForward() ? FORWARD_STEPS : SHARE_STEPS, tracer);
+            if (batch == UNKNOWN) {
+                return UNKNOWN;
+            }
+            total += batch;
+        }
+        return total;
+    }
+
+    /**
+     * 批量模式下还没进入分享阶段时,按任务内容规划出的分享包
+     */
+    public static List<ShareBatch> planShareBatches(SendTask task) {
+        if (task.getShareMode() == SendTask.ShareMode.FORWARD_FROM_STAGING) {
+            return SharePlanner.planForwardBatches(task.getMessages(), task.getFriendNames(),
+                task.getStagingChat());
+        } else if (task.getShareMode() == SendTask.ShareMode.MULTI_RECIPIENT) {
+            return SharePlanner.planRecipientBatches(task.getMessages(), task.getFriendNames());
+        }
+        return new ArrayList<>();
+    }
+
+    private static long sumMeans(StepTracer.Step[] steps, StepTracer tracer) {
+        long total = 0;
+        for (StepTracer.Step step : steps) {
+            if (tracer.getCount(step) == 0) {
+                return UNKNOWN;
+            }
+            total += Math.round(tracer.getMean(step));
+        }
+        return total;
+    }
+}
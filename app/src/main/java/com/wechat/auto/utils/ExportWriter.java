@@ -0,0 +1,132 @@
+package com.wechat.auto.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 导出文件写入
+ * 文字逐行编码为UTF-8写入固定大小的缓冲区,缓冲区满了才写入通道,
+ * 导出多少行内存占用都不变; 可选gzip压缩
+ *
+ * 不是线程安全的
+ */
+public class ExportWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final GZIPOutputStream gzip;  // 不压缩时为null
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder row = new StringBuilder(); // 拼接CSV行时复用
+    private long bytesWritten;
+
+    /**
+     * @param channel 输出通道,关闭ExportWriter时一起关闭
+     */
+    public ExportWriter(WritableByteChannel channel, boolean gzipped) throws IOException {
+        if (gzipped) {
+            this.gzip = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            this.channel = Channels.newChannel(gzip);
+        } else {
+            this.gzip = null;
+            this.channel = channel;
+        }
+    }
+
+    public ExportWriter write(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+        return this;
+    }
+
+    public ExportWriter writeLine(CharSequence text) throws IOException {
+        return write(text).write("\n");
+    }
+
+    /**
+     * 写入一行CSV (RFC 4180: 包含逗号、引号或换行的字段加引号,引号写两次)
+     */
+    public ExportWriter writeCsvRow(String... fields) throws IOException {
+        row.setLength(0);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            appendCsvField(row, fields[i] != null ? fields[i] : "");
+        }
+        row.append("\r\n");
+        return write(row);
+    }
+
+    static void appendCsvField(StringBuilder sb, String field) {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(field);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * 已写入的字节数 (压缩前)
+     */
+    public long getBytesWritten() {
+        return bytesWritten + buffer.position();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 写入缓冲区中剩余的内容并关闭通道 (gzip写入结尾)
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            encoder.encode(CharBuffer.allocate(0), buffer, true);
+            encoder.flush(buffer);
+            drain();
+            if (gzip != null) {
+                gzip.finish();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
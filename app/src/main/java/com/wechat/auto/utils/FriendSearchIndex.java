@@ -0,0 +1,276 @@
+package com.wechat.auto.utils;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 好友搜索索引
+ * 加载好友时构建一次,之后每次搜索只查索引,不再逐个昵称toLowerCase().contains
+ *
+ * 1. 昵称(小写)和拼音首字母各建一份倒排索引: 单字 → 好友, 相邻两字(二元组) → 好友
+ * 2. 搜索时取查询中所有二元组的倒排列表求交集得到候选,再逐个确认包含关系
+ * 3. 拼音首字母用中文Collator和每个声母的第一个汉字比较得出,不需要拼音字典
+ *    (如"张三"的首字母为"zs",输入"zs"即可搜到)
+ *
+ * 同时算出每位好友的分组字母(昵称第一个字的拼音首字母,非字母为'#'),供字母导航条使用
+ *
+ * 构建后只读,可以在任意线程搜索
+ */
+public class FriendSearchIndex {
+
+    // 每个首字母在拼音排序中的第一个汉字 (没有以i/u/v开头的拼音)
+    private static final String BOUNDARY_CHARS = "阿八嚓哒妸发旮哈讥咔垃痳拏噢妑七呥扨它穵夕丫帀";
+    private static final String BOUNDARY_LETTERS = "abcdefghjklmnopqrstwxyz";
+
+    private final List<String> names;
+    private final String[] lowerNames;
+    private final String[] initials;
+    private final char[] sections;
+    private final Map<Integer, int[]> nameGrams;
+    private final Map<Integer, int[]> initialGrams;
+
+    private FriendSearchIndex(List<String> names, String[] lowerNames, String[] initials, char[] sections,
+                              Map<Integer, int[]> nameGrams, Map<Integer, int[]> initialGrams) {
+        this.names = names;
+        this.lowerNames = lowerNames;
+        this.initials = initials;
+        this.sections = sections;
+        this.nameGrams = nameGrams;
+        this.initialGrams = initialGrams;
+    }
+
+    /**
+     * 构建索引 (好友多时耗时较长,在后台线程调用)
+     */
+    public static FriendSearchIndex build(List<String> names) {
+        Collator collator = Collator.getInstance(Locale.CHINA);
+        String[] lowerNames = new String[names.size()];
+        String[] initials = new String[names.size()];
+        char[] sections = new char[names.size()];
+        Map<Integer, List<Integer>> nameGrams = new HashMap<>();
+        Map<Integer, List<Integer>> initialGrams = new HashMap<>();
+
+        for (int i = 0; i < names.size(); i++) {
+            lowerNames[i] = names.get(i).toLowerCase(Locale.ROOT);
+            initials[i] = initialsOf(lowerNames[i], collator);
+            sections[i] = sectionOf(lowerNames[i], collator);
+            addGrams(nameGrams, lowerNames[i], i);
+            addGrams(initialGrams, initials[i], i);
+        }
+        return new FriendSearchIndex(new ArrayList<>(names), lowerNames, initials, sections,
+            toPostings(nameGrams), toPostings(initialGrams));
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * 好友的分组字母: 'A'~'Z'或'#'
+     */
+    public char getSection(int id) {
+        return sections[id];
+    }
+
+    /**
+     * 搜索昵称或拼音首字母包含关键词的好友
+     * @return 匹配的好友下标,按原顺序;关键词为空时返回全部
+     */
+    public int[] search(String query) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty()) {
+            int[] all = new int[names.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        boolean[] matched = new boolean[names.size()];
+        collect(q, nameGrams, lowerNames, matched);
+        if (isInitialsQuery(q)) {
+            collect(q, initialGrams, initials, matched);
+        }
+
+        int count = 0;
+        for (boolean m : matched) {
+            if (m) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        int n = 0;
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i]) {
+                result[n++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用倒排列表求出候选,确认包含关系后标记
+     */
+    private static void collect(String q, Map<Integer, int[]> grams, String[] texts, boolean[] matched) {
+        int[] candidates = null;
+        if (q.length() == 1) {
+            candidates = grams.get(gramKey(q.charAt(0), '\0'));
+        } else {
+            for (int i = 0; i + 1 < q.length(); i++) {
+                int[] posting = grams.get(gramKey(q.charAt(i), q.charAt(i + 1)));
+                candidates = candidates == null ? posting : intersect(candidates, posting);
+                if (candidates == null || candidates.length == 0) {
+                    return;
+                }
+            }
+        }
+        if (candidates == null) {
+            return;
+        }
+
+        for (int id : candidates) {
+            if (!matched[id] && texts[id].contains(q)) {
+                matched[id] = true;
+            }
+        }
+    }
+
+    private static boolean isInitialsQuery(String q) {
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 昵称的拼音首字母: 汉字取首字母,字母数字保留,其他字符忽略
+     */
+    static String initialsOf(String lowerName, Collator collator) {
+        StringBuilder sb = new StringBuilder(lowerName.length());
+        for (int i = 0; i < lowerName.length(); i++) {
+            char c = lowerName.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                sb.append(c);
+            } else if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                char initial = initialOf(c, collator);
+                if (initial != 0) {
+                    sb.append(initial);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 昵称第一个字的分组字母
+     */
+    static char sectionOf(String lowerName, Collator collator) {
+        if (lowerName.isEmpty()) {
+            return '#';
+        }
+        char c = lowerName.charAt(0);
+        if (c >= 'a' && c <= 'z') {
+            return Character.toUpperCase(c);
+        }
+        if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+            char initial = initialOf(c, collator);
+            if (initial != 0) {
+                return Character.toUpperCase(initial);
+            }
+        }
+        return '#';
+    }
+
+    /**
+     * 在声母边界表中二分查找汉字所在的区间
+     */
+    private static char initialOf(char c, Collator collator) {
+        String s = String.valueOf(c);
+        if (collator.compare(s, BOUNDARY_CHARS.substring(0, 1)) < 0) {
+            return 0; // 不在常用汉字的拼音排序范围内
+        }
+        int lo = 0;
+        int hi = BOUNDARY_CHARS.length() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (collator.compare(s, BOUNDARY_CHARS.substring(mid, mid + 1)) >= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return BOUNDARY_LETTERS.charAt(lo);
+    }
+
+    private static void addGrams(Map<Integer, List<Integer>> grams, String text, int id) {
+        for (int i = 0; i < text.length(); i++) {
+            addPosting(grams, gramKey(text.charAt(i), '\0'), id);
+            if (i + 1 < text.length()) {
+                addPosting(grams, gramKey(text.charAt(i), text.charAt(i + 1)), id);
+            }
+        }
+    }
+
+    private static void addPosting(Map<Integer, List<Integer>> grams, int key, int id) {
+        List<Integer> posting = grams.get(key);
+        if (posting == null) {
+            posting = new ArrayList<>();
+            grams.put(key, posting);
+        }
+        // 同一个昵称中重复的字只记一次 (id递增,只需看最后一个)
+        if (posting.isEmpty() || posting.get(posting.size() - 1) != id) {
+            posting.add(id);
+        }
+    }
+
+    private static Map<Integer, int[]> toPostings(Map<Integer, List<Integer>> grams) {
+        Map<Integer, int[]> result = new HashMap<>(grams.size() * 2);
+        for (Map.Entry<Integer, List<Integer>> entry : grams.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] posting = new int[list.size()];
+            for (int i = 0; i < posting.length; i++) {
+                posting[i] = list.get(i);
+            }
+            result.put(entry.getKey(), posting);
+        }
+        return result;
+    }
+
+    private static int gramKey(char a, char b) {
+        return (a << 16) | b;
+    }
+
+    /**
+     * 两个有序列表的交集
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        if (b == null) {
+            return new int[0];
+        }
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        int[] result = new int[n];
+        System.arraycopy(out, 0, result, 0, n);
+        return result;
+    }
+}
@@ -0,0 +1,214 @@
+package com.wechat.auto.utils;
+
+import android.text.TextUtils;
+import android.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 好友选择状态
+ * 按好友在完整好友列表中的下标记录在BitSet中,每位好友只占1位:
+ * 单个切换为O(1),全选、反选、取交集按64位一组批量处理
+ *
+ * 选择可以编码成紧凑的字符串保存为分组,编码中带有好友列表的指纹和已选好友的昵称:
+ * 好友列表没有变化时按下标还原;重新同步(顺序或内容变化)后按昵称在新列表中还原
+ *
+ * 只在主线程使用
+ */
+public class FriendSelection {
+
+    private static final String FORMAT_VERSION = "2";
+    private static final String LEGACY_FORMAT_VERSION = "1"; // 没有昵称,好友列表变化后无法还原
+    private static final String NAME_SEPARATOR = "\u0000";
+
+    private final int size;
+    private final BitSet bits;
+    private int missing = 0;
+
+    public FriendSelection(int size) {
+        this(size, new BitSet(size));
+    }
+
+    private FriendSelection(int size, BitSet bits) {
+        this.size = size;
+        this.bits = bits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isSelected(int index) {
+        return bits.get(index);
+    }
+
+    public void setSelected(int index, boolean selected) {
+        bits.set(index, selected);
+    }
+
+    /**
+     * 已选数量
+     */
+    public int count() {
+        return bits.cardinality();
+    }
+
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    /**
+     * 选中/取消选中一组好友 (mask为null表示全部好友)
+     */
+    public void setAll(BitSet mask, boolean selected) {
+        if (mask == null) {
+            if (selected) {
+                bits.set(0, size);
+            } else {
+                bits.clear();
+            }
+        } else if (selected) {
+            bits.or(mask);
+        } else {
+            bits.andNot(mask);
+        }
+    }
+
+    /**
+     * 反选一组好友 (mask为null表示全部好友)
+     */
+    public void invert(BitSet mask) {
+        if (mask == null) {
+            bits.flip(0, size);
+        } else {
+            bits.xor(mask);
+        }
+    }
+
+    /**
+     * 只保留同时在另一个选择中的好友
+     */
+    public void intersect(FriendSelection other) {
+        bits.and(other.bits);
+    }
+
+    /**
+     * 加入另一个选择中的好友
+     */
+    public void union(FriendSelection other) {
+        bits.or(other.bits);
+    }
+
+    /**
+     * 用另一个选择替换当前选择
+     */
+    public void replaceWith(FriendSelection other) {
+        bits.clear();
+        bits.or(other.bits);
+    }
+
+    /**
+     * 已选好友的昵称,按好友列表顺序
+     */
+    public List<String> selectedNames(List<String> nicknames) {
+        List<String> names = new ArrayList<>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            names.add(nicknames.get(i));
+        }
+        return names;
+    }
+
+    /**
+     * 编码为字符串: 版本:好友数:好友列表指纹:位集合(Base64):已选好友的昵称(Base64)
+     * 昵称用于好友列表重新同步后按昵称还原
+     */
+    public String encode(List<String> nicknames, String fingerprint) {
+        String names = TextUtils.join(NAME_SEPARATOR, selectedNames(nicknames));
+        return FORMAT_VERSION + ":" + size + ":" + fingerprint + ":"
+            + Base64.encodeToString(bits.toByteArray(), Base64.NO_WRAP) + ":"
+            + Base64.encodeToString(names.getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+    }
+
+    /**
+     * 解码
+     * 好友列表没有变化时直接按下标还原;变化时按保存的昵称在新列表中查找,
+     * 找不到的好友(已删除或改了昵称)不选,数量见getMissing()
+     * @return 格式错误,或好友列表已变化而分组是旧格式(没有昵称)时返回null
+     */
+    public static FriendSelection decode(String encoded, List<String> nicknames, String fingerprint) {
+        String[] parts = encoded.split(":", 5);
+        boolean legacy = parts.length == 4 && LEGACY_FORMAT_VERSION.equals(parts[0]);
+        if (!legacy && (parts.length != 5 || !FORMAT_VERSION.equals(parts[0]))) {
+            return null;
+        }
+        int size = nicknames.size();
+        try {
+            if (String.valueOf(size).equals(parts[1]) && fingerprint.equals(parts[2])) {
+                BitSet bits = BitSet.valueOf(Base64.decode(parts[3], Base64.NO_WRAP));
+                if (bits.length() > size) {
+                    return null;
+                }
+                return new FriendSelection(size, bits);
+            }
+            if (legacy) {
+                return null;
+            }
+
+            // 好友列表已重新同步: 按昵称还原,同名的好友按列表顺序依次对应
+            Map<String, ArrayDeque<Integer>> indicesByName = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                ArrayDeque<Integer> indices = indicesByName.get(nicknames.get(i));
+                if (indices == null) {
+                    indices = new ArrayDeque<>();
+                    indicesByName.put(nicknames.get(i), indices);
+                }
+                indices.add(i);
+            }
+            FriendSelection selection = new FriendSelection(size);
+            String names = new String(Base64.decode(parts[4], Base64.NO_WRAP), StandardCharsets.UTF_8);
+            if (names.isEmpty()) {
+                return selection;
+            }
+            for (String name : names.split(NAME_SEPARATOR, -1)) {
+                ArrayDeque<Integer> indices = indicesByName.get(name);
+                if (indices == null || indices.isEmpty()) {
+                    selection.missing++;
+                } else {
+                    selection.bits.set(indices.poll());
+                }
+            }
+            return selection;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按昵称还原分组时在新好友列表中找不到的好友数量
+     */
+    public int getMissing() {
+        return missing;
+    }
+
+    /**
+     * 好友列表的指纹 (FNV-1a 64位,与顺序有关)
+     */
+    public static String fingerprint(List<String> nicknames) {
+        long hash = 0xcbf29ce484222325L;
+        for (String nickname : nicknames) {
+            for (int i = 0; i < nickname.length(); i++) {
+                hash ^= nickname.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= 0xFFFF; // 分隔符,避免"ab","c"与"a","bc"相同
+            hash *= 0x100000001b3L;
+        }
+        return String.format(Locale.ROOT, "%016x", hash);
+    }
+}
@@ -0,0 +1,32 @@
+package com.wechat.auto.utils;
+
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * 全应用共用的OkHttpClient
+ * 所有网络请求共用同一个连接池,连续请求同一服务器时复用已建立的连接(省去TCP/TLS握手);
+ * 需要不同超时或并发数的调用方用get().newBuilder()派生,派生的客户端仍共用连接池
+ */
+public class HttpClientProvider {
+
+    private static volatile OkHttpClient client;
+
+    public static OkHttpClient get() {
+        if (client == null) {
+            synchronized (HttpClientProvider.class) {
+                if (client == null) {
+                    client = new OkHttpClient.Builder()
+                        .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                        .connectTimeout(10, TimeUnit.SECONDS)
+                        .readTimeout(30, TimeUnit.SECONDS)
+                        .writeTimeout(30, TimeUnit.SECONDS)
+                        .retryOnConnectionFailure(true)
+                        .build();
+                }
+            }
+        }
+        return client;
+    }
+}
@@ -0,0 +1,202 @@
+package com.wechat.auto.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 图片压缩
+ * 把相机原图缩小到长边不超过TARGET_LONG_EDGE像素并重新编码为JPEG,
+ * 微信每次分享都会重新编码上传原图,群发时先压缩可以明显缩短每位好友的上传时间
+ *
+ * 1. 先只读取尺寸,用inSampleSize按2的幂解码,避免把1200万像素原图完整读入内存
+ * 2. 再按EXIF方向旋转并精确缩放 (重新编码后EXIF信息会丢失)
+ * 3. 结果保存在应用私有目录的compressed/中,不在媒体缓存目录里: 不占缓存上限,
+ *    也不会在任务分享时被缓存淘汰; 该目录超过上限时按最近使用时间淘汰
+ * 4. 媒体缓存中的原图文件名即内容哈希,同名的压缩结果直接复用;
+ *    其他位置的原图按路径、大小和修改时间命名
+ *
+ * 只在后台线程调用
+ */
+public class ImageCompressor {
+
+    private static final String TAG = "ImageCompressor";
+    public static final int TARGET_LONG_EDGE = 1920;
+    public static final int JPEG_QUALITY = 82;
+    private static final String SUFFIX = "_" + TARGET_LONG_EDGE + "q" + JPEG_QUALITY + ".jpg";
+    private static final String OUTPUT_DIR = "compressed";
+    private static final long MAX_OUTPUT_BYTES = 256L * 1024 * 1024; // 256MB
+
+    /**
+     * 压缩图片
+     * @return 压缩后的文件;不需要压缩(已经足够小、格式不适合)或压缩失败时返回null,调用方使用原图
+     */
+    public static File compress(Context context, File source, String mimeType) {
+        if (!isCompressible(mimeType)) {
+            return null;
+        }
+
+        File output = outputFileFor(context, source);
+        if (output.exists()) {
+            output.setLastModified(System.currentTimeMillis());
+            return output; // 同一张原图,复用上次的结果
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            Log.w(TAG, "无法读取图片尺寸: " + source.getName());
+            return null;
+        }
+
+        int longEdge = Math.max(bounds.outWidth, bounds.outHeight);
+        if (longEdge <= TARGET_LONG_EDGE) {
+            return null; // 已经足够小
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(longEdge);
+        Bitmap decoded = BitmapFactory.decodeFile(source.getAbsolutePath(), options);
+        if (decoded == null) {
+            Log.w(TAG, "图片解码失败: " + source.getName());
+            return null;
+        }
+
+        Bitmap scaled = null;
+        try {
+            // 缩放和EXIF旋转合并为一次变换
+            float scale = Math.min(1f, (float) TARGET_LONG_EDGE
+                / Math.max(decoded.getWidth(), decoded.getHeight()));
+            Matrix matrix = new Matrix();
+            matrix.postScale(scale, scale);
+            matrix.postRotate(rotationDegrees(source));
+            scaled = Bitmap.createBitmap(decoded, 0, 0, decoded.getWidth(), decoded.getHeight(), matrix, true);
+
+            File temp = new File(output.getParentFile(), output.getName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                if (!scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                    throw new IOException("JPEG编码失败");
+                }
+            }
+
+            if (temp.length() >= source.length()) {
+                // 压缩后反而更大,使用原图
+                temp.delete();
+                return null;
+            }
+            if (!temp.renameTo(output)) {
+                temp.delete();
+                throw new IOException("无法保存压缩结果");
+            }
+
+            Log.d(TAG, String.format("图片已压缩: %s %dx%d %dKB → %dx%d %dKB", source.getName(),
+                bounds.outWidth, bounds.outHeight, source.length() / 1024,
+                scaled.getWidth(), scaled.getHeight(), output.length() / 1024));
+            evictIfNeeded(output);
+            return output;
+        } catch (IOException | OutOfMemoryError e) {
+            Log.e(TAG, "压缩图片失败,使用原图: " + source.getName() + ", " + e.getMessage());
+            return null;
+        } finally {
+            if (scaled != null && scaled != decoded) {
+                scaled.recycle();
+            }
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * 只压缩照片类格式: PNG可能有透明通道,GIF可能是动图,保持原样
+     */
+    private static boolean isCompressible(String mimeType) {
+        return "image/jpeg".equals(mimeType) || "image/heic".equals(mimeType)
+            || "image/heif".equals(mimeType) || "image/webp".equals(mimeType);
+    }
+
+    /**
+     * 解码后长边仍不小于目标尺寸的最大2的幂
+     */
+    private static int sampleSizeFor(int longEdge) {
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= TARGET_LONG_EDGE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int rotationDegrees(File source) {
+        try {
+            ExifInterface exif = new ExifInterface(source.getAbsolutePath());
+            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 压缩结果的文件: 媒体缓存中的原图沿用其内容哈希文件名,其他原图按路径、大小和修改时间命名
+     */
+    private static File outputFileFor(Context context, File source) {
+        String base;
+        File parent = source.getParentFile();
+        if (parent != null && MediaCache.CACHE_DIR.equals(parent.getName())) {
+            String name = source.getName();
+            int dot = name.lastIndexOf('.');
+            base = dot > 0 ? name.substring(0, dot) : name;
+        } else {
+            base = Long.toHexString(BloomFilter.fnv1a64(source.getAbsolutePath() + "\n"
+                + source.length() + "\n" + source.lastModified()));
+        }
+
+        File dir = new File(context.getFilesDir(), OUTPUT_DIR);
+        dir.mkdirs();
+        return new File(dir, base + SUFFIX);
+    }
+
+    /**
+     * 压缩结果超过上限时按最近使用时间淘汰 (刚生成的文件除外)
+     * 正在执行的任务用到的压缩结果刚刚生成或复用过,是最近使用的,不会先被淘汰
+     */
+    private static void evictIfNeeded(File keep) {
+        File[] files = keep.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_OUTPUT_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_OUTPUT_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (!file.equals(keep) && !file.getName().endsWith(".tmp") && file.delete()) {
+                total -= length;
+                Log.d(TAG, "淘汰压缩结果: " + file.getName());
+            }
+        }
+    }
+}
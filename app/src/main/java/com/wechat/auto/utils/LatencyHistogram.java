@@ -0,0 +1,99 @@
+package com.wechat.auto.utils;
+
+/**
+ * 耗时直方图 (对数分桶)
+ * 桶的上界为 1, 2, 4, ... 65536 毫秒,超过的计入最后一个桶
+ * 内存固定,可以估算任意分位数
+ *
+ * 非线程安全,由StepTracer加锁访问
+ */
+public class LatencyHistogram {
+
+    // 桶上界(毫秒): 2^0 .. 2^16
+    public static final long[] BOUNDS = new long[17];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS[i] = 1L << i;
+        }
+    }
+
+    private final long[] counts = new long[BOUNDS.length + 1]; // 最后一个为溢出桶
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    private static int bucketOf(long value) {
+        if (value <= 1) {
+            return 0;
+        }
+        // 向上取整到2的幂: ceil(log2(value))
+        int bucket = 64 - Long.numberOfLeadingZeros(value - 1);
+        return Math.min(bucket, BOUNDS.length);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * 第i个桶的计数(不累计), i == BOUNDS.length 为溢出桶
+     */
+    public long getBucketCount(int i) {
+        return counts[i];
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * 估算分位数 (在桶内线性插值)
+     * @param quantile 0~1, 如0.5, 0.95
+     * @return 毫秒,没有数据时返回0
+     */
+    public long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        double rank = quantile * count;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (seen + counts[i] >= rank) {
+                long lower = i == 0 ? 0 : BOUNDS[i - 1];
+                long upper = i < BOUNDS.length ? BOUNDS[i] : max;
+                double fraction = (rank - seen) / counts[i];
+                return Math.min(max, Math.round(lower + (upper - lower) * fraction));
+            }
+            seen += counts[i];
+        }
+        return max;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+}
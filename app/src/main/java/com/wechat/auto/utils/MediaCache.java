@@ -0,0 +1,332 @@
+package com.wechat.auto.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import com.wechat.auto.model.SendTask;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 媒体文件缓存
+ * 功能:
+ * 1. 选择的图片/视频在后台线程从content Uri复制到应用私有目录,不依赖已废弃的MediaStore.DATA列
+ * 2. 复制时用NIO通道分块读写,同时计算SHA-256,文件名即内容哈希: 同一个文件只保存一份
+ * 3. 缓存总大小超过上限时按最近使用时间淘汰最旧的文件
+ *
+ * 缓存路径在内容不变时保持不变,可以直接保存到SendTask.Message中
+ * 正在编辑的任务、排队和可恢复的任务引用的文件用pin()登记,淘汰时跳过;
+ * 任务使用文件时用touch()更新最近使用时间
+ */
+public class MediaCache {
+
+    private static final String TAG = "MediaCache";
+    static final String CACHE_DIR = "media_cache";  // 文件名即内容哈希
+    private static final String TEMP_PREFIX = "import_";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_CACHE_BYTES = 1024L * 1024 * 1024; // 1GB
+    private static final String IMPORT_PIN_PREFIX = "import:"; // 导入完成、还没回调给调用方的文件
+
+    private static volatile MediaCache instance;
+
+    private final ContentResolver resolver;
+    private final File dir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Set<String>> pins = new HashMap<>(); // 登记者 -> 不能淘汰的文件路径
+
+    /**
+     * 导入结果回调 (主线程)
+     */
+    public interface Callback {
+        /**
+         * @param path 缓存文件的路径,失败时为null
+         * @param error 失败原因,成功时为null
+         */
+        void onResult(String path, String error);
+    }
+
+    private MediaCache(Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.dir = new File(context.getApplicationContext().getFilesDir(), CACHE_DIR);
+        executor.execute(this::removeStaleTempFiles);
+    }
+
+    public static MediaCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MediaCache.class) {
+                if (instance == null) {
+                    instance = new MediaCache(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 把选择的文件导入缓存 (后台线程复制,完成后在主线程回调)
+     */
+    public void importUri(Uri uri, Callback callback) {
+        executor.execute(() -> {
+            String path = null;
+            String error = null;
+            try {
+                path = copyToCache(uri);
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "导入文件失败: " + uri + ", " + e.getMessage(), e);
+                error = e.getMessage() != null ? e.getMessage() : "读取文件失败";
+            }
+            String result = path;
+            String reason = error;
+            mainHandler.post(() -> {
+                callback.onResult(result, reason);
+                // 回调中由调用方登记,在此之前由导入时的登记保护
+                unpin(IMPORT_PIN_PREFIX + result);
+            });
+        });
+    }
+
+    /**
+     * 登记不能淘汰的文件,替换该登记者之前登记的文件 (可在任意线程调用)
+     * @param owner 登记者,例如正在编辑的任务、任务队列、某个任务日志
+     */
+    public void pin(String owner, Collection<String> paths) {
+        synchronized (pins) {
+            if (paths.isEmpty()) {
+                pins.remove(owner);
+            } else {
+                pins.put(owner, new HashSet<>(paths));
+            }
+        }
+    }
+
+    public void unpin(String owner) {
+        synchronized (pins) {
+            pins.remove(owner);
+        }
+    }
+
+    /**
+     * 任务使用了缓存文件,更新最近使用时间 (可在任意线程调用)
+     */
+    public void touch(String path) {
+        File file = new File(path);
+        if (dir.equals(file.getParentFile()) && file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 任务中的图片/视频文件路径
+     */
+    public static List<String> mediaPaths(SendTask task) {
+        List<String> paths = new ArrayList<>();
+        if (task == null || task.getMessages() == null) {
+            return paths;
+        }
+        for (SendTask.Message message : task.getMessages()) {
+            if ("image".equals(message.getType()) || "video".equals(message.getType())) {
+                paths.add(message.getContent());
+            }
+        }
+        return paths;
+    }
+
+    private String copyToCache(Uri uri) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建缓存目录");
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        File temp = File.createTempFile(TEMP_PREFIX, null, dir);
+        long size;
+        try {
+            size = copyAndHash(uri, temp, digest);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        if (size == 0) {
+            temp.delete();
+            throw new IOException("文件为空");
+        }
+
+        File target = new File(dir, toHex(digest.digest()) + extensionFor(uri));
+        if (target.exists()) {
+            // 相同内容已在缓存中
+            temp.delete();
+            target.setLastModified(System.currentTimeMillis());
+            Log.d(TAG, "文件已在缓存中: " + target.getName());
+        } else if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("无法保存缓存文件");
+        } else {
+            Log.d(TAG, String.format("已缓存文件: %s, %d bytes", target.getName(), size));
+        }
+
+        evictIfNeeded(target);
+        pin(IMPORT_PIN_PREFIX + target.getAbsolutePath(), Collections.singleton(target.getAbsolutePath()));
+        return target.getAbsolutePath();
+    }
+
+    /**
+     * 通过通道分块复制,同时计算哈希
+     * 能拿到文件描述符时直接读FileChannel,否则把输入流包装成通道
+     */
+    private long copyAndHash(Uri uri, File dest, MessageDigest digest) throws IOException {
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = resolver.openFileDescriptor(uri, "r");
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+            Log.d(TAG, "无法打开文件描述符,改用输入流: " + e.getMessage());
+        }
+
+        if (pfd != null) {
+            try (FileInputStream in = new FileInputStream(pfd.getFileDescriptor());
+                 FileChannel source = in.getChannel()) {
+                return pump(source, dest, digest);
+            } finally {
+                pfd.close();
+            }
+        }
+
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("无法读取文件");
+        }
+        try (ReadableByteChannel source = Channels.newChannel(in)) {
+            return pump(source, dest, digest);
+        }
+    }
+
+    private static long pump(ReadableByteChannel source, File dest, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long total = 0;
+        try (FileOutputStream out = new FileOutputStream(dest);
+             FileChannel sink = out.getChannel()) {
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    total += sink.write(buffer);
+                }
+                buffer.clear();
+            }
+            sink.force(false);
+        }
+        return total;
+    }
+
+    /**
+     * 缓存超过上限时按最近使用时间淘汰 (刚导入的文件和已登记的文件不会被淘汰)
+     */
+    private void evictIfNeeded(File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> pinned = new HashSet<>();
+        synchronized (pins) {
+            for (Set<String> paths : pins.values()) {
+                pinned.addAll(paths);
+            }
+        }
+
+        long total = 0;
+        List<File> candidates = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().startsWith(TEMP_PREFIX)) {
+                continue;
+            }
+            total += file.length();
+            if (!file.equals(keep) && !pinned.contains(file.getAbsolutePath())) {
+                candidates.add(file);
+            }
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+
+        File[] sorted = candidates.toArray(new File[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : sorted) {
+            if (total <= MAX_CACHE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                Log.d(TAG, "淘汰缓存文件: " + file.getName());
+            }
+        }
+        if (total > MAX_CACHE_BYTES) {
+            Log.w(TAG, String.format("缓存仍超过上限(%dMB),其余文件正在被任务使用", total / 1024 / 1024));
+        }
+    }
+
+    /**
+     * 清理上次导入中断留下的临时文件
+     */
+    private void removeStaleTempFiles() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(TEMP_PREFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 按MIME类型生成扩展名 (微信按扩展名识别图片和视频)
+     */
+    private String extensionFor(Uri uri) {
+        String mimeType = resolver.getType(uri);
+        String extension = mimeType != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType) : null;
+        if (extension == null) {
+            extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+        }
+        return extension != null && !extension.isEmpty() ? "." + extension : "";
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
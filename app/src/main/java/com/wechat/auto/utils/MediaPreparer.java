@@ -0,0 +1,201 @@
+package com.wechat.auto.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import androidx.core.content.FileProvider;
+import com.wechat.auto.model.SendTask;
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 媒体文件准备
+ * 任务开始时在后台线程把任务中的图片/视频逐个检查一次(存在、可读、非空),
+ * 并解析出FileProvider的content Uri和具体的MIME类型缓存起来。
+ * 之后每位好友分享时直接取缓存,不再在主线程重复检查文件和解析Uri
+ *
+ * 同一个文件只准备一次(按路径缓存);分享时还没准备好的文件就地准备,
+ * 后台正在准备同一个文件时会等它完成,不会重复解析
+ *
+ * 任务开启了图片压缩时,准备阶段同时用ImageCompressor压缩图片,Uri指向压缩后的文件。
+ * 压缩比较耗时,分享前应先用isReady()/runWhenReady()等待准备完成,不在主线程压缩
+ */
+public class MediaPreparer {
+
+    private static final String TAG = "MediaPreparer";
+    private static final String AUTHORITY = "com.wechat.auto.fileprovider";
+
+    /**
+     * 准备好的媒体文件 (生成后不再修改)
+     */
+    public static class PreparedMedia {
+        public final String path;       // 原文件路径
+        public final Uri uri;           // 无效时为null;压缩过的图片指向压缩后的文件
+        public final String mimeType;   // 无法从扩展名判断时为null
+        public final long size;         // 实际分享的文件大小
+        public final String error;      // 无效的原因,有效时为null
+
+        PreparedMedia(String path, Uri uri, String mimeType, long size, String error) {
+            this.path = path;
+            this.uri = uri;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.error = error;
+        }
+
+        public boolean isValid() {
+            return error == null;
+        }
+    }
+
+    private final Context context;
+    private final ExecutorService executor = BackgroundExecutor.newSingleThread();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, PreparedMedia> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger preparing = new AtomicInteger(); // 还没完成的后台准备
+    private volatile int generation = 0;  // clear()后递增,丢弃旧任务的后台准备
+    private volatile boolean compressImages = false;
+
+    public MediaPreparer(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * 任务开始时调用: 在后台准备任务中的所有媒体文件
+     */
+    public void prepare(SendTask task) {
+        Set<String> paths = new LinkedHashSet<>();
+        for (SendTask.Message message : task.getMessages()) {
+            if ("image".equals(message.getType()) || "video".equals(message.getType())) {
+                paths.add(message.getContent());
+            }
+        }
+        compressImages = task.isCompressImages();
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        int gen = generation;
+        preparing.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                long start = SystemClock.elapsedRealtime();
+                int invalid = 0;
+                MediaCache mediaCache = MediaCache.getInstance(context);
+                for (String path : paths) {
+                    if (gen != generation) {
+                        return; // 任务已结束
+                    }
+                    mediaCache.touch(path);
+                    if (!get(path).isValid()) {
+                        invalid++;
+                    }
+                }
+                Log.d(TAG, String.format("媒体文件准备完成: %d个, 无效%d个, 耗时%dms",
+                    paths.size(), invalid, SystemClock.elapsedRealtime() - start));
+            } finally {
+                preparing.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * 后台准备是否已全部完成
+     */
+    public boolean isReady() {
+        return preparing.get() == 0;
+    }
+
+    /**
+     * 后台准备完成后在主线程执行
+     */
+    public void runWhenReady(Runnable runnable) {
+        // 单线程执行器: 排在已提交的准备之后
+        executor.execute(() -> mainHandler.post(runnable));
+    }
+
+    /**
+     * 取准备好的文件,还没准备好时就地准备
+     */
+    public PreparedMedia get(String path) {
+        return cache.computeIfAbsent(path, this::resolve);
+    }
+
+    /**
+     * 多个文件共同的具体MIME类型,类型不一致或未知时返回fallback(如"image/*")
+     */
+    public static String commonMimeType(List<PreparedMedia> media, String fallback) {
+        String common = null;
+        for (PreparedMedia item : media) {
+            if (item.mimeType == null || (common != null && !common.equals(item.mimeType))) {
+                return fallback;
+            }
+            common = item.mimeType;
+        }
+        return common != null ? common : fallback;
+    }
+
+    /**
+     * 任务结束时调用: 清空缓存 (文件可能在两次任务之间被修改或删除)
+     */
+    public void clear() {
+        generation++;
+        cache.clear();
+    }
+
+    private PreparedMedia resolve(String path) {
+        File file = new File(path);
+        if (!file.exists()) {
+            Log.e(TAG, "文件不存在: " + path);
+            return new PreparedMedia(path, null, null, 0, "文件不存在");
+        }
+        if (!file.canRead()) {
+            Log.e(TAG, "文件不可读: " + path);
+            return new PreparedMedia(path, null, null, 0, "文件不可读");
+        }
+        long size = file.length();
+        if (size == 0) {
+            Log.e(TAG, "文件为空: " + path);
+            return new PreparedMedia(path, null, null, 0, "文件为空");
+        }
+
+        String mimeType = guessMimeType(file.getName());
+        if (compressImages && mimeType != null && mimeType.startsWith("image/")) {
+            File compressed = ImageCompressor.compress(context, file, mimeType);
+            if (compressed != null) {
+                file = compressed;
+                size = compressed.length();
+                mimeType = "image/jpeg";
+            }
+        }
+
+        Uri uri;
+        try {
+            uri = FileProvider.getUriForFile(context, AUTHORITY, file);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "无法生成文件Uri: " + path + ", " + e.getMessage());
+            return new PreparedMedia(path, null, null, size, "无法生成文件Uri");
+        }
+        return new PreparedMedia(path, uri, mimeType, size, null);
+    }
+
+    private static String guessMimeType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return null;
+        }
+        String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+    }
+}
@@ -0,0 +1,136 @@
+package com.wechat.auto.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 文字消息模板
+ * 文字消息中可以使用占位符,发送给每位好友时替换为对应内容:
+ *   {昵称} / {name}      好友昵称
+ *   {序号} / {index}     好友在任务中的序号 (从1开始)
+ *   {活动} / {campaign}  活动名称
+ *   {日期} / {date}      任务开始的日期 (yyyy-MM-dd)
+ * {{ 和 }} 表示字面的大括号,无法识别的占位符原样保留
+ *
+ * 任务开始时每条消息编译一次: 拆分成固定文字和好友字段交替的片段,
+ * 活动名称和日期在整个任务中不变,编译时直接并入固定文字;
+ * 之后每位好友只按片段拼接一次,不再查找占位符,也不使用正则或String.format
+ */
+public class MessageTemplate {
+
+    // 每位好友不同的字段
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_INDEX = 1;
+
+    private final String[] literals; // literals[i]后接fields[i],最后一段固定文字没有字段
+    private final int[] fields;
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals, int[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * 编译模板
+     * @param campaign 活动名称,为空时{活动}替换为空字符串
+     */
+    public static MessageTemplate compile(String text, String campaign, Date date) {
+        String campaignText = campaign != null ? campaign : "";
+        String dateText = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT).format(date);
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(text.length());
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < text.length() && text.charAt(i + 1) == c) {
+                literal.append(c); // {{ 或 }}
+                i += 2;
+                continue;
+            }
+            int end = c == '{' ? text.indexOf('}', i + 1) : -1;
+            if (end < 0) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            String key = text.substring(i + 1, end);
+            switch (key) {
+                case "昵称":
+                case "name":
+                    literals.add(literal.toString());
+                    fields.add(FIELD_NAME);
+                    literal.setLength(0);
+                    break;
+                case "序号":
+                case "index":
+                    literals.add(literal.toString());
+                    fields.add(FIELD_INDEX);
+                    literal.setLength(0);
+                    break;
+                case "活动":
+                case "campaign":
+                    literal.append(campaignText);
+                    break;
+                case "日期":
+                case "date":
+                    literal.append(dateText);
+                    break;
+                default:
+                    literal.append(text, i, end + 1); // 无法识别,原样保留
+                    break;
+            }
+            i = end + 1;
+        }
+        literals.add(literal.toString());
+
+        int[] fieldArray = new int[fields.size()];
+        for (int f = 0; f < fieldArray.length; f++) {
+            fieldArray[f] = fields.get(f);
+        }
+        return new MessageTemplate(literals.toArray(new String[0]), fieldArray);
+    }
+
+    /**
+     * 是否有每位好友不同的字段
+     */
+    public boolean isPersonalized() {
+        return fields.length > 0;
+    }
+
+    /**
+     * 生成发送给某位好友的文字
+     * @param friendNumber 好友序号,从1开始
+     * @param builder 复用的StringBuilder,内容会被清空
+     */
+    public String render(String friendName, int friendNumber, StringBuilder builder) {
+        if (fields.length == 0) {
+            // 没有好友字段: 整个任务都是同一段文字
+            return literals[0];
+        }
+
+        builder.setLength(0);
+        builder.ensureCapacity(literalLength + fields.length * friendName.length());
+        for (int i = 0; i < fields.length; i++) {
+            builder.append(literals[i]);
+            if (fields[i] == FIELD_NAME) {
+                builder.append(friendName);
+            } else {
+                builder.append(friendNumber);
+            }
+        }
+        builder.append(literals[fields.length]);
+        return builder.toString();
+    }
+}
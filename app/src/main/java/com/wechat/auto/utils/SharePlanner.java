@@ -0,0 +1,144 @@
+package com.wechat.auto.utils;
+
+import com.wechat.auto.model.SendTask;
+import com.wechat.auto.model.ShareBatch;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分享计划
+ * 功能:
+ * 1. 把好友的图片/视频消息按类型打包,减少分享流程次数
+ * 2. 每个包不超过微信单次分享的数量上限
+ * 3. 批量模式下按媒体分组,一次分享给多位好友
+ * 4. 转发模式下先分享到中转聊天,再逐条转发给多位好友
+ */
+public class SharePlanner {
+
+    // 微信单次分享最多接收9张图片
+    public static final int MAX_IMAGES_PER_SHARE = 9;
+    // 微信的分享入口对多个视频只会取第一个,视频只能逐个分享
+    public static final int MAX_VIDEOS_PER_SHARE = 1;
+    // "发送给朋友"界面"多选"最多可以选择9位好友
+    public static final int MAX_RECIPIENTS_PER_SHARE = 9;
+
+    /**
+     * 为当前好友生成媒体分享包 (跳过已发送的消息,保持消息原有顺序)
+     */
+    public static List<ShareBatch> planFriendMedia(List<SendTask.Message> messages,
+                                                  Set<Integer> sentIndices,
+                                                  String friendName) {
+        List<ShareBatch> batches = new ArrayList<>();
+        ShareBatch imageBatch = null;
+        ShareBatch videoBatch = null;
+
+        for (int i = 0; i < messages.size(); i++) {
+            if (sentIndices.contains(i)) {
+                continue; // 已发送,跳过
+            }
+
+            SendTask.Message message = messages.get(i);
+            if ("image".equals(message.getType())) {
+                if (imageBatch == null || imageBatch.size() >= MAX_IMAGES_PER_SHARE) {
+                    imageBatch = newBatch("image", friendName, batches);
+                }
+                imageBatch.addFile(i, message.getContent());
+            } else if ("video".equals(message.getType())) {
+                if (videoBatch == null || videoBatch.size() >= MAX_VIDEOS_PER_SHARE) {
+                    videoBatch = newBatch("video", friendName, batches);
+                }
+                videoBatch.addFile(i, message.getContent());
+            }
+        }
+
+        return batches;
+    }
+
+    /**
+     * 批量模式: 按媒体重新分组,每个分享包发送给最多9位好友
+     * 顺序为先媒体后好友,同一媒体包的所有好友分组连续发送
+     */
+    public static List<ShareBatch> planRecipientBatches(List<SendTask.Message> messages,
+                                                       List<String> friendNames) {
+        List<ShareBatch> batches = new ArrayList<>();
+        if (friendNames.isEmpty()) {
+            return batches;
+        }
+
+        // 先按单个好友的规则把媒体打包,再把好友分组
+        List<ShareBatch> mediaBatches = planFriendMedia(messages, new HashSet<Integer>(), null);
+        for (ShareBatch media : mediaBatches) {
+            for (int start = 0; start < friendNames.size(); start += MAX_RECIPIENTS_PER_SHARE) {
+                int end = Math.min(start + MAX_RECIPIENTS_PER_SHARE, friendNames.size());
+                ShareBatch batch = new ShareBatch(media.getType());
+                for (int i = 0; i < media.size(); i++) {
+                    batch.addFile(media.getMessageIndices().get(i), media.getFilePaths().get(i));
+                }
+                addFriends(batch, friendNames, start, end);
+                batches.add(batch);
+            }
+        }
+
+        return batches;
+    }
+
+    /**
+     * 转发模式: 先把所有媒体分享到中转聊天(每个文件只上传一次),
+     * 再把中转聊天里的每条媒体消息转发给好友,每次最多9位
+     */
+    public static List<ShareBatch> planForwardBatches(List<SendTask.Message> messages,
+                                                     List<String> friendNames,
+                                                     String stagingChat) {
+        List<ShareBatch> batches = new ArrayList<>();
+
+        // 中转聊天本身不作为转发对象
+        List<String> recipients = new ArrayList<>(friendNames);
+        recipients.remove(stagingChat);
+
+        // 第一步: 分享到中转聊天
+        List<ShareBatch> stagingBatches = planFriendMedia(messages, new HashSet<Integer>(), stagingChat);
+        batches.addAll(stagingBatches);
+        if (recipients.isEmpty()) {
+            return batches;
+        }
+
+        // 第二步: 按中转聊天中的消息顺序逐条转发
+        for (ShareBatch staging : stagingBatches) {
+            for (int j = 0; j < staging.size(); j++) {
+                forwardToRecipients(batches, staging.getType(),
+                    staging.getMessageIndices().get(j), staging.getFilePaths().get(j), recipients);
+            }
+        }
+
+        return batches;
+    }
+
+    private static void forwardToRecipients(List<ShareBatch> batches, String type, int messageIndex,
+                                            String filePath, List<String> recipients) {
+        for (int start = 0; start < recipients.size(); start += MAX_RECIPIENTS_PER_SHARE) {
+            int end = Math.min(start + MAX_RECIPIENTS_PER_SHARE, recipients.size());
+            ShareBatch batch = new ShareBatch(type);
+            batch.addFile(messageIndex, filePath);
+            batch.setForward(true);
+            addFriends(batch, recipients, start, end);
+            batches.add(batch);
+        }
+    }
+
+    private static void addFriends(ShareBatch batch, List<String> friendNames, int start, int end) {
+        for (int i = start; i < end; i++) {
+            batch.addFriend(friendNames.get(i));
+        }
+    }
+
+    private static ShareBatch newBatch(String type, String friendName, List<ShareBatch> batches) {
+        ShareBatch batch = new ShareBatch(type);
+        if (friendName != null) {
+            batch.addFriend(friendName);
+        }
+        batches.add(batch);
+        return batch;
+    }
+}
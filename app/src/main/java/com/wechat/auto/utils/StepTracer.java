@@ -0,0 +1,218 @@
+package com.wechat.auto.utils;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 步骤耗时追踪
+ * 功能:
+ * 1. 自动化流程的每一步记录一个区间(从这一步开始到下一步开始)
+ * 2. 区间同时写入android.os.Trace异步区段,可以在Perfetto/systrace中查看
+ * 3. 每一步的耗时计入对数分桶直方图,失败次数单独计数
+ * 4. 导出为Prometheus文本格式,通过adb拉取后对比不同版本:
+ *    adb pull /sdcard/Android/data/com.wechat.auto/files/metrics/
+ *
+ * 只在主线程调用step/fail/end,导出和读取快照可以在任意线程
+ */
+public class StepTracer {
+
+    private static final String TAG = "StepTracer";
+    private static final String TRACE_PREFIX = "WeChatAuto:";
+    private static final String METRICS_DIR = "metrics";
+    private static final String METRICS_FILE = "step_latency.prom";
+
+    /**
+     * 自动化流程的步骤
+     */
+    public enum Step {
+        LAUNCH("launch", "启动微信"),
+        SEARCH_CLICK("search_click", "点击搜索"),
+        QUERY_INPUT("query_input", "输入昵称"),
+        RESULT_CLICK("result_click", "点击结果"),
+        CHAT_OPEN("chat_open", "进入聊天"),
+        TEXT_SET("text_set", "输入文字"),
+        SEND("send", "点击发送"),
+        SHARE_LAUNCH("share_launch", "启动分享"),
+        SHARE_CHOOSER("share_chooser", "选择微信"),
+        SHARE_SEARCH("share_search", "分享搜索"),
+        SHARE_SELECT("share_select", "分享选择"),
+        SHARE_CONFIRM("share_confirm", "分享确认"),
+        FORWARD_PRESS("forward_press", "长按消息"),
+        FORWARD_MENU("forward_menu", "点击转发");
+
+        public final String metricName;
+        public final String label;
+
+        Step(String metricName, String label) {
+            this.metricName = metricName;
+            this.label = label;
+        }
+    }
+
+    private static final StepTracer instance = new StepTracer();
+
+    private final Map<Step, LatencyHistogram> histograms = new EnumMap<>(Step.class);
+    private final Map<Step, Long> failures = new EnumMap<>(Step.class);
+
+    // 当前正在进行的步骤
+    private Step openStep;
+    private long openStartMs;
+    private int openCookie;
+    private int nextCookie = 1;
+
+    private StepTracer() {
+        for (Step step : Step.values()) {
+            histograms.put(step, new LatencyHistogram());
+            failures.put(step, 0L);
+        }
+    }
+
+    public static StepTracer getInstance() {
+        return instance;
+    }
+
+    /**
+     * 开始新的一步 (同时结束上一步)
+     */
+    public synchronized void step(Step step) {
+        closeOpenStep(true);
+
+        openStep = step;
+        openStartMs = SystemClock.elapsedRealtime();
+        openCookie = nextCookie++;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(TRACE_PREFIX + step.metricName, openCookie);
+        }
+    }
+
+    /**
+     * 当前步骤失败(未找到节点等): 结束区间并计入失败次数,不计入耗时
+     */
+    public synchronized void fail(Step step) {
+        failures.put(step, failures.get(step) + 1);
+        if (openStep == step) {
+            closeOpenStep(false);
+        }
+    }
+
+    /**
+     * 结束当前步骤 (好友处理完、任务结束或停止时调用)
+     */
+    public synchronized void end() {
+        closeOpenStep(true);
+    }
+
+    private void closeOpenStep(boolean success) {
+        if (openStep == null) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(TRACE_PREFIX + openStep.metricName, openCookie);
+        }
+        if (success) {
+            histograms.get(openStep).record(SystemClock.elapsedRealtime() - openStartMs);
+        }
+        openStep = null;
+    }
+
+    /**
+     * 某一步耗时的分位数(毫秒),没有数据时返回0
+     */
+    public synchronized long percentile(Step step, double quantile) {
+        return histograms.get(step).percentile(quantile);
+    }
+
+    public synchronized long getCount(Step step) {
+        return histograms.get(step).getCount();
+    }
+
+    public synchronized double getMean(Step step) {
+        return histograms.get(step).getMean();
+    }
+
+    public synchronized long getFailures(Step step) {
+        return failures.get(step);
+    }
+
+    /**
+     * 清空统计 (开始新的对比测试前调用)
+     */
+    public synchronized void reset() {
+        for (Step step : Step.values()) {
+            histograms.get(step).reset();
+            failures.put(step, 0L);
+        }
+    }
+
+    /**
+     * 生成Prometheus文本格式的指标
+     */
+    public synchronized String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# device: ").append(Build.MANUFACTURER).append(' ').append(Build.MODEL)
+            .append(", sdk: ").append(Build.VERSION.SDK_INT).append('\n');
+
+        sb.append("# HELP wechat_auto_step_latency_ms Latency of each automation step in milliseconds\n");
+        sb.append("# TYPE wechat_auto_step_latency_ms histogram\n");
+        for (Step step : Step.values()) {
+            LatencyHistogram histogram = histograms.get(step);
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++) {
+                cumulative += histogram.getBucketCount(i);
+                appendSample(sb, "wechat_auto_step_latency_ms_bucket", step,
+                    String.valueOf(LatencyHistogram.BOUNDS[i]), cumulative);
+            }
+            appendSample(sb, "wechat_auto_step_latency_ms_bucket", step, "+Inf", histogram.getCount());
+            appendSample(sb, "wechat_auto_step_latency_ms_sum", step, null, histogram.getSum());
+            appendSample(sb, "wechat_auto_step_latency_ms_count", step, null, histogram.getCount());
+        }
+
+        sb.append("# HELP wechat_auto_step_failures_total Failed attempts of each automation step\n");
+        sb.append("# TYPE wechat_auto_step_failures_total counter\n");
+        for (Step step : Step.values()) {
+            appendSample(sb, "wechat_auto_step_failures_total", step, null, failures.get(step));
+        }
+        return sb.toString();
+    }
+
+    private static void appendSample(StringBuilder sb, String name, Step step, String le, long value) {
+        sb.append(name).append("{step=\"").append(step.metricName).append('"');
+        if (le != null) {
+            sb.append(",le=\"").append(le).append('"');
+        }
+        sb.append("} ").append(value).append('\n');
+    }
+
+    /**
+     * 导出指标到 getExternalFilesDir("metrics")/step_latency.prom (后台线程写文件)
+     */
+    public void export(Context context) {
+        String text = toPrometheusText();
+        File dir = context.getExternalFilesDir(METRICS_DIR);
+        if (dir == null) {
+            Log.w(TAG, "外部存储不可用,无法导出指标");
+            return;
+        }
+
+        new Thread(() -> {
+            File file = new File(dir, METRICS_FILE);
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                writer.write(text);
+                Log.d(TAG, "指标已导出: " + file.getAbsolutePath());
+            } catch (Exception e) {
+                Log.e(TAG, "导出指标失败: " + e.getMessage(), e);
+            }
+        }, "MetricsExport").start();
+    }
+}
@@ -0,0 +1,464 @@
+package com.wechat.auto.utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.wechat.auto.model.SendTask;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 从文件批量导入好友和消息
+ * 在后台线程边读边解析,不把整个文件读入内存,每一行解析出来就立即按好友列表校验
+ *
+ * 支持两种格式:
+ * 1. CSV: 每行"类型,内容",类型为 friend/text/image/video (也可以写 好友/文字/图片/视频);
+ *    只有一列的行视为好友昵称,所以一列昵称的表格可以直接导入。第一行是表头时跳过
+ * 2. JSON: {"friends": ["张三", ...], "messages": [{"type": "text", "content": "你好"}, ...], "campaign": "活动名"}
+ *    或者只有好友昵称的数组 ["张三", ...]
+ *
+ * 好友昵称通过哈希索引校验: 先精确匹配,再忽略大小写和空白匹配;
+ * 找不到或有重名的好友不加入任务,在结果中报告
+ */
+public class TaskImporter {
+
+    private static final String TAG = "TaskImporter";
+    private static final int MAX_ISSUES = 100; // 最多记录的问题条数,其余只计数
+
+    /**
+     * 导入结果
+     */
+    public static class Result {
+        public final SendTask task;            // 失败时为null
+        public final int[] contactIndices;     // 导入的好友在好友列表中的下标,与task中的好友一一对应
+        public final int unknown;              // 找不到的好友
+        public final int ambiguous;            // 有重名的好友
+        public final int duplicates;           // 重复出现的好友
+        public final int invalid;              // 无法识别的行/无效的消息
+        public final List<String> issues;      // 问题明细 (最多MAX_ISSUES条)
+        public final String error;             // 文件无法读取或格式错误时的原因
+
+        Result(SendTask task, int[] contactIndices, int unknown, int ambiguous, int duplicates,
+               int invalid, List<String> issues, String error) {
+            this.task = task;
+            this.contactIndices = contactIndices;
+            this.unknown = unknown;
+            this.ambiguous = ambiguous;
+            this.duplicates = duplicates;
+            this.invalid = invalid;
+            this.issues = issues;
+            this.error = error;
+        }
+
+        public int getIssueCount() {
+            return unknown + ambiguous + duplicates + invalid;
+        }
+    }
+
+    /**
+     * 导入结果回调 (主线程)
+     */
+    public interface Callback {
+        void onResult(Result result);
+    }
+
+    private final ContentResolver resolver;
+    // 所有导入共用一个后台线程 (每次导入都会新建TaskImporter)
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public TaskImporter(Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * 导入文件
+     * @param contacts 好友列表 (按同步顺序),导入的好友必须在其中
+     */
+    public void importUri(Uri uri, List<String> contacts, Callback callback) {
+        List<String> snapshot = new ArrayList<>(contacts);
+        executor.execute(() -> {
+            long start = System.currentTimeMillis();
+            Result result;
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("无法读取文件");
+                }
+                result = parse(new InputStreamReader(in, StandardCharsets.UTF_8), snapshot);
+            } catch (IOException | JsonParseException | IllegalStateException | SecurityException e) {
+                Log.e(TAG, "导入失败: " + uri + ", " + e.getMessage(), e);
+                String reason = e.getMessage() != null ? e.getMessage() : "文件格式错误";
+                result = new Result(null, new int[0], 0, 0, 0, 0, new ArrayList<>(), reason);
+            }
+            if (result.task != null) {
+                Log.d(TAG, String.format("导入完成: %d位好友, %d条消息, %d个问题, 耗时%dms",
+                    result.task.getFriendNames().size(), result.task.getMessages().size(),
+                    result.getIssueCount(), System.currentTimeMillis() - start));
+            }
+            Result finalResult = result;
+            mainHandler.post(() -> callback.onResult(finalResult));
+        });
+    }
+
+    /**
+     * 按第一个非空白字符判断格式并解析
+     */
+    static Result parse(Reader source, List<String> contacts) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        Builder builder = new Builder(contacts);
+
+        reader.mark(1);
+        int c = reader.read();
+        if (c != '\uFEFF') {
+            reader.reset(); // 没有BOM
+        }
+        int first;
+        do {
+            reader.mark(1);
+            first = reader.read();
+        } while (first != -1 && Character.isWhitespace(first));
+        reader.reset();
+
+        if (first == '{' || first == '[') {
+            parseJson(new JsonReader(reader), builder);
+        } else {
+            parseCsv(reader, builder);
+        }
+        return builder.build();
+    }
+
+    private static void parseCsv(BufferedReader reader, Builder builder) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> fields;
+        boolean firstRow = true;
+        while ((fields = csv.next()) != null) {
+            int line = csv.getRecordLine();
+            if (firstRow) {
+                firstRow = false;
+                String head = fields.get(0).trim().toLowerCase(Locale.ROOT);
+                if (head.equals("type") || head.equals("类型")) {
+                    continue; // 表头
+                }
+            }
+            if (fields.size() == 1) {
+                builder.addFriend(fields.get(0), "第" + line + "行");
+                continue;
+            }
+
+            String kind = fields.get(0).trim().toLowerCase(Locale.ROOT);
+            String value = fields.get(1);
+            if (kind.isEmpty() && value.trim().isEmpty()) {
+                continue; // 空行
+            }
+            if (kind.equals("friend") || kind.equals("好友")) {
+                builder.addFriend(value, "第" + line + "行");
+            } else {
+                builder.addMessage(kind, value, "第" + line + "行");
+            }
+        }
+    }
+
+    private static void parseJson(JsonReader json, Builder builder) throws IOException {
+        if (json.peek() == JsonToken.BEGIN_ARRAY) {
+            readFriends(json, builder);
+            return;
+        }
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("friends")) {
+                readFriends(json, builder);
+            } else if (name.equals("messages")) {
+                json.beginArray();
+                for (int i = 0; json.hasNext(); i++) {
+                    String type = null;
+                    String content = null;
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        String field = json.nextName();
+                        if (field.equals("type")) {
+                            type = json.nextString();
+                        } else if (field.equals("content")) {
+                            content = json.nextString();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                    builder.addMessage(type != null ? type.trim().toLowerCase(Locale.ROOT) : "",
+                        content != null ? content : "", "messages[" + i + "]");
+                }
+                json.endArray();
+            } else if (name.equals("campaign")) {
+                builder.campaign = json.nextString().trim();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+
+    private static void readFriends(JsonReader json, Builder builder) throws IOException {
+        json.beginArray();
+        for (int i = 0; json.hasNext(); i++) {
+            builder.addFriend(json.nextString(), "friends[" + i + "]");
+        }
+        json.endArray();
+    }
+
+    /**
+     * 边解析边校验,累积导入结果
+     */
+    private static class Builder {
+        private final List<String> contacts;
+        private final ContactIndex index;
+        private final BitSet seen;
+        private final List<String> friendNames = new ArrayList<>();
+        private final List<Integer> contactIndices = new ArrayList<>();
+        private final List<SendTask.Message> messages = new ArrayList<>();
+        private final List<String> issues = new ArrayList<>();
+        private String campaign;
+        private int unknown;
+        private int ambiguous;
+        private int duplicates;
+        private int invalid;
+
+        Builder(List<String> contacts) {
+            this.contacts = contacts;
+            this.index = new ContactIndex(contacts);
+            this.seen = new BitSet(contacts.size());
+        }
+
+        void addFriend(String name, String where) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                return;
+            }
+            int id = index.lookup(trimmed);
+            if (id == ContactIndex.NOT_FOUND) {
+                unknown++;
+                issue(where + ": 找不到好友「" + trimmed + "」");
+            } else if (id == ContactIndex.AMBIGUOUS) {
+                ambiguous++;
+                issue(where + ": 好友「" + trimmed + "」有重名,无法确定是哪一位");
+            } else if (seen.get(id)) {
+                duplicates++;
+            } else {
+                seen.set(id);
+                friendNames.add(contacts.get(id)); // 使用好友列表中的原始昵称
+                contactIndices.add(id);
+            }
+        }
+
+        void addMessage(String kind, String content, String where) {
+            String type;
+            switch (kind) {
+                case "text":
+                case "文字":
+                    type = "text";
+                    break;
+                case "image":
+                case "图片":
+                    type = "image";
+                    break;
+                case "video":
+                case "视频":
+                    type = "video";
+                    break;
+                default:
+                    invalid++;
+                    issue(where + ": 无法识别的类型「" + kind + "」");
+                    return;
+            }
+
+            if (type.equals("text")) {
+                if (content.trim().isEmpty()) {
+                    invalid++;
+                    issue(where + ": 文字消息为空");
+                    return;
+                }
+                messages.add(new SendTask.Message(type, content));
+                return;
+            }
+
+            String path = content.trim();
+            File file = new File(path);
+            if (!file.isFile() || !file.canRead()) {
+                invalid++;
+                issue(where + ": 文件不存在或不可读「" + path + "」");
+                return;
+            }
+            messages.add(new SendTask.Message(type, path));
+        }
+
+        private void issue(String message) {
+            if (issues.size() < MAX_ISSUES) {
+                issues.add(message);
+            }
+        }
+
+        Result build() {
+            SendTask task = new SendTask(friendNames, messages);
+            if (campaign != null && !campaign.isEmpty()) {
+                task.setCampaignId(campaign);
+            }
+            int[] indices = new int[contactIndices.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = contactIndices.get(i);
+            }
+            return new Result(task, indices, unknown, ambiguous, duplicates, invalid, issues, null);
+        }
+    }
+
+    /**
+     * 好友昵称索引: 精确匹配,以及忽略大小写和空白的匹配
+     */
+    static class ContactIndex {
+        static final int NOT_FOUND = -1;
+        static final int AMBIGUOUS = -2;
+
+        private final Map<String, Integer> exact;
+        private final Map<String, Integer> normalized;
+
+        ContactIndex(List<String> contacts) {
+            exact = new HashMap<>(contacts.size() * 2);
+            normalized = new HashMap<>(contacts.size() * 2);
+            for (int i = 0; i < contacts.size(); i++) {
+                put(exact, contacts.get(i), i);
+                put(normalized, normalize(contacts.get(i)), i);
+            }
+        }
+
+        private static void put(Map<String, Integer> map, String key, int id) {
+            if (map.put(key, id) != null) {
+                map.put(key, AMBIGUOUS); // 同一个键对应多位好友
+            }
+        }
+
+        int lookup(String name) {
+            Integer id = exact.get(name);
+            if (id == null) {
+                id = normalized.get(normalize(name));
+            }
+            return id != null ? id : NOT_FOUND;
+        }
+
+        private static String normalize(String name) {
+            StringBuilder sb = new StringBuilder(name.length());
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    sb.append(Character.toLowerCase(c));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 逐条读取CSV记录 (RFC 4180: 双引号包裹的字段中可以有逗号、换行,""表示一个双引号)
+     */
+    static class CsvReader {
+        private final Reader reader;
+        private int line = 1;
+        private int recordLine = 1;
+        private int pending = -2; // 预读的字符,-2表示没有
+
+        CsvReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * 当前记录开始的行号
+         */
+        int getRecordLine() {
+            return recordLine;
+        }
+
+        /**
+         * 下一条记录的各字段,文件结束时返回null
+         */
+        List<String> next() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            recordLine = line;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("第" + recordLine + "行: 引号没有闭合");
+                    }
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r') {
+                        int next = read();
+                        if (next != '\n') {
+                            pending = next;
+                        }
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            int c;
+            if (pending != -2) {
+                c = pending;
+                pending = -2;
+            } else {
+                c = reader.read();
+            }
+            if (c == '\n') {
+                line++;
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.wechat.auto.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 自适应等待时间
+ * 固定的等待时间是在一台手机上调出来的,慢的手机会在界面还没出现时就点击,快的手机白白等待。
+ * 这里记录每个动作从执行到微信界面做出响应的实际耗时,
+ * 按指数加权滑动平均(EWMA)维护均值和方差,据此推算等待时间和超时时间:
+ *   等待时间 = 均值 + 2倍标准差 + 界面稳定余量
+ *   超时时间 = 均值 + 4倍标准差
+ * 样本不足时使用原来的固定值,推算结果限制在固定值的一定范围内,避免个别异常样本带偏
+ *
+ * 模型按 机型 + 微信版本 分别保存在SharedPreferences中,微信升级后重新学习
+ * 只在主线程使用
+ */
+public class TimingModel {
+
+    private static final String TAG = "TimingModel";
+    private static final String PREFS_NAME = "WeChatAutoPrefs";
+    private static final String PREFS_KEY_PREFIX = "timing_model_";
+
+    private static final double ALPHA = 0.2;          // EWMA平滑系数
+    private static final int MIN_SAMPLES = 5;         // 少于该样本数时使用固定值
+    private static final long SETTLE_MS = 300;        // 界面出现后等待控件稳定的余量
+    private static final long MIN_DELAY_MS = 500;     // 推算等待时间的下限
+    private static final long MIN_TIMEOUT_MS = 1000;  // 推算超时时间的下限
+    private static final int SAVE_EVERY = 20;         // 每记录多少个样本保存一次
+
+    /**
+     * 需要等待微信响应的动作 (默认值为原来的固定等待时间)
+     */
+    public enum Key {
+        LAUNCH(3000),          // 启动微信 → 微信窗口出现
+        SEARCH_OPEN(1500),     // 点击搜索 → 搜索界面出现
+        SEARCH_RESULTS(1500),  // 输入昵称 → 搜索结果出现
+        CHAT_OPEN(2000),       // 点击搜索结果 → 聊天界面出现
+        SEND_ACK(1000),        // 点击发送 → 确认消息已发出
+        SHARE_OPEN(2000),      // 启动分享 → 微信分享界面出现
+        SHARE_CONFIRM(2000),   // 分享确认 → 分享界面关闭
+        MOMENTS_CHAT_INFO(1500), // 点击聊天信息 → 聊天信息界面出现
+        MOMENTS_PROFILE(1500),   // 点击好友头像 → 好友资料界面出现
+        MOMENTS_ALBUM(1500);     // 点击朋友圈 → 朋友圈相册出现
+
+        public final long defaultMillis;
+
+        Key(long defaultMillis) {
+            this.defaultMillis = defaultMillis;
+        }
+    }
+
+    /**
+     * 单个动作的统计 (保存为JSON)
+     */
+    static class Stat {
+        double mean;
+        double variance;
+        int count;
+    }
+
+    private final SharedPreferences prefs;
+    private final String prefsKey;
+    private final Gson gson = new Gson();
+    private final Map<Key, Stat> stats = new EnumMap<>(Key.class);
+
+    // 正在等待响应的动作 (流程是串行的,同一时间只有一个)
+    private Key pendingKey;
+    private long pendingStartMs;
+    private int unsavedSamples = 0;
+
+    /**
+     * @param wechatVersionCode 微信版本号,获取不到时传-1
+     */
+    public TimingModel(Context context, long wechatVersionCode) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.prefsKey = PREFS_KEY_PREFIX + Build.MANUFACTURER + "_" + Build.MODEL + "_" + wechatVersionCode;
+        load();
+    }
+
+    private void load() {
+        String json = prefs.getString(prefsKey, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            Map<String, Stat> saved = gson.fromJson(json, new TypeToken<HashMap<String, Stat>>() {}.getType());
+            for (Map.Entry<String, Stat> entry : saved.entrySet()) {
+                try {
+                    stats.put(Key.valueOf(entry.getKey()), entry.getValue());
+                } catch (IllegalArgumentException ignored) {
+                    // 旧版本保存的动作已不存在
+                }
+            }
+            Log.d(TAG, "已加载等待时间模型: " + prefsKey);
+        } catch (Exception e) {
+            Log.w(TAG, "等待时间模型损坏,重新学习: " + e.getMessage());
+            stats.clear();
+        }
+    }
+
+    /**
+     * 保存模型 (任务结束时调用,记录过程中每SAVE_EVERY个样本也会保存一次)
+     */
+    public void save() {
+        if (unsavedSamples == 0) {
+            return;
+        }
+        Map<String, Stat> out = new HashMap<>();
+        for (Map.Entry<Key, Stat> entry : stats.entrySet()) {
+            out.put(entry.getKey().name(), entry.getValue());
+        }
+        prefs.edit().putString(prefsKey, gson.toJson(out)).apply();
+        unsavedSamples = 0;
+    }
+
+    /**
+     * 执行动作时调用: 开始计时,等待界面响应
+     */
+    public void start(Key key) {
+        pendingKey = key;
+        pendingStartMs = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 观察到界面响应时调用: 正在等待的是该动作时记录耗时
+     */
+    public void stop(Key key) {
+        if (pendingKey != key) {
+            return;
+        }
+        pendingKey = null;
+        record(key, SystemClock.elapsedRealtime() - pendingStartMs);
+    }
+
+    /**
+     * 正在等待响应的动作,没有时返回null
+     */
+    public Key getPending() {
+        return pendingKey;
+    }
+
+    /**
+     * 放弃正在等待的动作 (任务停止时调用)
+     */
+    public void cancel() {
+        pendingKey = null;
+    }
+
+    /**
+     * 记录一个样本
+     */
+    public void record(Key key, long millis) {
+        // 超过固定值很多的样本多半是手机卡顿或界面没有响应,截断后再计入
+        double sample = Math.min(millis, key.defaultMillis * 5);
+        Stat stat = stats.get(key);
+        if (stat == null) {
+            stat = new Stat();
+            stat.mean = sample;
+            stats.put(key, stat);
+        } else {
+            double diff = sample - stat.mean;
+            stat.mean += ALPHA * diff;
+            stat.variance = (1 - ALPHA) * (stat.variance + ALPHA * diff * diff);
+        }
+        stat.count++;
+
+        if (++unsavedSamples >= SAVE_EVERY) {
+            save();
+        }
+    }
+
+    /**
+     * 执行动作后等待多久再进行下一步
+     */
+    public long delay(Key key) {
+        Stat stat = stats.get(key);
+        if (stat == null || stat.count < MIN_SAMPLES) {
+            return key.defaultMillis;
+        }
+        long millis = Math.round(stat.mean + 2 * Math.sqrt(stat.variance)) + SETTLE_MS;
+        return clamp(millis, MIN_DELAY_MS, key.defaultMillis * 3);
+    }
+
+    /**
+     * 等待界面响应的超时时间
+     * @param defaultTimeout 样本不足时使用的固定超时时间,推算结果不超过它的2倍
+     */
+    public long timeout(Key key, long defaultTimeout) {
+        Stat stat = stats.get(key);
+        if (stat == null || stat.count < MIN_SAMPLES) {
+            return defaultTimeout;
+        }
+        long millis = Math.round(stat.mean + 4 * Math.sqrt(stat.variance));
+        return clamp(millis, MIN_TIMEOUT_MS, defaultTimeout * 2);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
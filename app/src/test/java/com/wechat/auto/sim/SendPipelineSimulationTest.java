@@ -0,0 +1,222 @@
+package com.wechat.auto.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import com.wechat.auto.model.SendTask;
+import com.wechat.auto.model.TaskProgress;
+import com.wechat.auto.service.TaskProgressChannel;
+import com.wechat.auto.utils.BackgroundExecutor;
+import com.wechat.auto.utils.StepTracer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * 发送流程端到端测试: 完整的SendTask在模拟的微信界面上执行
+ * 所有等待都按模拟时钟推进; 推进之前先等数据库等后台任务执行完,回调顺序与真实时间无关
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = SimNodeShadow.class)
+public class SendPipelineSimulationTest {
+
+    private static final List<String> CONTACTS = Arrays.asList("张三", "李四", "王五", "赵六");
+    private static final long MAX_SIM_MILLIS = 10 * 60 * 1000;
+    private static final long MAX_FRIEND_MILLIS = 60 * 1000;  // 每位好友的模拟耗时上限
+    private static final long BACKGROUND_TIMEOUT_MS = 10000; // 等待后台任务执行完的真实时间上限
+
+    private WeChatSimulator simulator;
+    private ServiceController<SimulatedAccessibilityService> controller;
+    private SimulatedAccessibilityService service;
+    private final List<TaskProgressChannel.TerminalEvent> terminals = new ArrayList<>();
+
+    private final TaskProgressChannel.Listener listener = new TaskProgressChannel.Listener() {
+        @Override
+        public void onProgress(TaskProgress progress) {
+        }
+
+        @Override
+        public void onTerminal(TaskProgressChannel.TerminalEvent event) {
+            terminals.add(event);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        simulator = new WeChatSimulator(CONTACTS, new WeChatSimulator.Latencies());
+        SimulatedAccessibilityService.simulator = simulator;
+        controller = Robolectric.buildService(SimulatedAccessibilityService.class).create();
+        service = controller.get();
+        simulator.attach(service::onAccessibilityEvent);
+
+        StepTracer.getInstance().reset();
+        TaskProgressChannel.getInstance().subscribe(listener);
+        terminals.clear(); // 订阅时会收到上一个测试的结束事件
+    }
+
+    @After
+    public void tearDown() {
+        TaskProgressChannel.getInstance().unsubscribe(listener);
+        controller.destroy();
+    }
+
+    @Test
+    public void textMessagesReachEveryFriendOnce() throws Exception {
+        SendTask task = new SendTask(new ArrayList<>(CONTACTS.subList(0, 3)), Arrays.asList(
+            new SendTask.Message("text", "你好"),
+            new SendTask.Message("text", "周末一起吃饭吗")));
+
+        long elapsed = runTask(task);
+
+        for (String friend : task.getFriendNames()) {
+            assertEquals(Arrays.asList("你好", "周末一起吃饭吗"), simulator.getChat(friend));
+        }
+        assertEquals("赵六不在任务中", 0, simulator.getChat("赵六").size());
+        assertStats(task, elapsed);
+    }
+
+    @Test
+    public void droppedSendTapIsRetried() throws Exception {
+        simulator.dropSendTaps(1);
+        SendTask task = new SendTask(new ArrayList<>(CONTACTS.subList(0, 2)), Arrays.asList(
+            new SendTask.Message("text", "在吗")));
+
+        long elapsed = runTask(task);
+
+        // 第一次点击被吞掉后重试,每位好友恰好收到一条
+        for (String friend : task.getFriendNames()) {
+            assertEquals(Arrays.asList("在吗"), simulator.getChat(friend));
+        }
+        assertStats(task, elapsed);
+    }
+
+    @Test
+    public void perFriendImagesAreSharedThroughChooser() throws Exception {
+        SendTask task = new SendTask(new ArrayList<>(CONTACTS.subList(0, 2)), Arrays.asList(
+            new SendTask.Message("text", "看看这两张"),
+            new SendTask.Message("image", createFile("a.jpg")),
+            new SendTask.Message("image", createFile("b.jpg"))));
+        task.setShareMode(SendTask.ShareMode.PER_FRIEND);
+
+        long elapsed = runTask(task);
+
+        for (String friend : task.getFriendNames()) {
+            List<String> chat = simulator.getChat(friend);
+            assertEquals(3, chat.size());
+            assertEquals("看看这两张", chat.get(0));
+            assertTrue(chat.get(1).endsWith("a.jpg"));
+            assertTrue(chat.get(2).endsWith("b.jpg"));
+        }
+        assertStats(task, elapsed);
+    }
+
+    @Test
+    public void multiRecipientShareSendsImageOncePerFriend() throws Exception {
+        SendTask task = new SendTask(new ArrayList<>(CONTACTS), Arrays.asList(
+            new SendTask.Message("text", "活动海报"),
+            new SendTask.Message("image", createFile("poster.jpg"))));
+        task.setShareMode(SendTask.ShareMode.MULTI_RECIPIENT);
+
+        long elapsed = runTask(task);
+
+        for (String friend : task.getFriendNames()) {
+            List<String> chat = simulator.getChat(friend);
+            assertEquals(2, chat.size());
+            assertEquals("活动海报", chat.get(0));
+            assertTrue(chat.get(1).endsWith("poster.jpg"));
+        }
+        assertStats(task, elapsed);
+    }
+
+    @Test
+    public void slowDeviceStillCompletes() throws Exception {
+        // 所有界面响应都慢50%,仍在各步骤默认等待时间之内
+        simulator = new WeChatSimulator(CONTACTS, new WeChatSimulator.Latencies().scaled(1.5));
+        SimulatedAccessibilityService.simulator = simulator;
+        simulator.attach(service::onAccessibilityEvent);
+        SendTask task = new SendTask(new ArrayList<>(CONTACTS.subList(0, 2)), Arrays.asList(
+            new SendTask.Message("text", "你好"),
+            new SendTask.Message("image", createFile("slow.jpg"))));
+        task.setShareMode(SendTask.ShareMode.PER_FRIEND);
+
+        long elapsed = runTask(task);
+
+        for (String friend : task.getFriendNames()) {
+            List<String> chat = simulator.getChat(friend);
+            assertEquals(2, chat.size());
+            assertEquals("你好", chat.get(0));
+            assertTrue(chat.get(1).endsWith("slow.jpg"));
+        }
+        assertStats(task, elapsed);
+    }
+
+    /**
+     * 执行任务直到结束,返回模拟耗时(毫秒)
+     */
+    private long runTask(SendTask task) throws InterruptedException {
+        long start = SystemClock.uptimeMillis();
+        service.startSendTask(task);
+
+        ShadowLooper looper = shadowOf(Looper.getMainLooper());
+        while (true) {
+            // 执行当前时刻的主线程任务和它们提交的后台任务,直到都没有新的工作
+            do {
+                looper.idle();
+                assertTrue("后台任务未执行完", BackgroundExecutor.awaitIdle(BACKGROUND_TIMEOUT_MS));
+            } while (!looper.isIdle());
+            if (!terminals.isEmpty()) {
+                break;
+            }
+            assertTrue("模拟时间内任务未结束", SystemClock.uptimeMillis() - start < MAX_SIM_MILLIS);
+            // 没有待执行的延时任务又没有结束事件: 流程卡住了(例如找不到发送按钮后直接返回)
+            assertFalse("任务未结束且没有待执行的操作", looper.getNextScheduledTaskTime().isZero());
+            looper.runOneTask();
+        }
+
+        assertEquals(TaskProgressChannel.TerminalEvent.Status.COMPLETED, terminals.get(0).status);
+        return SystemClock.uptimeMillis() - start;
+    }
+
+    private String createFile(String name) throws Exception {
+        File file = new File(service.getCacheDir(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9});
+        }
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * 每位好友都收到了消息,相邻两位好友之间的模拟耗时在合理范围内
+     * (多选分享时所有好友同时收到,间隔为0)
+     */
+    private void assertStats(SendTask task, long elapsed) {
+        assertTrue("模拟耗时应为正数", elapsed > 0);
+        assertTrue("应有界面操作", simulator.getActionCount() > 0);
+        assertEquals(task.getFriendNames().size(), simulator.getLastDeliveryTimes().size());
+
+        long previous = -1;
+        for (Map.Entry<String, Long> entry : simulator.getLastDeliveryTimes().entrySet()) {
+            if (previous >= 0) {
+                long gap = entry.getValue() - previous;
+                assertTrue(entry.getKey() + "距上一位好友" + gap + "ms", gap >= 0 && gap < MAX_FRIEND_MILLIS);
+            }
+            previous = entry.getValue();
+        }
+    }
+}
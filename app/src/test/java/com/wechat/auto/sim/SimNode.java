@@ -0,0 +1,123 @@
+package com.wechat.auto.sim;
+
+import android.os.Bundle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 模拟界面中的一个控件
+ * 纯Java对象,由SimNodeShadow包装成AccessibilityNodeInfo交给服务
+ */
+public class SimNode {
+
+    /**
+     * 控件被操作时的回调 (返回值即performAction的返回值)
+     */
+    public interface ActionHandler {
+        boolean onAction(SimNode node, int action, Bundle arguments);
+    }
+
+    final String className;
+    String viewId;
+    CharSequence text;
+    CharSequence contentDescription;
+    boolean clickable;
+    boolean editable;
+    boolean longClickable;
+    boolean scrollable;
+    ActionHandler actionHandler;
+
+    SimNode parent;
+    final List<SimNode> children = new ArrayList<>();
+
+    public SimNode(String className) {
+        this.className = className;
+    }
+
+    public static SimNode layout() {
+        return new SimNode("android.widget.LinearLayout");
+    }
+
+    public static SimNode textView(CharSequence text) {
+        return new SimNode("android.widget.TextView").text(text);
+    }
+
+    public static SimNode editText() {
+        SimNode node = new SimNode("android.widget.EditText");
+        node.editable = true;
+        return node;
+    }
+
+    public SimNode id(String viewId) {
+        this.viewId = viewId;
+        return this;
+    }
+
+    public SimNode text(CharSequence text) {
+        this.text = text;
+        return this;
+    }
+
+    public SimNode desc(CharSequence contentDescription) {
+        this.contentDescription = contentDescription;
+        return this;
+    }
+
+    public SimNode clickable(ActionHandler handler) {
+        this.clickable = true;
+        this.actionHandler = handler;
+        return this;
+    }
+
+    public SimNode onAction(ActionHandler handler) {
+        this.actionHandler = handler;
+        return this;
+    }
+
+    public SimNode add(SimNode child) {
+        child.parent = this;
+        children.add(child);
+        return this;
+    }
+
+    public void removeChildren() {
+        for (SimNode child : children) {
+            child.parent = null;
+        }
+        children.clear();
+    }
+
+    public CharSequence getText() {
+        return text;
+    }
+
+    boolean perform(int action, Bundle arguments) {
+        return actionHandler != null && actionHandler.onAction(this, action, arguments);
+    }
+
+    /**
+     * 与AccessibilityNodeInfo.findAccessibilityNodeInfosByText相同: 文字或描述包含(忽略大小写)
+     */
+    void findByText(String query, List<SimNode> out) {
+        String lower = query.toLowerCase();
+        if (contains(text, lower) || contains(contentDescription, lower)) {
+            out.add(this);
+        }
+        for (SimNode child : children) {
+            child.findByText(query, out);
+        }
+    }
+
+    void findByViewId(String id, List<SimNode> out) {
+        if (id.equals(viewId)) {
+            out.add(this);
+        }
+        for (SimNode child : children) {
+            child.findByViewId(id, out);
+        }
+    }
+
+    private static boolean contains(CharSequence value, String lowerQuery) {
+        return value != null && value.toString().toLowerCase().contains(lowerQuery);
+    }
+}
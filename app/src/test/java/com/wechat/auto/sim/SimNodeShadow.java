@@ -0,0 +1,134 @@
+package com.wechat.auto.sim;
+
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.view.accessibility.AccessibilityNodeInfo;
+import java.util.ArrayList;
+import java.util.List;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+
+/**
+ * AccessibilityNodeInfo的影子实现: 所有查询和操作转给对应的SimNode
+ * Robolectric自带的影子不支持按文字和resource-id查找,这里整体替换
+ */
+@Implements(AccessibilityNodeInfo.class)
+public class SimNodeShadow {
+
+    private SimNode node;
+
+    /**
+     * 把模拟控件包装成服务使用的AccessibilityNodeInfo
+     */
+    public static AccessibilityNodeInfo wrap(SimNode node) {
+        if (node == null) {
+            return null;
+        }
+        AccessibilityNodeInfo info = new AccessibilityNodeInfo();
+        SimNodeShadow shadow = Shadow.extract(info);
+        shadow.node = node;
+        return info;
+    }
+
+    private static List<AccessibilityNodeInfo> wrapAll(List<SimNode> nodes) {
+        List<AccessibilityNodeInfo> result = new ArrayList<>();
+        for (SimNode node : nodes) {
+            result.add(wrap(node));
+        }
+        return result;
+    }
+
+    @Implementation
+    protected int getChildCount() {
+        return node.children.size();
+    }
+
+    @Implementation
+    protected AccessibilityNodeInfo getChild(int index) {
+        return index < node.children.size() ? wrap(node.children.get(index)) : null;
+    }
+
+    @Implementation
+    protected AccessibilityNodeInfo getParent() {
+        return wrap(node.parent);
+    }
+
+    @Implementation
+    protected CharSequence getText() {
+        return node.text;
+    }
+
+    @Implementation
+    protected CharSequence getContentDescription() {
+        return node.contentDescription;
+    }
+
+    @Implementation
+    protected CharSequence getClassName() {
+        return node.className;
+    }
+
+    @Implementation
+    protected String getViewIdResourceName() {
+        return node.viewId;
+    }
+
+    @Implementation
+    protected boolean isClickable() {
+        return node.clickable;
+    }
+
+    @Implementation
+    protected boolean isEditable() {
+        return node.editable;
+    }
+
+    @Implementation
+    protected boolean isLongClickable() {
+        return node.longClickable;
+    }
+
+    @Implementation
+    protected boolean isScrollable() {
+        return node.scrollable;
+    }
+
+    @Implementation
+    protected void getBoundsInScreen(Rect outBounds) {
+        outBounds.set(0, 0, 1080, 2340);
+    }
+
+    @Implementation
+    protected boolean performAction(int action) {
+        return node.perform(action, null);
+    }
+
+    @Implementation
+    protected boolean performAction(int action, Bundle arguments) {
+        return node.perform(action, arguments);
+    }
+
+    @Implementation
+    protected List<AccessibilityNodeInfo> findAccessibilityNodeInfosByText(String text) {
+        List<SimNode> found = new ArrayList<>();
+        node.findByText(text, found);
+        return wrapAll(found);
+    }
+
+    @Implementation
+    protected List<AccessibilityNodeInfo> findAccessibilityNodeInfosByViewId(String viewId) {
+        List<SimNode> found = new ArrayList<>();
+        node.findByViewId(viewId, found);
+        return wrapAll(found);
+    }
+
+    @Implementation
+    protected boolean refresh() {
+        return true;
+    }
+
+    @Implementation
+    protected void recycle() {
+    }
+}
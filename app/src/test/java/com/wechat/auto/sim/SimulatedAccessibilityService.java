@@ -0,0 +1,24 @@
+package com.wechat.auto.sim;
+
+import android.content.Intent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import com.wechat.auto.service.WeChatAccessibilityService;
+
+/**
+ * 连接到模拟器的无障碍服务: 窗口内容和启动界面都交给WeChatSimulator,其余逻辑与真机完全相同
+ */
+public class SimulatedAccessibilityService extends WeChatAccessibilityService {
+
+    // Robolectric通过无参构造创建服务,创建前由测试设置
+    static WeChatSimulator simulator;
+
+    @Override
+    public AccessibilityNodeInfo getRootInActiveWindow() {
+        return simulator.getRoot();
+    }
+
+    @Override
+    public void startActivity(Intent intent) {
+        simulator.onStartActivity(intent);
+    }
+}
@@ -0,0 +1,526 @@
+package com.wechat.auto.sim;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 微信界面模拟器
+ * 把服务用到的微信界面建成状态机: 首页 → 搜索 → 聊天,以及系统分享选择器 → 选择聊天 → 发送确认框
+ * 每个界面生成与真机相同resource-id/文字/类名的控件树,界面切换和内容变化时发出相同类型的无障碍事件
+ *
+ * 界面响应的耗时可配置,所有延迟都通过主线程Handler实现,
+ * 在Robolectric的暂停Looper下按模拟时钟推进,结果是确定的
+ */
+public class WeChatSimulator {
+
+    static final String WECHAT_PACKAGE = "com.tencent.mm";
+    static final String CHOOSER_PACKAGE = "com.android.intentresolver";
+    static final String LAUNCHER_UI = "com.tencent.mm.ui.LauncherUI";
+    static final String SEARCH_UI = "com.tencent.mm.plugin.fts.ui.FTSMainUI";
+    static final String CHATTING_UI = "com.tencent.mm.ui.chatting.ChattingUI";
+    static final String CHOOSER_UI = "com.android.internal.app.ChooserActivity";
+    static final String SHARE_PICKER_UI = "com.tencent.mm.ui.transmit.SelectConversationUI";
+
+    /**
+     * 各界面的响应耗时(毫秒)
+     */
+    public static class Latencies {
+        public long launch = 1200;         // 启动微信 → 首页出现
+        public long searchOpen = 600;      // 点击搜索 → 搜索界面出现
+        public long searchResults = 500;   // 输入文字 → 搜索结果出现
+        public long chatOpen = 700;        // 点击搜索结果 → 聊天界面出现
+        public long sendAck = 300;         // 点击发送 → 消息出现在聊天中
+        public long chooser = 400;         // 分享 → 系统选择器出现
+        public long shareOpen = 900;       // 选择"发送给朋友" → 选择聊天界面出现
+        public long shareConfirm = 800;    // 确认发送 → 分享完成
+
+        /**
+         * 所有耗时乘以同一个系数 (模拟更快或更慢的手机)
+         */
+        public Latencies scaled(double factor) {
+            Latencies l = new Latencies();
+            l.launch = Math.round(launch * factor);
+            l.searchOpen = Math.round(searchOpen * factor);
+            l.searchResults = Math.round(searchResults * factor);
+            l.chatOpen = Math.round(chatOpen * factor);
+            l.sendAck = Math.round(sendAck * factor);
+            l.chooser = Math.round(chooser * factor);
+            l.shareOpen = Math.round(shareOpen * factor);
+            l.shareConfirm = Math.round(shareConfirm * factor);
+            return l;
+        }
+    }
+
+    /**
+     * 接收模拟器发出的无障碍事件 (即服务的onAccessibilityEvent)
+     */
+    public interface EventSink {
+        void onAccessibilityEvent(AccessibilityEvent event);
+    }
+
+    private enum Screen {
+        NONE,          // 不在微信中
+        LAUNCHER,      // 微信首页
+        SEARCH,        // 搜索界面
+        CHATTING,      // 聊天界面
+        CHOOSER,       // 系统分享选择器
+        SHARE_PICKER,  // 分享时选择聊天
+        SHARE_CONFIRM  // 分享发送确认框
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<String> contacts;
+    private final Latencies latencies;
+    private EventSink sink;
+
+    private Screen screen = Screen.NONE;
+    private SimNode root;
+
+    // 搜索界面
+    private String searchQuery = "";
+    private boolean searchResultsShown = false;
+
+    // 聊天界面
+    private String chatFriend;
+    private String chatInput = "";
+    private final Map<String, List<String>> chats = new HashMap<>();
+
+    // 分享
+    private List<String> pendingAttachments = new ArrayList<>();
+    private String pickerQuery = "";
+    private boolean pickerResultsShown = false;
+    private boolean multiSelect = false;
+    private final Set<String> pickerSelected = new LinkedHashSet<>();
+
+    // 故障注入
+    private int droppedSendTaps = 0;
+
+    // 统计
+    private int actionCount = 0;
+    private final Map<String, Long> lastDeliveryAt = new LinkedHashMap<>();
+
+    public WeChatSimulator(List<String> contacts, Latencies latencies) {
+        this.contacts = new ArrayList<>(contacts);
+        this.latencies = latencies;
+        for (String contact : contacts) {
+            chats.put(contact, new ArrayList<>());
+        }
+    }
+
+    public void attach(EventSink sink) {
+        this.sink = sink;
+    }
+
+    // ==================== 故障注入 ====================
+
+    /**
+     * 接下来的count次点击聊天"发送"按钮不生效 (模拟点击被吞掉)
+     */
+    public void dropSendTaps(int count) {
+        droppedSendTaps = count;
+    }
+
+    // ==================== 查询结果 ====================
+
+    /**
+     * 好友收到的消息 (文字为原文,文件为"[MIME类型] 文件名")
+     */
+    public List<String> getChat(String friendName) {
+        return chats.get(friendName);
+    }
+
+    /**
+     * 服务执行的界面操作次数 (点击、输入、启动界面)
+     */
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * 每位好友最后一条消息送达的模拟时间,按送达顺序
+     */
+    public Map<String, Long> getLastDeliveryTimes() {
+        return lastDeliveryAt;
+    }
+
+    // ==================== 服务入口 ====================
+
+    /**
+     * 当前窗口的根节点 (服务的getRootInActiveWindow)
+     */
+    public AccessibilityNodeInfo getRoot() {
+        return SimNodeShadow.wrap(root);
+    }
+
+    /**
+     * 服务启动界面 (服务的startActivity)
+     */
+    public void onStartActivity(Intent intent) {
+        actionCount++;
+        String action = intent.getAction();
+        if (Intent.ACTION_SEND.equals(action) || Intent.ACTION_SEND_MULTIPLE.equals(action)) {
+            pendingAttachments = describeAttachments(intent);
+            if (intent.getComponent() != null) {
+                // 直接启动微信分享入口
+                later(latencies.shareOpen, this::openSharePicker);
+            } else {
+                later(latencies.chooser, this::openChooser);
+            }
+            return;
+        }
+
+        if (intent.getComponent() != null && LAUNCHER_UI.equals(intent.getComponent().getClassName())) {
+            later(latencies.launch, () -> show(Screen.LAUNCHER));
+        }
+    }
+
+    // ==================== 界面 ====================
+
+    private void show(Screen next) {
+        screen = next;
+        render();
+        switch (next) {
+            case LAUNCHER:
+                emit(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, WECHAT_PACKAGE, LAUNCHER_UI);
+                break;
+            case SEARCH:
+                emit(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, WECHAT_PACKAGE, SEARCH_UI);
+                break;
+            case CHATTING:
+                emit(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, WECHAT_PACKAGE, CHATTING_UI);
+                break;
+            case CHOOSER:
+                emit(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, CHOOSER_PACKAGE, CHOOSER_UI);
+                break;
+            case SHARE_PICKER:
+            case SHARE_CONFIRM:
+                emit(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, WECHAT_PACKAGE, SHARE_PICKER_UI);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 按当前状态重新生成控件树
+     */
+    private void render() {
+        switch (screen) {
+            case LAUNCHER:
+                root = renderLauncher();
+                break;
+            case SEARCH:
+                root = renderSearch();
+                break;
+            case CHATTING:
+                root = renderChat();
+                break;
+            case CHOOSER:
+                root = renderChooser();
+                break;
+            case SHARE_PICKER:
+            case SHARE_CONFIRM:
+                root = renderSharePicker();
+                break;
+            default:
+                root = null;
+                break;
+        }
+    }
+
+    private SimNode renderLauncher() {
+        SimNode page = SimNode.layout();
+        page.add(SimNode.textView("微信"));
+        page.add(new SimNode("android.widget.ImageView").id("com.tencent.mm:id/jha").desc("搜索")
+            .clickable(click(Screen.LAUNCHER, () -> later(latencies.searchOpen, () -> {
+                searchQuery = "";
+                searchResultsShown = false;
+                show(Screen.SEARCH);
+            }))));
+        SimNode tabs = SimNode.layout();
+        for (String tab : new String[]{"微信", "通讯录", "发现", "我"}) {
+            tabs.add(SimNode.layout().clickable(click(Screen.LAUNCHER, null)).add(SimNode.textView(tab)));
+        }
+        page.add(tabs);
+        return page;
+    }
+
+    private SimNode renderSearch() {
+        SimNode page = SimNode.layout();
+        page.add(SimNode.editText().text(searchQuery).onAction((node, action, args) -> {
+            if (screen != Screen.SEARCH) {
+                return false;
+            }
+            if (action == AccessibilityNodeInfo.ACTION_SET_TEXT) {
+                actionCount++;
+                searchQuery = textArgument(args);
+                searchResultsShown = false;
+                render();
+                later(latencies.searchResults, () -> {
+                    if (screen == Screen.SEARCH) {
+                        searchResultsShown = true;
+                        render();
+                        emit(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, WECHAT_PACKAGE, SEARCH_UI);
+                    }
+                });
+            }
+            return true;
+        }));
+
+        if (searchResultsShown) {
+            SimNode results = SimNode.layout();
+            for (String contact : matches(searchQuery)) {
+                results.add(SimNode.layout().clickable(click(Screen.SEARCH,
+                    () -> later(latencies.chatOpen, () -> openChat(contact))))
+                    .add(SimNode.textView(contact)));
+            }
+            page.add(results);
+        }
+        return page;
+    }
+
+    private void openChat(String friendName) {
+        chatFriend = friendName;
+        chatInput = "";
+        show(Screen.CHATTING);
+    }
+
+    private SimNode renderChat() {
+        SimNode page = SimNode.layout();
+        page.add(SimNode.textView(chatFriend));
+
+        SimNode history = SimNode.layout();
+        for (String message : chats.get(chatFriend)) {
+            history.add(SimNode.textView(message));
+        }
+        page.add(history);
+
+        page.add(SimNode.editText().id("com.tencent.mm:id/bkn").text(chatInput).onAction((node, action, args) -> {
+            if (screen != Screen.CHATTING) {
+                return false;
+            }
+            actionCount++;
+            if (action == AccessibilityNodeInfo.ACTION_SET_TEXT) {
+                chatInput = textArgument(args);
+                render();
+            }
+            return true;
+        }));
+
+        page.add(new SimNode("android.widget.Button").id("com.tencent.mm:id/bql").text("发送")
+            .clickable(click(Screen.CHATTING, this::onChatSendTapped)));
+        return page;
+    }
+
+    private void onChatSendTapped() {
+        if (droppedSendTaps > 0) {
+            droppedSendTaps--;
+            return; // 点击被吞掉,输入框保持原样
+        }
+        if (chatInput.isEmpty()) {
+            return;
+        }
+
+        String friend = chatFriend;
+        String text = chatInput;
+        later(latencies.sendAck, () -> {
+            deliver(friend, text);
+            if (screen == Screen.CHATTING && friend.equals(chatFriend)) {
+                chatInput = "";
+                render();
+                emit(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, WECHAT_PACKAGE, CHATTING_UI);
+            }
+        });
+    }
+
+    private void openChooser() {
+        show(Screen.CHOOSER);
+    }
+
+    private SimNode renderChooser() {
+        SimNode page = SimNode.layout();
+        page.add(SimNode.layout().clickable(click(Screen.CHOOSER, () -> later(latencies.shareOpen, this::openSharePicker)))
+            .add(SimNode.textView("发送给朋友")));
+        page.add(SimNode.layout().clickable(click(Screen.CHOOSER, null))
+            .add(SimNode.textView("添加到微信收藏")));
+        return page;
+    }
+
+    private void openSharePicker() {
+        pickerQuery = "";
+        pickerResultsShown = false;
+        multiSelect = false;
+        pickerSelected.clear();
+        show(Screen.SHARE_PICKER);
+    }
+
+    private SimNode renderSharePicker() {
+        SimNode page = SimNode.layout();
+        page.add(SimNode.textView("选择一个聊天"));
+        if (!multiSelect) {
+            page.add(SimNode.textView("多选").clickable(click(Screen.SHARE_PICKER, () -> {
+                multiSelect = true;
+                render();
+                emit(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, WECHAT_PACKAGE, SHARE_PICKER_UI);
+            })));
+        } else if (!pickerSelected.isEmpty()) {
+            page.add(new SimNode("android.widget.Button").text("完成(" + pickerSelected.size() + ")")
+                .clickable(click(Screen.SHARE_PICKER, () -> show(Screen.SHARE_CONFIRM))));
+        }
+
+        page.add(SimNode.editText().desc("搜索").text(pickerQuery).onAction((node, action, args) -> {
+            if (screen != Screen.SHARE_PICKER) {
+                return false;
+            }
+            actionCount++;
+            if (action == AccessibilityNodeInfo.ACTION_SET_TEXT) {
+                pickerQuery = textArgument(args);
+                pickerResultsShown = false;
+                render();
+                later(latencies.searchResults, () -> {
+                    if (screen == Screen.SHARE_PICKER) {
+                        pickerResultsShown = true;
+                        render();
+                        emit(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, WECHAT_PACKAGE, SHARE_PICKER_UI);
+                    }
+                });
+            }
+            return true;
+        }));
+
+        if (pickerResultsShown) {
+            SimNode results = SimNode.layout();
+            for (String contact : matches(pickerQuery)) {
+                results.add(SimNode.layout().clickable(click(Screen.SHARE_PICKER, () -> {
+                    if (multiSelect) {
+                        if (!pickerSelected.remove(contact)) {
+                            pickerSelected.add(contact);
+                        }
+                        render();
+                    } else {
+                        pickerSelected.add(contact);
+                        show(Screen.SHARE_CONFIRM);
+                    }
+                })).add(SimNode.textView(contact)));
+            }
+            page.add(results);
+        }
+
+        if (screen == Screen.SHARE_CONFIRM) {
+            SimNode dialog = SimNode.layout();
+            dialog.add(SimNode.textView("发送给: " + String.join("、", pickerSelected)));
+            dialog.add(new SimNode("android.widget.Button").text("取消")
+                .clickable(click(Screen.SHARE_CONFIRM, () -> show(Screen.SHARE_PICKER))));
+            dialog.add(new SimNode("android.widget.Button").text("发送")
+                .clickable(click(Screen.SHARE_CONFIRM, this::onShareConfirmed)));
+            page.add(dialog);
+        }
+        return page;
+    }
+
+    private void onShareConfirmed() {
+        List<String> recipients = new ArrayList<>(pickerSelected);
+        List<String> attachments = pendingAttachments;
+        later(latencies.shareConfirm, () -> {
+            for (String friend : recipients) {
+                for (String attachment : attachments) {
+                    deliver(friend, attachment);
+                }
+            }
+            // 分享完成后回到发起分享的应用
+            screen = Screen.NONE;
+            root = null;
+        });
+    }
+
+    // ==================== 工具方法 ====================
+
+    /**
+     * 可点击控件的点击处理: 只有控件所在界面仍在显示时才生效
+     */
+    private SimNode.ActionHandler click(Screen on, Runnable onClick) {
+        return (node, action, args) -> {
+            if (screen != on || action != AccessibilityNodeInfo.ACTION_CLICK) {
+                return false;
+            }
+            actionCount++;
+            if (onClick != null) {
+                onClick.run();
+            }
+            return true;
+        };
+    }
+
+    private List<String> matches(String query) {
+        List<String> result = new ArrayList<>();
+        if (query == null || query.isEmpty()) {
+            return result;
+        }
+        for (String contact : contacts) {
+            if (contact.contains(query)) {
+                result.add(contact);
+            }
+        }
+        return result;
+    }
+
+    private void deliver(String friend, String message) {
+        chats.get(friend).add(message);
+        lastDeliveryAt.remove(friend);
+        lastDeliveryAt.put(friend, SystemClock.uptimeMillis());
+    }
+
+    private static List<String> describeAttachments(Intent intent) {
+        List<Uri> uris = new ArrayList<>();
+        if (Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) {
+            ArrayList<Uri> list = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+            if (list != null) {
+                uris.addAll(list);
+            }
+        } else {
+            Uri uri = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+            if (uri != null) {
+                uris.add(uri);
+            }
+        }
+
+        List<String> result = new ArrayList<>();
+        for (Uri uri : uris) {
+            result.add("[" + intent.getType() + "] " + uri.getLastPathSegment());
+        }
+        return result;
+    }
+
+    private static String textArgument(Bundle args) {
+        CharSequence text = args != null
+            ? args.getCharSequence(AccessibilityNodeInfo.ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE) : null;
+        return text != null ? text.toString() : "";
+    }
+
+    private void later(long delayMillis, Runnable runnable) {
+        handler.postDelayed(runnable, delayMillis);
+    }
+
+    private void emit(int eventType, String packageName, String className) {
+        if (sink == null) {
+            return;
+        }
+        AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+        event.setPackageName(packageName);
+        event.setClassName(className);
+        sink.onAccessibilityEvent(event);
+    }
+}
@@ -0,0 +1,119 @@
+"""
+本地AI测试服务
+模拟OpenAI兼容的 /v1/chat/completions 接口(支持流式SSE),用于在不消耗API额度的情况下
+测试APP的"AI按好友改写文字消息"功能: 预取、超时回退原文、失败重试
+
+用法:
+    python src/ai_stub_server.py --port 8787 --latency 1.5 --token-delay 0.05 --fail-rate 0.1
+    adb reverse tcp:8787 tcp:8787
+然后在APP中把AI接口地址配置为 http://127.0.0.1:8787/v1
+
+只依赖Python标准库
+"""
+
+import argparse
+import json
+import random
+import re
+import time
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+ARGS = None
+
+
+def rewrite(user_content):
+    """根据请求中的好友昵称和原始消息生成"改写"结果"""
+    match = re.search(r"好友昵称: (.*)\n原始消息:\n(.*)", user_content, re.S)
+    if not match:
+        return user_content
+    nickname, original = match.group(1).strip(), match.group(2).strip()
+    return f"{nickname},你好!{original}"
+
+
+class StubHandler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"  # 支持keep-alive,验证APP复用连接
+
+    def do_POST(self):
+        if not self.path.rstrip("/").endswith("/chat/completions"):
+            self.send_error(404)
+            return
+
+        length = int(self.headers.get("Content-Length", 0))
+        request = json.loads(self.rfile.read(length) or b"{}")
+        user_messages = [m["content"] for m in request.get("messages", []) if m.get("role") == "user"]
+        text = rewrite(user_messages[-1] if user_messages else "")
+
+        time.sleep(ARGS.latency)
+        if random.random() < ARGS.fail_rate:
+            self.send_json(500, {"error": {"message": "stub: 模拟服务错误"}})
+            return
+
+        if request.get("stream"):
+            self.send_stream(text, request.get("model", "stub"))
+        else:
+            self.send_json(200, {
+                "object": "chat.completion",
+                "model": request.get("model", "stub"),
+                "choices": [{"index": 0, "message": {"role": "assistant", "content": text},
+                             "finish_reason": "stop"}],
+            })
+
+    def send_json(self, status, body):
+        data = json.dumps(body, ensure_ascii=False).encode("utf-8")
+        self.send_response(status)
+        self.send_header("Content-Type", "application/json; charset=utf-8")
+        self.send_header("Content-Length", str(len(data)))
+        self.end_headers()
+        self.wfile.write(data)
+
+    def send_stream(self, text, model):
+        self.send_response(200)
+        self.send_header("Content-Type", "text/event-stream; charset=utf-8")
+        self.send_header("Cache-Control", "no-cache")
+        self.send_header("Transfer-Encoding", "chunked")
+        self.end_headers()
+
+        # 每次发送2个字,模拟逐字生成
+        for i in range(0, len(text), 2):
+            chunk = {"object": "chat.completion.chunk", "model": model,
+                     "choices": [{"index": 0, "delta": {"content": text[i:i + 2]}, "finish_reason": None}]}
+            if not self.write_chunk(f"data: {json.dumps(chunk, ensure_ascii=False)}\n\n"):
+                return  # 客户端已断开(达到长度上限或超时)
+            time.sleep(ARGS.token_delay)
+        self.write_chunk("data: [DONE]\n\n")
+        self.write_chunk("")  # 结束chunked响应
+
+    def write_chunk(self, payload):
+        data = payload.encode("utf-8")
+        try:
+            self.wfile.write(f"{len(data):x}\r\n".encode("ascii") + data + b"\r\n")
+            self.wfile.flush()
+            return True
+        except (BrokenPipeError, ConnectionResetError):
+            return False
+
+    def log_message(self, fmt, *args):
+        print(f"[{time.strftime('%H:%M:%S')}] {self.address_string()} {fmt % args}")
+
+
+def main():
+    global ARGS
+    parser = argparse.ArgumentParser(description="本地AI测试服务 (OpenAI兼容接口)")
+    parser.add_argument("--host", default="0.0.0.0")
+    parser.add_argument("--port", type=int, default=8787)
+    parser.add_argument("--latency", type=float, default=1.0, help="返回第一个字之前的延迟(秒)")
+    parser.add_argument("--token-delay", type=float, default=0.05, help="流式响应每段之间的延迟(秒)")
+    parser.add_argument("--fail-rate", type=float, default=0.0, help="随机返回500错误的比例(0-1)")
+    ARGS = parser.parse_args()
+
+    server = ThreadingHTTPServer((ARGS.host, ARGS.port), StubHandler)
+    print(f"AI测试服务已启动: http://{ARGS.host}:{ARGS.port}/v1 "
+          f"(延迟{ARGS.latency}s, 失败率{ARGS.fail_rate:.0%})")
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+
+
+if __name__ == "__main__":
+    main()
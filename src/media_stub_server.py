@@ -0,0 +1,124 @@
+"""
+本地媒体测试服务
+模拟朋友圈媒体的下载地址,用于测试APP的朋友圈媒体下载: 并行下载、Range断点续传、
+按URL和内容去重、磁盘配额
+
+    GET /media/<名称>.<扩展名>?size=字节数&seed=种子
+
+同一个seed和size返回相同的内容(不同名称、相同seed可测试按内容去重),
+支持 Range / If-Range, ETag由内容决定
+
+用法:
+    python src/media_stub_server.py --port 8788 --rate 256 --cut-rate 0.3
+    adb reverse tcp:8788 tcp:8788
+然后在好友的朋友圈文字中放入 http://127.0.0.1:8788/media/a.jpg?size=2000000&seed=1 这样的链接
+
+只依赖Python标准库
+"""
+
+import argparse
+import hashlib
+import random
+import re
+import time
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+from urllib.parse import parse_qs, urlparse
+
+ARGS = None
+CHUNK = 16 * 1024
+MIME_TYPES = {"jpg": "image/jpeg", "jpeg": "image/jpeg", "png": "image/png",
+              "gif": "image/gif", "mp4": "video/mp4"}
+
+
+def content_for(seed, size):
+    """按seed生成固定的内容"""
+    rng = random.Random(seed)
+    return rng.randbytes(size) if hasattr(rng, "randbytes") else bytes(rng.getrandbits(8) for _ in range(size))
+
+
+class StubHandler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"  # 支持keep-alive,验证APP复用连接
+
+    def do_GET(self):
+        url = urlparse(self.path)
+        match = re.fullmatch(r"/media/[^/]+\.(\w+)", url.path)
+        if not match:
+            self.send_error(404)
+            return
+
+        query = parse_qs(url.query)
+        size = int(query.get("size", ["100000"])[0])
+        seed = int(query.get("seed", ["0"])[0])
+        data = content_for(seed, size)
+        etag = '"%s"' % hashlib.sha1(data).hexdigest()[:16]
+        mime = MIME_TYPES.get(match.group(1).lower(), "application/octet-stream")
+
+        start = 0
+        range_header = self.headers.get("Range")
+        if_range = self.headers.get("If-Range")
+        if range_header and (if_range is None or if_range == etag):
+            range_match = re.fullmatch(r"bytes=(\d+)-", range_header.strip())
+            if range_match:
+                start = int(range_match.group(1))
+                if start >= size:
+                    self.send_response(416)
+                    self.send_header("Content-Range", f"bytes */{size}")
+                    self.send_header("Content-Length", "0")
+                    self.end_headers()
+                    return
+
+        body = data[start:]
+        if start > 0:
+            self.send_response(206)
+            self.send_header("Content-Range", f"bytes {start}-{size - 1}/{size}")
+        else:
+            self.send_response(200)
+        self.send_header("Content-Type", mime)
+        self.send_header("Content-Length", str(len(body)))
+        self.send_header("Accept-Ranges", "bytes")
+        self.send_header("ETag", etag)
+        self.end_headers()
+
+        # 按比例在中途断开连接,测试续传
+        cut_at = random.randint(1, len(body)) if body and random.random() < ARGS.cut_rate else None
+        sent = 0
+        while sent < len(body):
+            end = min(sent + CHUNK, len(body), cut_at or len(body))
+            try:
+                self.wfile.write(body[sent:end])
+                self.wfile.flush()
+            except (BrokenPipeError, ConnectionResetError):
+                return
+            chunk_size, sent = end - sent, end
+            if cut_at is not None and sent >= cut_at:
+                print(f"[{time.strftime('%H:%M:%S')}] 模拟断开: {url.path} 已发送{start + sent}/{size}")
+                self.close_connection = True
+                return
+            if ARGS.rate > 0:
+                time.sleep(chunk_size / (ARGS.rate * 1024))
+
+    def log_message(self, fmt, *args):
+        print(f"[{time.strftime('%H:%M:%S')}] {self.address_string()} {fmt % args} "
+              f"Range={self.headers.get('Range')}")
+
+
+def main():
+    global ARGS
+    parser = argparse.ArgumentParser(description="本地媒体测试服务 (支持Range)")
+    parser.add_argument("--host", default="0.0.0.0")
+    parser.add_argument("--port", type=int, default=8788)
+    parser.add_argument("--rate", type=float, default=0, help="每个连接的限速(KB/s), 0表示不限速")
+    parser.add_argument("--cut-rate", type=float, default=0.0, help="中途断开连接的比例(0-1)")
+    ARGS = parser.parse_args()
+
+    server = ThreadingHTTPServer((ARGS.host, ARGS.port), StubHandler)
+    print(f"媒体测试服务已启动: http://{ARGS.host}:{ARGS.port}/media/a.jpg?size=2000000&seed=1 "
+          f"(限速{ARGS.rate or '无'}, 断开率{ARGS.cut_rate:.0%})")
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+
+
+if __name__ == "__main__":
+    main()
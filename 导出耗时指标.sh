@@ -0,0 +1,18 @@
+#!/bin/bash
+
+# 拉取微信私域自动化APK的步骤耗时指标 (Prometheus文本格式)
+# 使用方法: ./导出耗时指标.sh [版本标签]
+# 任务完成或停止后APP会自动导出指标,拉取后可以用diff对比不同版本
+
+DEVICE="${ADB_SERIAL:-192.168.1.3:37139}"
+LABEL="${1:-$(date +%Y%m%d_%H%M%S)}"
+REMOTE="/sdcard/Android/data/com.wechat.auto/files/metrics/step_latency.prom"
+LOCAL="metrics/step_latency_${LABEL}.prom"
+
+mkdir -p metrics
+adb -s "$DEVICE" pull "$REMOTE" "$LOCAL" || exit 1
+
+echo "================================"
+echo "已保存到: $LOCAL"
+echo "各步骤次数和总耗时(毫秒):"
+grep -E "_(count|sum)\{" "$LOCAL"